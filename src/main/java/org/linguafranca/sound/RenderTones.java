@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound;
+
+import org.linguafranca.sound.audio.AudioEncoder;
+import org.linguafranca.sound.audio.CadenceRenderer;
+import org.linguafranca.sound.audio.WavWriter;
+import org.linguafranca.sound.cadence.CadenceScript;
+import org.linguafranca.sound.cadence.ToneScriptParser;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.TreeSet;
+
+import static org.linguafranca.sound.cadence.Cadences.CALL_PROGRESS;
+
+/**
+ * Renders a ToneScript, or the name of one of {@link org.linguafranca.sound.cadence.Cadences#CALL_PROGRESS},
+ * to standard output or a file, for use in shell pipelines, e.g.
+ * <pre>
+ *     java -cp sounds.jar org.linguafranca.sound.RenderTones us_busy --rate 8000 --format ulaw | other-tool
+ * </pre>
+ * The audio is rendered as it is written so the whole of it is never held in memory.
+ *
+ * @author jo
+ */
+public class RenderTones {
+
+    private static final String USAGE = "Usage: RenderTones <tone script or name> [--rate <frames per second>]"
+            + " [--format raw|wav|ulaw|alaw] [--output <file>] [--benchmark]%n"
+            + "  raw and wav are 16 bit signed little endian mono, ulaw and alaw are G.711 without a header%n"
+            + "  output goes to standard output if no file is given, --benchmark renders without writing%n"
+            + "  names are %s%n";
+
+    /**
+     * What to write
+     */
+    private enum Format {RAW, WAV, ULAW, ALAW}
+
+    private RenderTones() {
+    }
+
+    private static AudioFormat getAudioFormat(Format format, float rate) {
+        switch (format) {
+            case ULAW:
+                return AudioEncoder.makeG711Format(AudioFormat.Encoding.ULAW, rate);
+            case ALAW:
+                return AudioEncoder.makeG711Format(AudioFormat.Encoding.ALAW, rate);
+            default:
+                return AudioEncoder.makeFormat(rate, 16, 1, false);
+        }
+    }
+
+    /**
+     * Run with arguments as for main
+     *
+     * @param args   the command line
+     * @param stdout where the audio goes if no file is given
+     * @param stderr where messages go
+     * @return the exit status
+     * @throws IOException if the output can't be written
+     */
+    static int run(String[] args, OutputStream stdout, PrintStream stderr) throws IOException {
+        String script = null;
+        float rate = AudioEncoder.TELEPHONY_AUDIO_FORMAT.getFrameRate();
+        Format format = Format.RAW;
+        String output = null;
+        boolean benchmark = false;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--rate":
+                        rate = Float.parseFloat(args[++i]);
+                        break;
+                    case "--format":
+                        format = Format.valueOf(args[++i].toUpperCase(Locale.ROOT));
+                        break;
+                    case "--output":
+                        output = args[++i];
+                        break;
+                    case "--benchmark":
+                        benchmark = true;
+                        break;
+                    default:
+                        if (args[i].startsWith("--") || script != null) {
+                            throw new IllegalArgumentException("Unexpected " + args[i]);
+                        }
+                        script = args[i];
+                }
+            }
+            if (script == null || !(rate > 0)) {
+                throw new IllegalArgumentException("A tone script and a positive rate are needed");
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            stderr.format(USAGE, new TreeSet<>(CALL_PROGRESS.keySet()));
+            return 2;
+        }
+
+        CadenceScript cadenceScript;
+        try {
+            cadenceScript = CALL_PROGRESS.containsKey(script)
+                    ? ToneScriptParser.parseToneScript(script, CALL_PROGRESS.get(script))
+                    : ToneScriptParser.parseToneScript(script);
+        } catch (RuntimeException e) {
+            stderr.format("Can't parse %s: %s%n", script, e.getMessage());
+            return 1;
+        }
+        CadenceRenderer renderer = new CadenceRenderer(getAudioFormat(format, rate));
+
+        long started = System.nanoTime();
+        long frames;
+        if (benchmark) {
+            frames = write(renderer.createStream(cadenceScript), null);
+        } else if (format == Format.WAV && output != null) {
+            frames = renderer.write(cadenceScript, Paths.get(output));
+        } else if (output != null) {
+            try (OutputStream out = Files.newOutputStream(Paths.get(output))) {
+                frames = write(renderer.createStream(cadenceScript), out);
+            }
+        } else {
+            AudioInputStream stream = renderer.createStream(cadenceScript);
+            OutputStream out = new BufferedOutputStream(stdout);
+            if (format == Format.WAV) {
+                out.write(WavWriter.getHeader(stream.getFormat(), stream.getFrameLength()));
+            }
+            frames = write(stream, out);
+            out.flush();
+        }
+        if (benchmark) {
+            double seconds = (System.nanoTime() - started) / 1e9;
+            stderr.format("%d frames in %.3f s, %.0f frames/s, %.0f times real time%n",
+                    frames, seconds, frames / seconds, frames / seconds / rate);
+        }
+        return 0;
+    }
+
+    /**
+     * Copy a stream a block at a time
+     *
+     * @param stream what to copy
+     * @param out    where to copy it to, or null to discard it
+     * @return the number of frames
+     */
+    private static long write(AudioInputStream stream, OutputStream out) throws IOException {
+        byte[] block = new byte[1 << 16];
+        long bytes = 0;
+        int read;
+        while ((read = stream.read(block)) > 0) {
+            if (out != null) {
+                out.write(block, 0, read);
+            }
+            bytes += read;
+        }
+        return bytes / stream.getFormat().getFrameSize();
+    }
+
+    public static void main(String[] args) throws IOException {
+        // anything logged to the console must not get mixed up with the audio
+        PrintStream stdout = System.out;
+        System.setOut(System.err);
+        System.exit(run(args, stdout, System.err));
+    }
+}
@@ -17,15 +17,16 @@
 
 package org.linguafranca.sound.audio;
 
+import org.linguafranca.sound.tone.Tone;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.util.List;
 
-import static org.linguafranca.sound.audio.WaveGenerator.IDENTITY_MODULATOR;
 import static org.linguafranca.sound.audio.WaveGenerator.SINE_MODULATOR;
 
 /**
@@ -49,25 +50,92 @@ public class AudioEncoder {
             FRAME_RATE,     // frame rate = sample rate
             false          // little endian
     );
-    // this is the scaling factor for encoding: inputs are -1 < 0 < 1, outputs need to be scaled
-    protected static final float MAX_ENCODED_AMPLITUDE = (float) Math.pow(2, DEFAULT_AUDIO_FORMAT.getSampleSizeInBits() - 1);
 
+    /**
+     * 8kHz 16 bit mono, enough for narrowband telephony, at a little less than a tenth of the size of
+     * DEFAULT_AUDIO_FORMAT
+     */
+    public static final AudioFormat TELEPHONY_AUDIO_FORMAT = makeFormat(8000.0F, 16, 1, false);
+
+    /**
+     * 16kHz 16 bit mono, for wideband telephony
+     */
+    public static final AudioFormat WIDEBAND_AUDIO_FORMAT = makeFormat(16000.0F, 16, 1, false);
+
+    /**
+     * 8kHz G.711 mu-law, one byte per sample, as carried on North American and Japanese telephony
+     */
+    public static final AudioFormat ULAW_AUDIO_FORMAT = makeG711Format(AudioFormat.Encoding.ULAW, 8000.0F);
+
+    /**
+     * 8kHz G.711 A-law, one byte per sample, as carried on European and most other telephony
+     */
+    public static final AudioFormat ALAW_AUDIO_FORMAT = makeG711Format(AudioFormat.Encoding.ALAW, 8000.0F);
+
+    /**
+     * How samples are calculated
+     */
+    public enum Synthesis {
+        /** in floating point, for any waveform and format */
+        FLOAT,
+        /**
+         * in integers by {@link FixedPointMixer}, bit for bit reproducible, where the format is 16 bit
+         * and no tone is modulated, otherwise as FLOAT
+         */
+        FIXED_POINT
+    }
+
+    // the number of frames generated at a time before encoding
+    static final int BLOCK_SIZE_IN_FRAMES = 1024;
 
     /**
-     * Stereo, 16 bit little-endian writing
+     * Changed whenever a change to the code changes the samples it renders, so that anything rendered
+     * and stored by a different version is not used
      */
-    protected static void writeFrame(float amplitude, ByteArrayOutputStream audioStream) {
-        int adjustedValue = Math.round(amplitude * MAX_ENCODED_AMPLITUDE);
-        audioStream.write(adjustedValue & 0xFF);
-        audioStream.write((adjustedValue >>> 8) & 0xFF);
-        audioStream.write(adjustedValue & 0xFF);
-        audioStream.write((adjustedValue >>> 8) & 0xFF);
+    public static final int RENDERER_VERSION = 1;
+
+    /**
+     * Make a signed integer PCM format
+     *
+     * @param sampleRate       frames per second
+     * @param sampleSizeInBits 8, 16 or 24
+     * @param channels         1 or 2, the same sample is written to both
+     * @param bigEndian        the byte order of samples of more than 8 bits
+     * @return an AudioFormat
+     */
+    public static AudioFormat makeFormat(float sampleRate, int sampleSizeInBits, int channels, boolean bigEndian) {
+        return new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, sampleRate, sampleSizeInBits, channels,
+                channels * sampleSizeInBits / 8, sampleRate, bigEndian);
+    }
+
+    /**
+     * Make a 32 bit floating point PCM format
+     *
+     * @param sampleRate frames per second
+     * @param channels   1 or 2, the same sample is written to both
+     * @param bigEndian  the byte order of samples
+     * @return an AudioFormat
+     */
+    public static AudioFormat makeFloatFormat(float sampleRate, int channels, boolean bigEndian) {
+        return new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, sampleRate, 32, channels, channels * 4, sampleRate, bigEndian);
     }
 
+    /**
+     * Make a mono G.711 format
+     *
+     * @param encoding   {@link AudioFormat.Encoding#ULAW} or {@link AudioFormat.Encoding#ALAW}
+     * @param sampleRate frames per second, normally 8000
+     * @return an AudioFormat
+     */
+    public static AudioFormat makeG711Format(AudioFormat.Encoding encoding, float sampleRate) {
+        return new AudioFormat(encoding, sampleRate, 8, 1, 1, sampleRate, false);
+    }
 
     /**
      * Constructs a new audio sample, using DEFAULT_AUDIO_FORMAT and SineWaves, creates
-     * chosen number of periods of the selected modulated frequencies
+     * chosen number of periods of the selected modulated frequencies.
+     * <p>
+     * The pitch is exact, the length of the sample is rounded to the nearest frame
      *
      * @param signalFrequency       the signal frequency in Hertz
      * @param signalAmplitude       the amplitude between 0 and 1
@@ -77,25 +145,291 @@ public class AudioEncoder {
         return createSample(WaveGenerator.Waveform.SINE, signalFrequency, signalAmplitude, periods);
     }
     public static AudioInputStream createSample(WaveGenerator.WaveGen waveGen, double signalFrequency, double signalAmplitude, int periods) {
+        return createSample(DEFAULT_AUDIO_FORMAT, waveGen, signalFrequency, signalAmplitude, periods);
+    }
+
+    /**
+     * Constructs a new audio sample of a chosen number of periods of a waveform
+     *
+     * @param format                the format to encode to
+     * @param waveGen               the waveform
+     * @param signalFrequency       the signal frequency in Hertz
+     * @param signalAmplitude       the amplitude between 0 and 1
+     * @param periods               number of periods of sample to create
+     */
+    public static AudioInputStream createSample(AudioFormat format, WaveGenerator.WaveGen waveGen, double signalFrequency, double signalAmplitude, int periods) {
+
+        logger.trace("Making {}@{} periods {} as {}", signalFrequency, signalAmplitude, periods, format);
+
+        // the length of the requested number of periods at the exact frequency, to the nearest frame
+        long lengthInFrames = Oscillator.getFramesForPeriods(signalFrequency, format.getFrameRate(), periods);
+
+        Oscillator oscillator = new Oscillator(waveGen, signalFrequency, format.getFrameRate());
+        byte[] data = render(oscillator.asSource(signalAmplitude), (int) lengthInFrames, new PcmEncoder(format));
+
+        logger.trace("Finished making wave form: {} frames", lengthInFrames);
+        return new AudioInputStream(new ByteArrayInputStream(data), format, lengthInFrames);
+    }
+
+    /**
+     * Constructs a new audio sample of a chosen number of periods of an amplitude modulated waveform
+     *
+     * @param format              the format to encode to
+     * @param waveGen             the carrier waveform
+     * @param signalFrequency     the carrier frequency in Hertz
+     * @param signalAmplitude     the amplitude between 0 and 1
+     * @param modulator           the modulation to apply
+     * @param modulationFrequency the frequency of the modulation in Hertz
+     * @param periods             number of periods of the modulation to create
+     */
+    public static AudioInputStream createSample(AudioFormat format, WaveGenerator.WaveGen waveGen, double signalFrequency, double signalAmplitude,
+                                                WaveGenerator.Modulator modulator, double modulationFrequency, int periods) {
+
+        logger.trace("Making {}@{} modulated at {} periods {} as {}", signalFrequency, signalAmplitude, modulationFrequency, periods, format);
+
+        long lengthInFrames = Oscillator.getFramesForPeriods(modulationFrequency, format.getFrameRate(), periods);
+
+        Oscillator oscillator = new ModulatedOscillator(waveGen, signalFrequency, modulator, modulationFrequency, format.getFrameRate());
+        byte[] data = render(oscillator.asSource(signalAmplitude), (int) lengthInFrames, new PcmEncoder(format));
+
+        return new AudioInputStream(new ByteArrayInputStream(data), format, lengthInFrames);
+    }
+
+    /**
+     * Constructs a new audio sample of several tones mixed together, using DEFAULT_AUDIO_FORMAT and SineWaves.
+     * The tones are scaled down if necessary so that the mix does not clip.
+     *
+     * @param tones   the tones to mix
+     * @param periods number of periods of the lowest frequency to create
+     */
+    public static AudioInputStream createSample(List<Tone> tones, int periods) {
+        return createSample(DEFAULT_AUDIO_FORMAT, tones, periods);
+    }
+
+    /**
+     * Constructs a new audio sample of several tones mixed together, using SineWaves.
+     * The tones are scaled down if necessary so that the mix does not clip. Modulated tones are modulated
+     * by a sine wave.
+     *
+     * @param format  the format to encode to
+     * @param tones   the tones to mix
+     * @param periods number of periods of the lowest frequency, including modulation frequencies, to create
+     */
+    public static AudioInputStream createSample(AudioFormat format, List<Tone> tones, int periods) {
+        logger.trace("Mixing {} periods {} as {}", tones, periods, format);
+
+        double lowestFrequency = Double.MAX_VALUE;
+        for (Tone tone : tones) {
+            lowestFrequency = Math.min(lowestFrequency, tone.getFrequency());
+            if (tone.isModulated()) {
+                lowestFrequency = Math.min(lowestFrequency, tone.getModulationFrequency());
+            }
+        }
+        long lengthInFrames = Oscillator.getFramesForPeriods(lowestFrequency, format.getFrameRate(), periods);
+
+        ToneMixer mixer = new ToneMixer(WaveGenerator.Waveform.SINE, SINE_MODULATOR, tones, format.getFrameRate());
+        byte[] data = render(mixer, (int) lengthInFrames, new PcmEncoder(format));
+
+        return new AudioInputStream(new ByteArrayInputStream(data), format, lengthInFrames);
+    }
+
+    /**
+     * Constructs a sample of several tones mixed together that can be looped without a click, its length
+     * chosen by a {@link LoopPlanner}. Uses SineWaves, modulated tones are modulated by a sine wave.
+     *
+     * @param format  the format to encode to
+     * @param tones   the tones to mix
+     * @param planner chooses the length
+     */
+    public static AudioInputStream createLoop(AudioFormat format, List<Tone> tones, LoopPlanner planner) {
+        return createLoop(format, tones, planner, Envelope.getNone(format.getFrameRate()));
+    }
+
+    /**
+     * Constructs a sample of several tones mixed together that starts with an attack ramp followed by a part
+     * that can be looped without a click, whose length is chosen by a {@link LoopPlanner}. The loop starts
+     * at frame {@link Envelope#getAttackFrames()}. Uses SineWaves, modulated tones are modulated by a sine wave.
+     *
+     * @param format   the format to encode to
+     * @param tones    the tones to mix
+     * @param planner  chooses the length of the loop
+     * @param envelope the attack to apply, the release is not used
+     */
+    public static AudioInputStream createLoop(AudioFormat format, List<Tone> tones, LoopPlanner planner, Envelope envelope) {
+        return createLoop(format, tones, planner, envelope, Synthesis.FLOAT);
+    }
+
+    /**
+     * As {@link #createLoop(AudioFormat, List, LoopPlanner, Envelope)}, choosing how the samples are calculated
+     *
+     * @param format    the format to encode to
+     * @param tones     the tones to mix
+     * @param planner   chooses the length of the loop
+     * @param envelope  the attack to apply, the release is not used
+     * @param synthesis how to calculate the samples
+     */
+    public static AudioInputStream createLoop(AudioFormat format, List<Tone> tones, LoopPlanner planner, Envelope envelope, Synthesis synthesis) {
+        byte[] data = renderLoop(format, tones, planner, envelope, synthesis);
+        return new AudioInputStream(new ByteArrayInputStream(data), format, data.length / format.getFrameSize());
+    }
+
+    /**
+     * The data of {@link #createLoop(AudioFormat, List, LoopPlanner, Envelope, Synthesis)}
+     */
+    static byte[] renderLoop(AudioFormat format, List<Tone> tones, LoopPlanner planner, Envelope envelope, Synthesis synthesis) {
+        long lengthInFrames = envelope.getAttackFrames() + planner.plan(tones, format);
+        logger.trace("Mixing loop of {} frames of {} as {}", lengthInFrames, tones, format);
+
+        return render(format, tones, (int) lengthInFrames, envelope, Long.MAX_VALUE, synthesis);
+    }
+
+    /**
+     * Constructs a sample of several tones mixed together lasting exactly the duration given, to the nearest frame,
+     * which starts and ends with the ramps of an envelope. Uses SineWaves, modulated tones are modulated
+     * by a sine wave.
+     *
+     * @param format         the format to encode to
+     * @param tones          the tones to mix
+     * @param durationMillis the length of the sample
+     * @param envelope       the attack and release to apply
+     */
+    public static AudioInputStream createSegment(AudioFormat format, List<Tone> tones, int durationMillis, Envelope envelope) {
+        return createSegment(format, tones, durationMillis, envelope, Synthesis.FLOAT);
+    }
+
+    /**
+     * As {@link #createSegment(AudioFormat, List, int, Envelope)}, choosing how the samples are calculated
+     *
+     * @param format         the format to encode to
+     * @param tones          the tones to mix
+     * @param durationMillis the length of the sample
+     * @param envelope       the attack and release to apply
+     * @param synthesis      how to calculate the samples
+     */
+    public static AudioInputStream createSegment(AudioFormat format, List<Tone> tones, int durationMillis, Envelope envelope, Synthesis synthesis) {
+        byte[] data = renderSegment(format, tones, durationMillis, envelope, synthesis);
+        return new AudioInputStream(new ByteArrayInputStream(data), format, data.length / format.getFrameSize());
+    }
+
+    /**
+     * The data of {@link #createSegment(AudioFormat, List, int, Envelope, Synthesis)}
+     */
+    static byte[] renderSegment(AudioFormat format, List<Tone> tones, int durationMillis, Envelope envelope, Synthesis synthesis) {
+        long lengthInFrames = Math.round(durationMillis * (double) format.getFrameRate() / 1000);
+        logger.trace("Mixing segment of {} frames of {} as {}", lengthInFrames, tones, format);
+
+        return render(format, tones, (int) lengthInFrames, envelope, lengthInFrames, synthesis);
+    }
 
-        logger.trace("Making {}@{} periods {}", signalFrequency, signalAmplitude, periods);
+    /**
+     * Mix tones, sine waves modulated by sine waves where modulated, into a new array
+     */
+    private static byte[] render(AudioFormat format, List<Tone> tones, int frames, Envelope envelope, long soundLength, Synthesis synthesis) {
+        if (synthesis == Synthesis.FIXED_POINT && FixedPointMixer.isSupported(format, tones)) {
+            return render(new FixedPointMixer(tones, format.getFrameRate()), frames, new PcmEncoder(format), envelope, soundLength);
+        }
+        ToneMixer mixer = new ToneMixer(WaveGenerator.Waveform.SINE, SINE_MODULATOR, tones, format.getFrameRate());
+        return render(mixer, frames, new PcmEncoder(format), envelope, soundLength);
+    }
 
-        // the greater of the modulation period and the length of the signal period in frames
-        long signalPeriodLengthInFrames = Math.round(DEFAULT_AUDIO_FORMAT.getFrameRate() / signalFrequency);
+    /**
+     * Make a stream that generates a waveform as it is read, using DEFAULT_AUDIO_FORMAT, for as long as it
+     * continues to be read
+     *
+     * @param waveGen         the waveform
+     * @param signalFrequency the signal frequency in Hertz
+     * @param signalAmplitude the amplitude between 0 and 1
+     * @return a stream of unspecified length
+     */
+    public static AudioInputStream createStream(WaveGenerator.WaveGen waveGen, double signalFrequency, double signalAmplitude) {
+        return createStream(DEFAULT_AUDIO_FORMAT, waveGen, signalFrequency, signalAmplitude, AudioSystem.NOT_SPECIFIED);
+    }
 
-        // get a new output stream to write to
-        ByteArrayOutputStream audioStream = new ByteArrayOutputStream((int) signalPeriodLengthInFrames * DEFAULT_AUDIO_FORMAT.getFrameSize() * periods);
+    /**
+     * Make a stream that generates a waveform as it is read, using DEFAULT_AUDIO_FORMAT
+     *
+     * @param waveGen         the waveform
+     * @param signalFrequency the signal frequency in Hertz
+     * @param signalAmplitude the amplitude between 0 and 1
+     * @param lengthInFrames  the length of the stream, or {@link AudioSystem#NOT_SPECIFIED} to go on indefinitely
+     * @return a stream
+     */
+    public static AudioInputStream createStream(WaveGenerator.WaveGen waveGen, double signalFrequency, double signalAmplitude, long lengthInFrames) {
+        return createStream(DEFAULT_AUDIO_FORMAT, waveGen, signalFrequency, signalAmplitude, lengthInFrames);
+    }
 
-        for (int frameNumber = 0; frameNumber < signalPeriodLengthInFrames * periods; frameNumber++) {
+    /**
+     * Make a stream that generates a waveform as it is read
+     *
+     * @param format          the format to encode to
+     * @param waveGen         the waveform
+     * @param signalFrequency the signal frequency in Hertz
+     * @param signalAmplitude the amplitude between 0 and 1
+     * @param lengthInFrames  the length of the stream, or {@link AudioSystem#NOT_SPECIFIED} to go on indefinitely
+     * @return a stream
+     */
+    public static AudioInputStream createStream(AudioFormat format, WaveGenerator.WaveGen waveGen, double signalFrequency, double signalAmplitude, long lengthInFrames) {
+        Oscillator oscillator = new Oscillator(waveGen, signalFrequency, format.getFrameRate());
+        return new SampleInputStream(oscillator.asSource(signalAmplitude), format, lengthInFrames);
+    }
 
-            // The relative position inside the period of the waveform. 0.0 = beginning, 1.0 = end
-            float positionInSignalPeriod = (float) (frameNumber % signalPeriodLengthInFrames) / signalPeriodLengthInFrames;
-            float amplitude = (float) signalAmplitude * (float) waveGen.getValue(positionInSignalPeriod);
+    /**
+     * Render frames from a source into a new array, a block at a time
+     *
+     * @param source  the source of the samples
+     * @param frames  the number of frames to render
+     * @param encoder the encoder for the output format
+     * @return the encoded frames
+     */
+    static byte[] render(SampleSource source, int frames, PcmEncoder encoder) {
+        return render(source, frames, encoder, null, frames);
+    }
 
-            writeFrame(amplitude, audioStream);
+    /**
+     * Render 16 bit frames from a fixed point mixer into a new array, a block at a time, shaped by an envelope
+     *
+     * @param mixer       the source of the samples
+     * @param frames      the number of frames to render
+     * @param encoder     the encoder for the output format, which is 16 bit
+     * @param envelope    the envelope to apply, or null
+     * @param soundLength the length of the sound the envelope is applied to
+     * @return the encoded frames
+     */
+    static byte[] render(FixedPointMixer mixer, int frames, PcmEncoder encoder, Envelope envelope, long soundLength) {
+        byte[] data = new byte[frames * encoder.getFrameSize()];
+        int[] block = new int[Math.max(1, Math.min(BLOCK_SIZE_IN_FRAMES, frames))];
+        int offset = 0;
+        for (int frameNumber = 0; frameNumber < frames; frameNumber += block.length) {
+            int length = mixer.read(block, 0, Math.min(block.length, frames - frameNumber));
+            if (envelope != null) {
+                envelope.apply(block, 0, length, frameNumber, soundLength);
+            }
+            offset += encoder.encode(block, 0, length, data, offset);
         }
+        return data;
+    }
 
-        logger.trace("Finished making wave form: {} frames", signalPeriodLengthInFrames * periods);
-        return new AudioInputStream(new ByteArrayInputStream(audioStream.toByteArray()), DEFAULT_AUDIO_FORMAT, signalPeriodLengthInFrames * periods);
+    /**
+     * Render frames from a source into a new array, a block at a time, shaped by an envelope
+     *
+     * @param source       the source of the samples
+     * @param frames       the number of frames to render
+     * @param encoder      the encoder for the output format
+     * @param envelope     the envelope to apply, or null
+     * @param soundLength  the length of the sound the envelope is applied to
+     * @return the encoded frames
+     */
+    static byte[] render(SampleSource source, int frames, PcmEncoder encoder, Envelope envelope, long soundLength) {
+        byte[] data = new byte[frames * encoder.getFrameSize()];
+        float[] block = new float[Math.max(1, Math.min(BLOCK_SIZE_IN_FRAMES, frames))];
+        int offset = 0;
+        for (int frameNumber = 0; frameNumber < frames; frameNumber += block.length) {
+            int length = source.read(block, 0, Math.min(block.length, frames - frameNumber));
+            if (envelope != null) {
+                envelope.apply(block, 0, length, frameNumber, soundLength);
+            }
+            offset += encoder.encode(block, 0, length, data, offset);
+        }
+        return data;
     }
 }
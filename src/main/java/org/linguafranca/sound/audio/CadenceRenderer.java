@@ -0,0 +1,570 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import org.linguafranca.sound.cadence.CadenceScript;
+import org.linguafranca.sound.cadence.CadenceSection;
+import org.linguafranca.sound.cadence.CadenceSegment;
+import org.linguafranca.sound.tone.Tone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.Immutable;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Renders {@link CadenceSection}s and {@link CadenceScript}s offline, without a sound device and without
+ * waiting for them to play, to exactly the number of frames their timings call for.
+ * <p>
+ * A section is played as {@link CadenceSectionPlayback} plays it: its segments in order, each sound starting at
+ * the beginning of its tones' cycles, a '*' (indefinite) segment lasting the duration of the section, and the
+ * segments repeated until the section's duration is used up, the last being cut short if need be. Alternatively,
+ * with {@link Timing#REPEAT_COUNT}, the segments are played {@link CadenceSection#getRepeatCount()} times in
+ * full. The sections of a script follow one another. Times are in milliseconds from the start and each is
+ * rounded to the nearest frame, so rounding does not accumulate.
+ * <p>
+ * Rendering is done in blocks aligned to the start of each sound, with the phase at the start of each block
+ * calculated directly, so any range of frames comes out the same however the whole is divided up. This is
+ * what allows a long rendering to be divided into chunks rendered in parallel on a {@link ForkJoinPool}.
+ *
+ * @author jo
+ */
+@Immutable
+public class CadenceRenderer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CadenceRenderer.class);
+
+    /**
+     * How the length of a section is decided
+     */
+    public enum Timing {
+        /** the section lasts exactly its duration, repeating and truncating the segments to fit */
+        DURATION,
+        /** the segments are played in full {@link CadenceSection#getRepeatCount()} times */
+        REPEAT_COUNT
+    }
+
+    // the most frames rendered by one task when rendering in parallel
+    private static final int CHUNK_FRAMES = 64 * AudioEncoder.BLOCK_SIZE_IN_FRAMES;
+
+    private final AudioFormat format;
+    private final Envelope envelope;
+    private final Timing timing;
+
+    /**
+     * A renderer using the {@link Envelope#getDefault default} envelope and {@link Timing#DURATION}
+     *
+     * @param format the format to render to
+     */
+    public CadenceRenderer(AudioFormat format) {
+        this(format, Envelope.getDefault(format.getFrameRate()), Timing.DURATION);
+    }
+
+    /**
+     * Make a renderer
+     *
+     * @param format   the format to render to
+     * @param envelope the attack and release for each sound, for the frame rate of the format
+     * @param timing   how the length of a section is decided
+     */
+    public CadenceRenderer(AudioFormat format, Envelope envelope, Timing timing) {
+        checkArgument(PcmEncoder.isSupported(format), "Unsupported format %s", format);
+        checkArgument(envelope.getFrameRate() == format.getFrameRate(), "Envelope is for a different frame rate");
+        this.format = format;
+        this.envelope = envelope;
+        this.timing = timing;
+    }
+
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    public Envelope getEnvelope() {
+        return envelope;
+    }
+
+    public Timing getTiming() {
+        return timing;
+    }
+
+    /**
+     * A sound in the timeline, from its first frame up to but not including its end frame
+     */
+    @Immutable
+    private static class Span {
+        final long start;
+        final long end;
+        final Tone.List tones;
+
+        Span(long start, long end, Tone.List tones) {
+            this.start = start;
+            this.end = end;
+            this.tones = tones;
+        }
+    }
+
+    /**
+     * A span being rendered by one thread: its mixer, and the last block of it that was rendered, which the next
+     * call carries on from if it starts part way through that block
+     */
+    private static class SpanCursor {
+        final Span span;
+        final ToneMixer mixer;
+        final float[] block = new float[AudioEncoder.BLOCK_SIZE_IN_FRAMES];
+        // the frame of the span the block starts at, or -1 if nothing has been rendered
+        long blockStart = -1;
+
+        SpanCursor(Span span, float frameRate) {
+            this.span = span;
+            this.mixer = new ToneMixer(WaveGenerator.Waveform.SINE, WaveGenerator.SINE_MODULATOR, span.tones, frameRate);
+        }
+    }
+
+    /**
+     * Where each sound starts and ends, everything else is silence
+     */
+    @Immutable
+    public static class Timeline {
+        private final float frameRate;
+        private final Envelope envelope;
+        private final List<Span> spans;
+        private final long frameCount;
+        // the span each thread rendered last, so that rendering a span a buffer at a time makes its mixer once
+        private final ThreadLocal<SpanCursor> cursors = new ThreadLocal<>();
+
+        private Timeline(float frameRate, Envelope envelope, List<Span> spans, long frameCount) {
+            this.frameRate = frameRate;
+            this.envelope = envelope;
+            this.spans = Collections.unmodifiableList(spans);
+            this.frameCount = frameCount;
+        }
+
+        /**
+         * The length of the whole rendering
+         * @return a number of frames
+         */
+        public long getFrameCount() {
+            return frameCount;
+        }
+
+        /**
+         * The number of separate sounds
+         * @return a count
+         */
+        public int getSoundCount() {
+            return spans.size();
+        }
+
+        /**
+         * Render any part of the timeline. Frames beyond the end are silent. This may be called from
+         * several threads at once.
+         *
+         * @param startFrame the first frame to render
+         * @param buffer     where to put the samples
+         * @param offset     the first sample in the buffer to write
+         * @param frames     the number of frames to render
+         */
+        public void render(long startFrame, float[] buffer, int offset, int frames) {
+            Arrays.fill(buffer, offset, offset + frames, 0.0F);
+            long endFrame = startFrame + frames;
+            for (int i = findFirstSpan(startFrame); i < spans.size(); i++) {
+                Span span = spans.get(i);
+                if (span.start >= endFrame) {
+                    break;
+                }
+                render(span, startFrame, endFrame, buffer, offset);
+            }
+        }
+
+        /**
+         * The spans follow one another, find the first that ends after a frame
+         */
+        private int findFirstSpan(long frame) {
+            int low = 0;
+            int high = spans.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (spans.get(mid).end <= frame) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Render the part of a span that falls between start and end, a block at a time, where blocks are counted
+         * from the start of the span so that the samples don't depend on how the timeline is divided up
+         */
+        private void render(Span span, long startFrame, long endFrame, float[] buffer, int offset) {
+            SpanCursor cursor = cursors.get();
+            if (cursor == null || cursor.span != span) {
+                cursor = new SpanCursor(span, frameRate);
+                cursors.set(cursor);
+            }
+            float[] block = cursor.block;
+            long length = span.end - span.start;
+            long from = Math.max(startFrame, span.start) - span.start;
+            long to = Math.min(endFrame, span.end) - span.start;
+            for (long blockStart = from - from % block.length; blockStart < to; blockStart += block.length) {
+                int blockLength = (int) Math.min(block.length, length - blockStart);
+                if (cursor.blockStart != blockStart) {
+                    cursor.mixer.setFramePosition(blockStart);
+                    cursor.mixer.read(block, 0, blockLength);
+                    envelope.apply(block, 0, blockLength, blockStart, length);
+                    cursor.blockStart = blockStart;
+                }
+
+                long copyFrom = Math.max(blockStart, from);
+                long copyTo = Math.min(blockStart + blockLength, to);
+                System.arraycopy(block, (int) (copyFrom - blockStart), buffer,
+                        offset + (int) (span.start + copyFrom - startFrame), (int) (copyTo - copyFrom));
+            }
+        }
+
+        /**
+         * Read the timeline from the start
+         * @return a source which ends at the end of the timeline
+         */
+        public SampleSource asSource() {
+            return asSource(0);
+        }
+
+        /**
+         * Read the timeline from a frame
+         * @param startFrame the first frame to read
+         * @return a source which ends at the end of the timeline
+         */
+        public SampleSource asSource(long startFrame) {
+            checkArgument(startFrame >= 0, "Start must not be negative");
+            return new SampleSource() {
+                private long position = Math.min(startFrame, frameCount);
+
+                @Override
+                public int read(float[] buffer, int offset, int frames) {
+                    int length = (int) Math.min(frames, frameCount - position);
+                    render(position, buffer, offset, length);
+                    position += length;
+                    return length;
+                }
+            };
+        }
+    }
+
+    private long toFrames(long millis) {
+        return Math.round(millis * (double) format.getFrameRate() / 1000);
+    }
+
+    /**
+     * The length of a section in milliseconds
+     */
+    private long getLengthMillis(CadenceSection section) {
+        return timing == Timing.REPEAT_COUNT ? (long) section.getRepeatCount() * section.getInherentLength() : section.getDuration();
+    }
+
+    /**
+     * Told where the parts of a section fall, as {@link #layOut} finds them
+     */
+    interface Layout {
+        /**
+         * A segment's sound
+         *
+         * @param segment the segment
+         * @param start   when it starts, in millis
+         * @param end     when it ends, in millis
+         * @return false to stop laying out
+         */
+        boolean sound(CadenceSegment segment, long start, long end);
+
+        /**
+         * Silence following whatever came before
+         *
+         * @param end when it ends, in millis
+         * @return false to stop laying out
+         */
+        default boolean silence(long end) {
+            return true;
+        }
+    }
+
+    /**
+     * Lay out the segments of a section between two times, looping them if they are shorter and truncating them
+     * if they are longer. Rendering and {@link CadenceSectionPlayback.Scheduling#DEADLINE deadline} playback both
+     * lay sections out this way.
+     *
+     * @param section the section
+     * @param start   the time it starts, in millis
+     * @param end     the time it ends, in millis
+     * @param layout  told about each part in turn
+     * @return false if the layout stopped early
+     */
+    static boolean layOut(CadenceSection section, long start, long end, Layout layout) {
+        long time = start;
+        while (time < end) {
+            long passStart = time;
+            for (CadenceSegment segment : section) {
+                // -1 means indefinite i.e. length of section
+                int onDuration = segment.getOnDuration() < 0 ? section.getDuration() : segment.getOnDuration();
+                long onEnd = Math.min(time + onDuration, end);
+                long soundEnd = time;
+                if (onEnd > time && !segment.getTones().isEmpty()) {
+                    if (!layout.sound(segment, time, onEnd)) {
+                        return false;
+                    }
+                    soundEnd = onEnd;
+                }
+                long offEnd = Math.min(onEnd + segment.getOffDuration(), end);
+                if (offEnd > soundEnd && !layout.silence(offEnd)) {
+                    return false;
+                }
+                time = offEnd;
+                if (time >= end) {
+                    break;
+                }
+            }
+            if (time == passStart) {
+                // nothing in the section takes any time, the rest is silence
+                return layout.silence(end);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Add the sounds of a section to the timeline
+     *
+     * @param section the section
+     * @param start   the time it starts, in millis
+     * @param spans   where to add the sounds
+     * @return the time it ends
+     */
+    private long addSection(CadenceSection section, long start, List<Span> spans) {
+        long end = start + getLengthMillis(section);
+        layOut(section, start, end, (segment, soundStart, soundEnd) -> {
+            Tone.List tones = new Tone.List();
+            tones.addAll(segment.getTones());
+            spans.add(new Span(toFrames(soundStart), toFrames(soundEnd), tones));
+            return true;
+        });
+        return end;
+    }
+
+    /**
+     * Work out where the sounds of a section fall
+     *
+     * @param section a section
+     * @return its timeline
+     */
+    public Timeline plan(CadenceSection section) {
+        List<Span> spans = new ArrayList<>();
+        long end = addSection(section, 0, spans);
+        return new Timeline(format.getFrameRate(), envelope, spans, toFrames(end));
+    }
+
+    /**
+     * Work out where the sounds of a script fall, its sections one after the other
+     *
+     * @param script a script
+     * @return its timeline
+     */
+    public Timeline plan(CadenceScript script) {
+        List<Span> spans = new ArrayList<>();
+        long time = 0;
+        for (CadenceSection section : script.getCadences()) {
+            time = addSection(section, time, spans);
+        }
+        return new Timeline(format.getFrameRate(), envelope, spans, toFrames(time));
+    }
+
+    /**
+     * Render a whole timeline into a new array
+     *
+     * @param timeline what to render
+     * @return the encoded frames
+     */
+    public byte[] render(Timeline timeline) {
+        checkArgument(timeline.getFrameCount() * format.getFrameSize() <= Integer.MAX_VALUE, "Too long to render into an array");
+        long started = System.nanoTime();
+        byte[] data = AudioEncoder.render(timeline.asSource(), (int) timeline.getFrameCount(), new PcmEncoder(format));
+        LOGGER.debug("Rendered {} frames in {} ms", timeline.getFrameCount(), (System.nanoTime() - started) / 1000000);
+        return data;
+    }
+
+    /**
+     * Render a whole timeline into a new array, dividing it into chunks that are rendered in parallel.
+     * The result is exactly the same as that of {@link #render(Timeline)}.
+     *
+     * @param timeline what to render
+     * @param pool     the threads to render on
+     * @return the encoded frames
+     */
+    public byte[] render(Timeline timeline, ForkJoinPool pool) {
+        checkArgument(timeline.getFrameCount() * format.getFrameSize() <= Integer.MAX_VALUE, "Too long to render into an array");
+        byte[] data = new byte[(int) timeline.getFrameCount() * format.getFrameSize()];
+        render(timeline, ByteBuffer.wrap(data), pool);
+        return data;
+    }
+
+    /**
+     * Render a whole timeline into a buffer, e.g. a direct buffer or a mapped file, at its position,
+     * dividing it into chunks that are rendered in parallel. The position is advanced past the frames written.
+     *
+     * @param timeline what to render
+     * @param dest     where to put it, which must have room for the whole timeline before its limit
+     * @param pool     the threads to render on
+     */
+    public void render(Timeline timeline, ByteBuffer dest, ForkJoinPool pool) {
+        checkArgument(timeline.getFrameCount() * format.getFrameSize() <= dest.remaining(), "Destination too small");
+        long started = System.nanoTime();
+        pool.invoke(new RenderTask(timeline, dest, dest.position(), 0, (int) timeline.getFrameCount()));
+        dest.position(dest.position() + (int) timeline.getFrameCount() * format.getFrameSize());
+        LOGGER.debug("Rendered {} frames on {} threads in {} ms", timeline.getFrameCount(), pool.getParallelism(),
+                (System.nanoTime() - started) / 1000000);
+    }
+
+    /**
+     * Render part of a timeline into a buffer, e.g. a direct buffer to be written to a channel, as many whole
+     * frames as fit between its position and its limit. The position is advanced past the frames written.
+     *
+     * @param timeline   what to render
+     * @param startFrame the first frame to render
+     * @param dest       where to put it
+     * @return the number of frames rendered, fewer than fit only at the end of the timeline
+     */
+    public int render(Timeline timeline, long startFrame, ByteBuffer dest) {
+        return new PcmEncoder(format).encode(timeline.asSource(startFrame), dest);
+    }
+
+    /**
+     * Renders a range of frames, splitting it in two while it is more than a chunk
+     */
+    private class RenderTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Timeline timeline;
+        private final ByteBuffer dest;
+        // where frame 0 goes in the buffer
+        private final int base;
+        private final int startFrame;
+        private final int endFrame;
+
+        RenderTask(Timeline timeline, ByteBuffer dest, int base, int startFrame, int endFrame) {
+            this.timeline = timeline;
+            this.dest = dest;
+            this.base = base;
+            this.startFrame = startFrame;
+            this.endFrame = endFrame;
+        }
+
+        @Override
+        protected void compute() {
+            if (endFrame - startFrame > CHUNK_FRAMES) {
+                // split on a block boundary
+                int middle = (startFrame + (endFrame - startFrame) / 2) / AudioEncoder.BLOCK_SIZE_IN_FRAMES
+                        * AudioEncoder.BLOCK_SIZE_IN_FRAMES;
+                invokeAll(new RenderTask(timeline, dest, base, startFrame, middle),
+                        new RenderTask(timeline, dest, base, middle, endFrame));
+                return;
+            }
+            // each task has its own view of the buffer
+            ByteBuffer out = dest.duplicate();
+            out.position(base + startFrame * format.getFrameSize());
+            PcmEncoder encoder = new PcmEncoder(format);
+            float[] block = new float[AudioEncoder.BLOCK_SIZE_IN_FRAMES];
+            for (int frame = startFrame; frame < endFrame; frame += block.length) {
+                int length = Math.min(block.length, endFrame - frame);
+                timeline.render(frame, block, 0, length);
+                encoder.encode(block, 0, length, out);
+            }
+        }
+    }
+
+    /**
+     * Render a script into a new array, in parallel
+     *
+     * @param script what to render
+     * @param pool   the threads to render on
+     * @return the encoded frames, exactly the same as {@link #render(CadenceScript)}
+     */
+    public byte[] render(CadenceScript script, ForkJoinPool pool) {
+        return render(plan(script), pool);
+    }
+
+    /**
+     * Render a section into a new array
+     *
+     * @param section what to render
+     * @return the encoded frames
+     */
+    public byte[] render(CadenceSection section) {
+        return render(plan(section));
+    }
+
+    /**
+     * Render a script into a new array
+     *
+     * @param script what to render
+     * @return the encoded frames
+     */
+    public byte[] render(CadenceScript script) {
+        return render(plan(script));
+    }
+
+    /**
+     * A stream that renders a script as it is read, in constant memory however long the script is
+     *
+     * @param script what to render
+     * @return a stream of the exact length of the script
+     */
+    public AudioInputStream createStream(CadenceScript script) {
+        Timeline timeline = plan(script);
+        return new SampleInputStream(timeline.asSource(), format, timeline.getFrameCount());
+    }
+
+    /**
+     * Render a script to a WAV file, in constant memory however long the script is
+     *
+     * @param script what to render
+     * @param path   the file to create or replace
+     * @return the number of frames written
+     * @throws IOException if the file can't be written
+     * @see WavWriter
+     */
+    public long write(CadenceScript script, Path path) throws IOException {
+        Timeline timeline = plan(script);
+        long started = System.nanoTime();
+        try (WavWriter writer = new WavWriter(path, format)) {
+            long frames = writer.write(timeline.asSource(), timeline.getFrameCount());
+            LOGGER.debug("Wrote {} frames to {} in {} ms", frames, path, (System.nanoTime() - started) / 1000000);
+            return frames;
+        }
+    }
+}
@@ -20,18 +20,23 @@ package org.linguafranca.sound.audio;
 import org.jetbrains.annotations.NotNull;
 import org.linguafranca.sound.cadence.CadenceSection;
 import org.linguafranca.sound.cadence.CadenceSegment;
-import org.linguafranca.sound.tone.Tone;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.concurrent.Immutable;
+import javax.sound.sampled.AudioFormat;
 import java.util.ArrayList;
-import java.util.HashMap;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
 /**
  * Coordinates the playback of CadenceSections, looping and truncating as necessary to fulfill the timings specified
  * in the section and its segments.
+ * <p>
+ * With {@link Scheduling#SLEEP} each wait is timed from when it starts, so any lateness in waking up carries
+ * over to everything after it. With {@link Scheduling#DEADLINE} every segment boundary is a fixed time from the
+ * start of the section, as {@link CadenceRenderer} lays it out, so lateness does not build up. Either way the
+ * {@link Drift} of each section played is measured, see {@link #getLastDrift()}.
  *
  * @author jo
  */
@@ -39,10 +44,218 @@ public class CadenceSectionPlayback {
 
     private static final Logger logger = LoggerFactory.getLogger(CadenceSectionPlayback.class);
 
+    /**
+     * How the waits between segment boundaries are timed
+     */
+    public enum Scheduling {
+        /** each wait is for the length of its segment, from when the wait starts */
+        SLEEP,
+        /** each wait is until a deadline measured with {@link System#nanoTime()} from the start of the section */
+        DEADLINE
+    }
+
+    /**
+     * How late the segment boundaries of a section were, compared to when they should have been
+     */
+    @Immutable
+    public static class Drift {
+        private final CadenceSection section;
+        private final int boundaries;
+        private final long finalNanos;
+        private final long maxNanos;
+
+        Drift(CadenceSection section, int boundaries, long finalNanos, long maxNanos) {
+            this.section = section;
+            this.boundaries = boundaries;
+            this.finalNanos = finalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public CadenceSection getSection() {
+            return section;
+        }
+
+        /**
+         * The number of boundaries measured
+         * @return a count
+         */
+        public int getBoundaries() {
+            return boundaries;
+        }
+
+        /**
+         * How late the last boundary was, which is the drift accumulated over the section
+         * @return nanoseconds, negative if early
+         */
+        public long getFinalNanos() {
+            return finalNanos;
+        }
+
+        /**
+         * How late the latest boundary was
+         * @return nanoseconds
+         */
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.3f ms at end, at most %.3f ms over %d boundaries",
+                    finalNanos / 1e6, maxNanos / 1e6, boundaries);
+        }
+    }
+
+    /**
+     * Compares the time of each boundary with when it should have been
+     */
+    private static class DriftMeter {
+        private final CadenceSection section;
+        private final long startNanos;
+        private long nominalMillis = 0;
+        private int boundaries = 0;
+        private long lastNanos = 0;
+        private long maxNanos = 0;
+
+        DriftMeter(CadenceSection section, long startNanos) {
+            this.section = section;
+            this.startNanos = startNanos;
+        }
+
+        /**
+         * A boundary has been reached that should have been at a time from the start
+         */
+        void at(long millis) {
+            nominalMillis = millis;
+            lastNanos = System.nanoTime() - startNanos - millis * 1000000;
+            maxNanos = boundaries == 0 ? lastNanos : Math.max(maxNanos, lastNanos);
+            boundaries++;
+        }
+
+        /**
+         * A boundary has been reached that should have been a time after the last
+         */
+        void elapse(long millis) {
+            at(nominalMillis + millis);
+        }
+
+        Drift getDrift() {
+            return new Drift(section, boundaries, lastNanos, maxNanos);
+        }
+    }
+
     // a monitor to allow us to wait for sounds to complete, also to allow cancellation
     private final Object cancelPlaybackGuard = new Object();
     private volatile boolean cancelPlaybackRequested = false;
-    private final HashMap<Tone, EncodedTone> cache = new HashMap<>();
+    private final ClipPool clipPool;
+    private final AudioFormat format;
+    private final Envelope envelope;
+    private final ToneDiskCache diskCache;
+    private final Scheduling scheduling;
+    // measures the section being played by play(CadenceSection), if any
+    private DriftMeter meter;
+    // told when the first sound of the section being played starts, if anything is to be
+    private Runnable firstSound;
+    private volatile Drift lastDrift;
+
+    /**
+     * Play back in {@link AudioEncoder#DEFAULT_AUDIO_FORMAT}
+     */
+    public CadenceSectionPlayback() {
+        this(AudioEncoder.DEFAULT_AUDIO_FORMAT);
+    }
+
+    /**
+     * Play back in the format given, with the {@link Envelope#getDefault default} attack and release
+     * @param format the format tones are encoded to
+     */
+    public CadenceSectionPlayback(AudioFormat format) {
+        this(format, Envelope.getDefault(format.getFrameRate()));
+    }
+
+    /**
+     * Play back in the format given
+     * @param format the format tones are encoded to
+     * @param envelope the attack and release applied to each segment's sound, for the frame rate of the format
+     */
+    public CadenceSectionPlayback(AudioFormat format, Envelope envelope) {
+        this(format, envelope, null);
+    }
+
+    /**
+     * Play back in the format given, keeping rendered tones on disk from one run to the next
+     * @param format the format tones are encoded to
+     * @param envelope the attack and release applied to each segment's sound, for the frame rate of the format
+     * @param diskCache where rendered tones are kept, or null for none
+     */
+    public CadenceSectionPlayback(AudioFormat format, Envelope envelope, ToneDiskCache diskCache) {
+        this(format, envelope, diskCache, Scheduling.SLEEP);
+    }
+
+    /**
+     * Play back in the format given, with the waits between segments timed as given
+     * @param format the format tones are encoded to
+     * @param envelope the attack and release applied to each segment's sound, for the frame rate of the format
+     * @param diskCache where rendered tones are kept, or null for none
+     * @param scheduling how waits are timed
+     */
+    public CadenceSectionPlayback(AudioFormat format, Envelope envelope, ToneDiskCache diskCache, Scheduling scheduling) {
+        this(format, envelope, diskCache, scheduling, new ClipPool());
+    }
+
+    /**
+     * Play back in the format given, with the waits between segments timed as given
+     * @param format the format tones are encoded to
+     * @param envelope the attack and release applied to each segment's sound, for the frame rate of the format
+     * @param diskCache where rendered tones are kept, or null for none
+     * @param scheduling how waits are timed
+     * @param clipPool where tones are kept open ready to play, which may be shared with playback in the same format and
+     *                 envelope
+     */
+    public CadenceSectionPlayback(AudioFormat format, Envelope envelope, ToneDiskCache diskCache, Scheduling scheduling,
+                                  ClipPool clipPool) {
+        checkArgument(envelope.getFrameRate() == format.getFrameRate(), "Envelope is for a different frame rate");
+        this.format = format;
+        this.envelope = envelope;
+        this.diskCache = diskCache;
+        this.scheduling = scheduling;
+        this.clipPool = clipPool;
+    }
+
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    public Envelope getEnvelope() {
+        return envelope;
+    }
+
+    public ToneDiskCache getDiskCache() {
+        return diskCache;
+    }
+
+    public ClipPool getClipPool() {
+        return clipPool;
+    }
+
+    public Scheduling getScheduling() {
+        return scheduling;
+    }
+
+    /**
+     * How late the boundaries of the last section played by {@link #play(CadenceSection)} were
+     * @return the drift, or null if no section has been played
+     */
+    public Drift getLastDrift() {
+        return lastDrift;
+    }
+
+    /**
+     * Close the Clips of the tones played, which are opened again if anything more is played
+     */
+    public void close() {
+        clipPool.close();
+    }
 
     /**
      * Stop the playback of anything currently being played
@@ -75,17 +288,146 @@ public class CadenceSectionPlayback {
      * @return true if the playback completed without interruption
      */
     public boolean play(@NotNull CadenceSection section) {
+        return play(section, null);
+    }
+
+    /**
+     * As {@link #play(CadenceSection)}, saying when the first sound starts
+     *
+     * @param section      a Cadence Section
+     * @param onFirstSound run as the first sound of the section starts, or null
+     * @return true if the playback completed without interruption
+     */
+    public boolean play(@NotNull CadenceSection section, Runnable onFirstSound) {
+        firstSound = onFirstSound;
+        try {
+            return playSection(section);
+        } finally {
+            firstSound = null;
+        }
+    }
+
+    /**
+     * Render the sounds of a section, so that playing it doesn't have to wait for them. They are kept in the
+     * {@link ToneMemoryCache#getDefault() shared cache}; no Clips are opened, so this may be called on any thread
+     * without disturbing the tones the {@link ClipPool} holds for what is being played.
+     *
+     * @param section a section that is to be played
+     */
+    public void prepare(@NotNull CadenceSection section) {
+        // for as long as each sound will be played
+        CadenceRenderer.layOut(section, 0, section.getDuration(), (segment, start, end) -> {
+            EncodedTone.renderSegment(segment, (int) (end - start), format, envelope, LoopPlanner.DEFAULT, diskCache);
+            return true;
+        });
+    }
+
+    private void startedSound() {
+        if (firstSound != null) {
+            firstSound.run();
+            firstSound = null;
+        }
+    }
+
+    private boolean playSection(@NotNull CadenceSection section) {
+        if (scheduling == Scheduling.DEADLINE) {
+            return playToDeadlines(section);
+        }
         long timeStarted = System.currentTimeMillis();
+        meter = new DriftMeter(section, System.nanoTime());
 
         int timeRemaining;
-        while ((timeRemaining = getTimeRemaining(timeStarted, section.getDuration())) > 0) {
-            if (!play(timeRemaining, section)) {
-                break;
+        try {
+            while ((timeRemaining = getTimeRemaining(timeStarted, section.getDuration())) > 0) {
+                if (!play(timeRemaining, section)) {
+                    break;
+                }
             }
+        } finally {
+            finishMeter();
         }
         return !cancelPlaybackRequested && (timeRemaining <= 0);
     }
 
+    private void finishMeter() {
+        lastDrift = meter.getDrift();
+        meter = null;
+        logger.debug("Drift of {} was {}", lastDrift.getSection(), lastDrift);
+    }
+
+    /**
+     * Play a section with each boundary at a fixed time from its start, laid out as {@link CadenceRenderer} does
+     *
+     * @param section a section
+     * @return true if the playback completed without interruption
+     */
+    private boolean playToDeadlines(@NotNull CadenceSection section) {
+        synchronized (cancelPlaybackGuard) {
+            cancelPlaybackRequested = false;
+        }
+        long startNanos = System.nanoTime();
+        meter = new DriftMeter(section, startNanos);
+        try {
+            return CadenceRenderer.layOut(section, 0, section.getDuration(), new CadenceRenderer.Layout() {
+                @Override
+                public boolean sound(CadenceSegment segment, long start, long end) {
+                    EncodedTone tone = EncodedTone.encodeSegment(segment, (int) (end - start), clipPool, format,
+                            envelope, LoopPlanner.DEFAULT, diskCache);
+                    boolean completed;
+                    try {
+                        logger.trace("Starting Clip for {}", tone);
+                        tone.play((int) (end - start));
+                        startedSound();
+                        completed = waitUntil(startNanos, end);
+                        tone.stop();
+                    } finally {
+                        clipPool.release(tone);
+                    }
+                    if (completed) {
+                        meter.at(end);
+                    }
+                    return completed;
+                }
+
+                @Override
+                public boolean silence(long end) {
+                    if (!waitUntil(startNanos, end)) {
+                        return false;
+                    }
+                    meter.at(end);
+                    return true;
+                }
+            });
+        } finally {
+            finishMeter();
+        }
+    }
+
+    /**
+     * Wait until a time from a start, or until stopped
+     *
+     * @param startNanos the start, from {@link System#nanoTime()}
+     * @param millis     the time after the start
+     * @return false if stopped
+     */
+    private boolean waitUntil(long startNanos, long millis) {
+        long deadline = startNanos + millis * 1000000;
+        try {
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0 && !cancelPlaybackRequested) {
+                synchronized (cancelPlaybackGuard) {
+                    if (!cancelPlaybackRequested) {
+                        cancelPlaybackGuard.wait(remaining / 1000000, (int) (remaining % 1000000));
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            logger.trace("Interrupted while waiting");
+            return false;
+        }
+        return !cancelPlaybackRequested;
+    }
+
     /**
      * Play the cadences in the supplied section for at most the duration specified. The duration supplied in the
      * section itself is not examined.
@@ -116,8 +458,15 @@ public class CadenceSectionPlayback {
                     return true;
                 }
 
-                // make the noise suggested by each cadence
-                play(onDuration, EncodedTone.encodeTones(segment, cache));
+                // make the noise suggested by each cadence, all its tones mixed on one line
+                // for as long as it will sound, so that it ends with its release even if cut short
+                EncodedTone tone = EncodedTone.encodeSegment(segment, onDuration, clipPool, format, envelope,
+                        LoopPlanner.DEFAULT, diskCache);
+                try {
+                    play(onDuration, tone);
+                } finally {
+                    clipPool.release(tone);
+                }
             }
 
             // return if we are trying to stop
@@ -147,6 +496,9 @@ public class CadenceSectionPlayback {
                 if (cancelPlaybackRequested) {
                     return false;
                 }
+                if (meter != null) {
+                    meter.elapse(offDuration);
+                }
 
             } catch (InterruptedException ignored) {
                 logger.trace("Interrupted from sleep");
@@ -157,6 +509,18 @@ public class CadenceSectionPlayback {
         return true;
     }
 
+    /**
+     * Play a tone for the duration specified, or until stopped.
+     *
+     * @param durationMillis the duration of the tone
+     * @param encodedTone the tone to play
+     */
+    public void play(int durationMillis, @NotNull EncodedTone encodedTone) {
+        ArrayList<EncodedTone> encodedTones = new ArrayList<>(1);
+        encodedTones.add(encodedTone);
+        play(durationMillis, encodedTones);
+    }
+
     /**
      * Play to tones supplied for the duration specified, or until stopped. The inherent length of the tones
      * specified is ignored, they are all played at the same length.
@@ -172,6 +536,7 @@ public class CadenceSectionPlayback {
             logger.trace("Starting Clip for {}", encodedTone);
             encodedTone.play(durationMillis);
         }
+        startedSound();
 
         try {
             final long start = System.currentTimeMillis();
@@ -183,6 +548,9 @@ public class CadenceSectionPlayback {
                 }
             }
             logger.trace("Time left is {}", getTimeRemaining(start, durationMillis));
+            if (meter != null && !cancelPlaybackRequested) {
+                meter.elapse(durationMillis);
+            }
 
         } catch (InterruptedException e) {
             logger.trace("Interrupted while playing playableTones");
@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Clip;
+import javax.sound.sampled.LineUnavailableException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Holds an open Clip for each of a limited number of {@link EncodedTone}s, so that the number of lines, and the
+ * native buffers that go with them, stays bounded however many different tones are played.
+ * <p>
+ * When a tone is wanted that the pool doesn't have and the pool is full, the least recently used tone that
+ * isn't in use is evicted: its Clip is closed and opened again with the new tone's data, so the line is
+ * reused rather than another one got from the {@link AudioSystem}. A tone is in use from when it is got from
+ * the pool until it is given back with {@link #release}, and while its Clip is running, so threads sharing a
+ * pool can't evict a tone that another has got but not yet started. An EncodedTone is good only until it is
+ * given back, and should be got from the pool each time it is played.
+ * <p>
+ * The keys of a pool identify tones only for one format, envelope and loop planner, so a pool is used for one
+ * of each. {@link #getStats()} shows how well the pool is working, to help choose its size.
+ *
+ * @author jo
+ */
+@ThreadSafe
+public class ClipPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClipPool.class);
+
+    /** the number of Clips a pool holds unless told otherwise */
+    public static final int DEFAULT_MAX_CLIPS = 32;
+
+    /**
+     * Where Clips come from when the pool isn't full
+     */
+    interface ClipSource {
+        Clip get() throws LineUnavailableException;
+    }
+
+    /**
+     * What a pool has done since it was made
+     */
+    @Immutable
+    public static class Stats {
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final long opened;
+        private final int size;
+        private final int maxClips;
+
+        Stats(long hits, long misses, long evictions, long opened, int size, int maxClips) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.opened = opened;
+            this.size = size;
+            this.maxClips = maxClips;
+        }
+
+        /**
+         * Tones that were in the pool when wanted
+         * @return a count
+         */
+        public long getHits() {
+            return hits;
+        }
+
+        /**
+         * Tones that had to be opened when wanted
+         * @return a count
+         */
+        public long getMisses() {
+            return misses;
+        }
+
+        /**
+         * Tones evicted to make room, whose Clips were reused
+         * @return a count
+         */
+        public long getEvictions() {
+            return evictions;
+        }
+
+        /**
+         * Clips got from the {@link AudioSystem}, which is more than the size of the pool only if every Clip
+         * was in use when another was wanted
+         * @return a count
+         */
+        public long getOpened() {
+            return opened;
+        }
+
+        /**
+         * The number of tones in the pool
+         * @return a count
+         */
+        public int getSize() {
+            return size;
+        }
+
+        public int getMaxClips() {
+            return maxClips;
+        }
+
+        /**
+         * The proportion of tones wanted that were in the pool
+         * @return between 0 and 1, 0 if none has been wanted
+         */
+        public double getHitRate() {
+            return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d of %d clips, %d hits, %d misses (%.1f%% hits), %d evictions, %d opened",
+                    size, maxClips, hits, misses, getHitRate() * 100, evictions, opened);
+        }
+    }
+
+    private final int maxClips;
+    private final ClipSource clipSource;
+    // in order of use, least recent first
+    private final LinkedHashMap<ToneKey, EncodedTone> tones = new LinkedHashMap<>(16, 0.75F, true);
+    // the number of times each tone in use has been got and not given back
+    private final IdentityHashMap<EncodedTone, Integer> pins = new IdentityHashMap<>();
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long opened = 0;
+
+    /**
+     * A pool of {@link #DEFAULT_MAX_CLIPS}
+     */
+    public ClipPool() {
+        this(DEFAULT_MAX_CLIPS);
+    }
+
+    /**
+     * @param maxClips the most Clips to hold open
+     */
+    public ClipPool(int maxClips) {
+        this(maxClips, AudioSystem::getClip);
+    }
+
+    ClipPool(int maxClips, ClipSource clipSource) {
+        checkArgument(maxClips > 0, "Pool must hold at least one Clip");
+        this.maxClips = maxClips;
+        this.clipSource = clipSource;
+    }
+
+    public int getMaxClips() {
+        return maxClips;
+    }
+
+    /**
+     * Get a tone from the pool, or render it and open it. The tone is not evicted until it has been given back
+     * with {@link #release}.
+     *
+     * @param key      identifies the tone
+     * @param renderer renders the tone if it is not in the pool, called without holding any lock
+     * @return the tone, ready to play
+     * @throws LineUnavailableException if there is no Clip for it
+     */
+    public EncodedTone get(ToneKey key, Supplier<RenderedTone> renderer) throws LineUnavailableException {
+        synchronized (this) {
+            EncodedTone tone = tones.get(key);
+            if (tone != null) {
+                hits++;
+                LOGGER.trace("Pool hit for {}", key);
+                return pin(tone);
+            }
+            misses++;
+        }
+        RenderedTone rendered = renderer.get();
+        synchronized (this) {
+            // in case another thread got there first
+            EncodedTone tone = tones.get(key);
+            if (tone != null) {
+                return pin(tone);
+            }
+            Clip clip = evict();
+            if (clip == null) {
+                clip = clipSource.get();
+                opened++;
+            }
+            tone = EncodedTone.open(rendered, clip);
+            tones.put(key, tone);
+            return pin(tone);
+        }
+    }
+
+    private EncodedTone pin(EncodedTone tone) {
+        pins.merge(tone, 1, Integer::sum);
+        return tone;
+    }
+
+    /**
+     * Give back a tone got from the pool, once it has been played, so it may be evicted when it has stopped
+     *
+     * @param tone the tone
+     */
+    public synchronized void release(EncodedTone tone) {
+        Integer count = pins.get(tone);
+        if (count == null) {
+            // the pool was closed while it was in use
+            return;
+        }
+        if (count == 1) {
+            pins.remove(tone);
+        } else {
+            pins.put(tone, count - 1);
+        }
+    }
+
+    /**
+     * Make room for another tone if the pool is full, evicting the least recently used tones that aren't in use
+     *
+     * @return the closed Clip of an evicted tone, or null if there was room or every Clip is in use
+     */
+    private Clip evict() {
+        Clip reusable = null;
+        Iterator<Map.Entry<ToneKey, EncodedTone>> iterator = tones.entrySet().iterator();
+        // more than one only if the pool grew while every Clip was in use
+        while (tones.size() >= maxClips && iterator.hasNext()) {
+            Map.Entry<ToneKey, EncodedTone> eldest = iterator.next();
+            Clip clip = eldest.getValue().getClip();
+            if (!pins.containsKey(eldest.getValue()) && !clip.isRunning()) {
+                iterator.remove();
+                clip.close();
+                evictions++;
+                LOGGER.debug("Evicted {} from pool", eldest.getKey());
+                if (reusable == null) {
+                    reusable = clip;
+                }
+            }
+        }
+        if (tones.size() >= maxClips) {
+            LOGGER.warn("All {} Clips in the pool are in use, opening another", tones.size());
+        }
+        return reusable;
+    }
+
+    /**
+     * The number of tones in the pool
+     * @return a count
+     */
+    public synchronized int size() {
+        return tones.size();
+    }
+
+    /**
+     * What the pool has done since it was made
+     * @return a snapshot
+     */
+    public synchronized Stats getStats() {
+        return new Stats(hits, misses, evictions, opened, tones.size(), maxClips);
+    }
+
+    /**
+     * Close every Clip in the pool and empty it
+     */
+    public synchronized void close() {
+        for (EncodedTone tone : tones.values()) {
+            tone.getClip().close();
+        }
+        LOGGER.debug("Closed {} Clips, {}", tones.size(), getStats());
+        tones.clear();
+        pins.clear();
+    }
+
+    @Override
+    public String toString() {
+        return getStats().toString();
+    }
+}
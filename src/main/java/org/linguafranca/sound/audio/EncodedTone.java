@@ -23,6 +23,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.concurrent.Immutable;
+import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.Clip;
 import javax.sound.sampled.LineUnavailableException;
@@ -31,24 +32,34 @@ import java.util.ArrayList;
 import java.util.HashMap;
 
 /**
- * A tone that can be rendered
+ * A tone, or several tones mixed together, that can be rendered
  * <p>
  * The tone's Clip may or may not contain sufficient info to fulfil the duration,
- * in which case you'd need to loop the Clip to fulfil the contract as per {@link #play(int)}
+ * in which case you'd need to loop the Clip to fulfil the contract as per {@link #play(int)}.
+ * Tones made by {@link #encodeSegment} for a segment with a definite on-duration hold exactly that duration,
+ * with an attack and release ramp, and are played once, so they end without a click. Looped tones, those that
+ * are indefinite or too long for the {@link LoopPlanner}'s budget, have an attack but no release, and clip
+ * where they are stopped.
  */
 @Immutable
 public class EncodedTone {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(EncodedTone.class);
 
-    private final Tone tone;
+    private final Tone.List tones;
     private final int durationInMillisecs;
     private final Clip clip;
+    // the frame the loop goes back to, or -1 if the clip is played once
+    private final int loopStart;
 
-    private EncodedTone(Tone tone, int durationInMillisecs, Clip clip) {
-        this.tone = tone;
+    private EncodedTone(Tone.List tones, int durationInMillisecs, Clip clip, int loopStart) {
+        this.tones = tones;
         this.durationInMillisecs = durationInMillisecs;
         this.clip = clip;
+        this.loopStart = loopStart;
+        if (loopStart > 0) {
+            clip.setLoopPoints(loopStart, -1);
+        }
     }
 
     /**
@@ -59,12 +70,30 @@ public class EncodedTone {
     }
 
     /**
-     * play the tone for the time specified
+     * play the tone for the time specified, a tone that is not looped plays for its own length
      */
     public void play(int millis) {
-        clip.setMicrosecondPosition(0);
-        int loops = (int)(millis * 1000L / clip.getMicrosecondLength());
-        clip.loop(loops == 0 ? 1 : loops);
+        clip.setFramePosition(0);
+        if (!isLooped()) {
+            clip.start();
+            return;
+        }
+        if (millis < 0) {
+            clip.loop(Clip.LOOP_CONTINUOUSLY);
+            return;
+        }
+        long framesWanted = Math.round(millis * (double) clip.getFormat().getFrameRate() / 1000);
+        long loopLength = clip.getFrameLength() - loopStart;
+        int loops = (int) ((framesWanted - clip.getFrameLength() + loopLength - 1) / loopLength);
+        clip.loop(Math.max(1, loops));
+    }
+
+    /**
+     * Does the clip loop to fulfil the duration, or is it played once
+     * @return true if it loops
+     */
+    public boolean isLooped() {
+        return loopStart >= 0;
     }
 
     /**
@@ -93,6 +122,219 @@ public class EncodedTone {
         return encodedTones;
     }
 
+    /**
+     * Make a single EncodedTone, holding all the tones of a CadenceSegment mixed together, so that it
+     * can be played on one line
+     *
+     * @param c     the cadence to be played
+     * @param cache previously encoded mixes, added to if this mix was not already there
+     * @return an EncodedTone
+     * @throws RuntimeException if something ghastly has happened that you won't be able to fix
+     */
+    public static EncodedTone encodeSegment(CadenceSegment c, HashMap<ToneKey, EncodedTone> cache) {
+        return encodeSegment(c, cache, AudioEncoder.DEFAULT_AUDIO_FORMAT);
+    }
+
+    /**
+     * Make a single EncodedTone, holding all the tones of a CadenceSegment mixed together, so that it
+     * can be played on one line
+     *
+     * @param c      the cadence to be played
+     * @param cache  previously encoded mixes, all in the same format, added to if this mix was not already there
+     * @param format the format to encode to
+     * @return an EncodedTone
+     * @throws RuntimeException if something ghastly has happened that you won't be able to fix
+     */
+    public static EncodedTone encodeSegment(CadenceSegment c, HashMap<ToneKey, EncodedTone> cache, AudioFormat format) {
+        return encodeSegment(c, cache, format, Envelope.getDefault(format.getFrameRate()), LoopPlanner.DEFAULT);
+    }
+
+    /**
+     * Make a single EncodedTone, holding all the tones of a CadenceSegment mixed together, so that it
+     * can be played on one line.
+     * <p>
+     * If the segment has an on-duration that fits within the planner's memory budget the tone lasts exactly
+     * that long, with the envelope's attack and release. Otherwise it is an attack followed by a loop.
+     *
+     * @param c        the cadence to be played
+     * @param cache    previously encoded mixes, all in the same format and envelope, added to if this mix was not
+     *                 already there
+     * @param format   the format to encode to
+     * @param envelope the attack and release, for the frame rate of the format
+     * @param planner  chooses the length of loops and limits the length of tones that are not looped
+     * @return an EncodedTone
+     * @throws RuntimeException if something ghastly has happened that you won't be able to fix
+     */
+    public static EncodedTone encodeSegment(CadenceSegment c, HashMap<ToneKey, EncodedTone> cache, AudioFormat format,
+                                            Envelope envelope, LoopPlanner planner) {
+        return encodeSegment(c, cache, format, envelope, planner, null);
+    }
+
+    /**
+     * As {@link #encodeSegment(CadenceSegment, HashMap, AudioFormat, Envelope, LoopPlanner)}, keeping the
+     * rendered sound on disk so it need not be rendered again next time the program runs
+     *
+     * @param c         the cadence to be played
+     * @param cache     previously encoded mixes, all in the same format and envelope, added to if this mix was
+     *                  not already there
+     * @param format    the format to encode to
+     * @param envelope  the attack and release, for the frame rate of the format
+     * @param planner   chooses the length of loops and limits the length of tones that are not looped
+     * @param diskCache where rendered sounds are kept, or null for none
+     * @return an EncodedTone
+     * @throws RuntimeException if something ghastly has happened that you won't be able to fix
+     */
+    public static EncodedTone encodeSegment(CadenceSegment c, HashMap<ToneKey, EncodedTone> cache, AudioFormat format,
+                                            Envelope envelope, LoopPlanner planner, ToneDiskCache diskCache) {
+        ToneKey key = ToneKey.forSegment(c, format, planner);
+
+        EncodedTone encodedTone = cache.get(key);
+        if (encodedTone != null) {
+            LOGGER.trace("Cache hit for {}", key);
+            return encodedTone;
+        }
+        try {
+            encodedTone = encodeTones(key, format, envelope, planner, diskCache);
+        } catch (Exception e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+        cache.put(key, encodedTone);
+        return encodedTone;
+    }
+
+    /**
+     * As {@link #encodeSegment(CadenceSegment, HashMap, AudioFormat, Envelope, LoopPlanner, ToneDiskCache)},
+     * taking the tone from a pool which limits how many Clips are open at once
+     *
+     * @param c         the cadence to be played
+     * @param pool      open tones, all in the same format and envelope, added to if this mix was not already there
+     * @param format    the format to encode to
+     * @param envelope  the attack and release, for the frame rate of the format
+     * @param planner   chooses the length of loops and limits the length of tones that are not looped
+     * @param diskCache where rendered sounds are kept, or null for none
+     * @return an EncodedTone, to be given back with {@link ClipPool#release} once it has been played
+     * @throws RuntimeException if something ghastly has happened that you won't be able to fix
+     */
+    public static EncodedTone encodeSegment(CadenceSegment c, ClipPool pool, AudioFormat format,
+                                            Envelope envelope, LoopPlanner planner, ToneDiskCache diskCache) {
+        return encodeSegment(c, c.getOnDuration(), pool, format, envelope, planner, diskCache);
+    }
+
+    /**
+     * As {@link #encodeSegment(CadenceSegment, ClipPool, AudioFormat, Envelope, LoopPlanner, ToneDiskCache)}, for
+     * the time the segment actually sounds, e.g. when it is cut short by the end of its section, so that the
+     * release comes at the end of that time rather than the segment being stopped part way through
+     *
+     * @param c              the cadence to be played
+     * @param durationMillis how long it sounds, negative if for as long as needed
+     * @param pool           open tones, all in the same format and envelope, added to if this mix was not already
+     *                       there
+     * @param format         the format to encode to
+     * @param envelope       the attack and release, for the frame rate of the format
+     * @param planner        chooses the length of loops and limits the length of tones that are not looped
+     * @param diskCache      where rendered sounds are kept, or null for none
+     * @return an EncodedTone, to be given back with {@link ClipPool#release} once it has been played
+     * @throws RuntimeException if something ghastly has happened that you won't be able to fix
+     */
+    public static EncodedTone encodeSegment(CadenceSegment c, int durationMillis, ClipPool pool, AudioFormat format,
+                                            Envelope envelope, LoopPlanner planner, ToneDiskCache diskCache) {
+        ToneKey key = ToneKey.forSound(c.getTones(), durationMillis, format, planner);
+        try {
+            return pool.get(key, () -> render(key, format, envelope, planner, diskCache));
+        } catch (Exception e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Get the data for a CadenceSegment as {@link #encodeSegment} would, without opening a Clip, so that it is in
+     * the {@link ToneMemoryCache#getDefault() shared cache} when the segment is played
+     *
+     * @param c              the cadence to be played
+     * @param durationMillis how long it sounds, negative if for as long as needed
+     * @param format         the format to encode to
+     * @param envelope       the attack and release, for the frame rate of the format
+     * @param planner        chooses the length of loops and limits the length of tones that are not looped
+     * @param diskCache      where rendered sounds are kept, or null for none
+     * @return the rendered data
+     */
+    static RenderedTone renderSegment(CadenceSegment c, int durationMillis, AudioFormat format, Envelope envelope,
+                                      LoopPlanner planner, ToneDiskCache diskCache) {
+        return render(ToneKey.forSound(c.getTones(), durationMillis, format, planner), format, envelope, planner,
+                diskCache);
+    }
+
+    /**
+     * Make an EncodedTone of exactly the duration of the key, with attack and release, or if the key is
+     * {@link ToneKey#LOOPED} an attack followed by a loop. Standard tones are taken ready rendered from
+     * the {@link ToneBundle}.
+     *
+     * @param key      the tones and duration
+     * @param format   the format to encode to
+     * @param envelope the attack and release, for the frame rate of the format
+     * @param planner  chooses the length of a loop
+     * @return an EncodedTone
+     * @throws LineUnavailableException if a Clip can't be had
+     * @throws IOException              if horrible things happen
+     */
+    public static EncodedTone encodeTones(ToneKey key, AudioFormat format, Envelope envelope, LoopPlanner planner) throws LineUnavailableException, IOException {
+        return encodeTones(key, format, envelope, planner, null);
+    }
+
+    /**
+     * As {@link #encodeTones(ToneKey, AudioFormat, Envelope, LoopPlanner)}, taking the sound from a disk cache,
+     * or rendering it into the cache if it is not there
+     *
+     * @param key       the tones and duration
+     * @param format    the format to encode to
+     * @param envelope  the attack and release, for the frame rate of the format
+     * @param planner   chooses the length of a loop
+     * @param diskCache where rendered sounds are kept, or null for none
+     * @return an EncodedTone
+     * @throws LineUnavailableException if a Clip can't be had
+     * @throws IOException              if horrible things happen
+     */
+    public static EncodedTone encodeTones(ToneKey key, AudioFormat format, Envelope envelope, LoopPlanner planner,
+                                          ToneDiskCache diskCache) throws LineUnavailableException, IOException {
+        return open(render(key, format, envelope, planner, diskCache));
+    }
+
+    /**
+     * Get the data for a key from the bundle, or the {@link ToneMemoryCache#getDefault() shared cache}, or the
+     * disk cache, or render it
+     */
+    private static RenderedTone render(ToneKey key, AudioFormat format, Envelope envelope, LoopPlanner planner,
+                                       ToneDiskCache diskCache) {
+        RenderedTone rendered = ToneBundle.getDefault().find(key, format, envelope, planner);
+        if (rendered == null) {
+            rendered = ToneMemoryCache.getDefault().getOrRender(key, format, envelope, planner,
+                    () -> diskCache == null ? RenderedTone.render(key, format, envelope, planner)
+                            : diskCache.getOrRender(key, format, envelope, planner));
+        }
+        return rendered;
+    }
+
+    /**
+     * Make an EncodedTone of previously rendered data
+     *
+     * @param rendered the data, which the Clip copies into its own buffer when it is opened
+     * @return an EncodedTone
+     * @throws LineUnavailableException if a Clip can't be had
+     */
+    public static EncodedTone open(RenderedTone rendered) throws LineUnavailableException {
+        return open(rendered, AudioSystem.getClip());
+    }
+
+    /**
+     * Make an EncodedTone of previously rendered data on a Clip that is not open
+     */
+    static EncodedTone open(RenderedTone rendered, Clip clip) throws LineUnavailableException {
+        Tone.List tones = new Tone.List();
+        tones.addAll(rendered.getKey().getTones());
+        clip.open(rendered.getFormat(), rendered.getData(), rendered.getOffset(), rendered.getLength());
+        return new EncodedTone(tones, rendered.getKey().getDurationMillis(), clip, rendered.getLoopStart());
+    }
+
     /**
      * Make a EncodedTone from a Tone and a duration
      *
@@ -103,12 +345,60 @@ public class EncodedTone {
      * @throws LineUnavailableException if even more horrible things happen
      */
     public static EncodedTone encodeTone(Tone t, Integer millisecs) throws IOException, LineUnavailableException {
+        Tone.List tones = new Tone.List();
+        tones.add(t);
+        return encodeTones(tones, millisecs);
+    }
+
+    /**
+     * Make an EncodedTone from some Tones mixed together and a duration
+     *
+     * @param tones     the Tones to use
+     * @param millisecs the duration of the Tones
+     * @return          an EncodedTone
+     * @throws IOException              if horrible things happen
+     * @throws LineUnavailableException if even more horrible things happen
+     */
+    public static EncodedTone encodeTones(Tone.List tones, Integer millisecs) throws IOException, LineUnavailableException {
+        return encodeTones(tones, millisecs, AudioEncoder.DEFAULT_AUDIO_FORMAT);
+    }
+
+    /**
+     * Make an EncodedTone from some Tones mixed together and a duration
+     *
+     * @param tones     the Tones to use
+     * @param millisecs the duration of the Tones
+     * @param format    the format to encode to
+     * @return          an EncodedTone
+     * @throws IOException              if horrible things happen
+     * @throws LineUnavailableException if even more horrible things happen
+     */
+    public static EncodedTone encodeTones(Tone.List tones, Integer millisecs, AudioFormat format) throws IOException, LineUnavailableException {
+        return encodeTones(tones, millisecs, format, LoopPlanner.DEFAULT);
+    }
+
+    /**
+     * Make an EncodedTone from some Tones mixed together and a duration
+     *
+     * @param tones     the Tones to use
+     * @param millisecs the duration of the Tones
+     * @param format    the format to encode to
+     * @param planner   chooses the length of the Clip so that it loops without a click
+     * @return          an EncodedTone
+     * @throws IOException              if horrible things happen
+     * @throws LineUnavailableException if even more horrible things happen
+     */
+    public static EncodedTone encodeTones(Tone.List tones, Integer millisecs, AudioFormat format, LoopPlanner planner) throws IOException, LineUnavailableException {
         Clip clip = AudioSystem.getClip();
-        clip.open(AudioEncoder.createSample(t.getFrequency(), t.getAmplitude(), 200));
-        return new EncodedTone(t, millisecs, clip);
+        clip.open(AudioEncoder.createLoop(format, tones, planner));
+        return new EncodedTone(tones, millisecs, clip, 0);
     }
 
 
+    /**
+     * Stop the tone where it is. A tone of a definite duration has ended with its release by the time it is
+     * stopped, a looped tone is cut off part way through a cycle, which may click.
+     */
     public void stop() {
         clip.stop();
     }
@@ -118,15 +408,15 @@ public class EncodedTone {
     }
 
     public int hashCode() {
-        return tone.hashCode();
+        return tones.hashCode();
     }
 
     public boolean equals(Object o) {
-        return (o instanceof EncodedTone && ((EncodedTone) o).tone.equals(tone) && ((EncodedTone) o).durationInMillisecs == durationInMillisecs);
+        return (o instanceof EncodedTone && ((EncodedTone) o).tones.equals(tones) && ((EncodedTone) o).durationInMillisecs == durationInMillisecs);
     }
 
     public String toString() {
-        return String.format("%s %d", tone.toString(), durationInMillisecs);
+        return String.format("%s %d", tones.toString(), durationInMillisecs);
     }
 
 }
\ No newline at end of file
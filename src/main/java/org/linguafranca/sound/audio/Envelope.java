@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import javax.annotation.concurrent.Immutable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Attack and release ramps, applied to the start and end of a sound so that it does not
+ * click when it starts and stops.
+ * <p>
+ * The ramps are calculated, at a particular frame rate, when the envelope is made. Applying them is a
+ * multiplication per frame within the ramps and nothing at all elsewhere.
+ *
+ * @author jo
+ */
+@Immutable
+public class Envelope {
+
+    /**
+     * The shape of a ramp going up from 0 to 1
+     */
+    public enum Shape {
+        LINEAR {
+            @Override
+            public double getValue(double position) {
+                return position;
+            }
+        },
+        RAISED_COSINE {
+            @Override
+            public double getValue(double position) {
+                return 0.5 - 0.5 * StrictMath.cos(StrictMath.PI * position);
+            }
+        };
+
+        /**
+         * @param position 0 <= position <= 1 along the ramp
+         * @return 0 <= gain <= 1
+         */
+        public abstract double getValue(double position);
+    }
+
+    /**
+     * The length of the default ramps
+     */
+    public static final int DEFAULT_RAMP_MILLIS = 5;
+
+    private final Shape shape;
+    private final float frameRate;
+    private final float[] attack;
+    private final float[] release;
+    // the same in Q15, for FixedPointMixer
+    private final int[] fixedAttack;
+    private final int[] fixedRelease;
+
+    /**
+     * Make an envelope
+     *
+     * @param shape         the shape of both ramps
+     * @param attackMillis  the length of the attack ramp, 0 for none
+     * @param releaseMillis the length of the release ramp, 0 for none
+     * @param frameRate     the frame rate of the sounds it will be applied to
+     */
+    public Envelope(Shape shape, int attackMillis, int releaseMillis, float frameRate) {
+        checkArgument(attackMillis >= 0 && releaseMillis >= 0, "Ramps must not be negative");
+        checkArgument(frameRate > 0, "Frame rate must be greater than 0");
+        this.shape = shape;
+        this.frameRate = frameRate;
+        this.attack = makeRamp(shape, (int) Math.round(attackMillis * (double) frameRate / 1000));
+        float[] ramp = makeRamp(shape, (int) Math.round(releaseMillis * (double) frameRate / 1000));
+        this.release = new float[ramp.length];
+        for (int i = 0; i < ramp.length; i++) {
+            release[i] = ramp[ramp.length - 1 - i];
+        }
+        this.fixedAttack = toFixedPoint(attack);
+        this.fixedRelease = toFixedPoint(release);
+    }
+
+    private static int[] toFixedPoint(float[] ramp) {
+        int[] fixed = new int[ramp.length];
+        for (int i = 0; i < ramp.length; i++) {
+            fixed[i] = Math.round(ramp[i] * 32768);
+        }
+        return fixed;
+    }
+
+    /**
+     * The ramp excludes both 0 and 1, so that neither the first nor last frame of a sound is silent
+     * and a ramp of one frame halves it
+     */
+    private static float[] makeRamp(Shape shape, int frames) {
+        float[] ramp = new float[frames];
+        for (int i = 0; i < frames; i++) {
+            ramp[i] = (float) shape.getValue((i + 1.0) / (frames + 1.0));
+        }
+        return ramp;
+    }
+
+    /**
+     * Raised cosine ramps of {@link #DEFAULT_RAMP_MILLIS}
+     *
+     * @param frameRate the frame rate of the sounds it will be applied to
+     * @return an envelope
+     */
+    public static Envelope getDefault(float frameRate) {
+        return new Envelope(Shape.RAISED_COSINE, DEFAULT_RAMP_MILLIS, DEFAULT_RAMP_MILLIS, frameRate);
+    }
+
+    /**
+     * No ramps at all
+     *
+     * @param frameRate the frame rate of the sounds it will be applied to
+     * @return an envelope
+     */
+    public static Envelope getNone(float frameRate) {
+        return new Envelope(Shape.LINEAR, 0, 0, frameRate);
+    }
+
+    public Shape getShape() {
+        return shape;
+    }
+
+    public float getFrameRate() {
+        return frameRate;
+    }
+
+    public int getAttackFrames() {
+        return attack.length;
+    }
+
+    public int getReleaseFrames() {
+        return release.length;
+    }
+
+    /**
+     * Apply the envelope to part of a sound. The attack is applied to the first frames of the sound and the
+     * release to the last. If the sound is shorter than the two together they overlap.
+     *
+     * @param buffer   the frames to apply it to
+     * @param offset   the first frame in the buffer
+     * @param frames   the number of frames in the buffer
+     * @param position the position of the first of these frames in the sound
+     * @param length   the length of the whole sound, {@link Long#MAX_VALUE} if it has no end
+     */
+    public void apply(float[] buffer, int offset, int frames, long position, long length) {
+        long end = position + frames;
+        for (long p = position, stop = Math.min(end, attack.length); p < stop; p++) {
+            buffer[offset + (int) (p - position)] *= attack[(int) p];
+        }
+        long releaseStart = length - release.length;
+        for (long p = Math.max(position, releaseStart), stop = Math.min(end, length); p < stop; p++) {
+            buffer[offset + (int) (p - position)] *= release[(int) (p - releaseStart)];
+        }
+    }
+
+    /**
+     * Apply the envelope to part of a sound of 16 bit values, using integer arithmetic,
+     * as {@link #apply(float[], int, int, long, long)}
+     *
+     * @param buffer   the frames to apply it to
+     * @param offset   the first frame in the buffer
+     * @param frames   the number of frames in the buffer
+     * @param position the position of the first of these frames in the sound
+     * @param length   the length of the whole sound, {@link Long#MAX_VALUE} if it has no end
+     */
+    public void apply(int[] buffer, int offset, int frames, long position, long length) {
+        long end = position + frames;
+        for (long p = position, stop = Math.min(end, fixedAttack.length); p < stop; p++) {
+            int i = offset + (int) (p - position);
+            buffer[i] = (buffer[i] * fixedAttack[(int) p] + (1 << 14)) >> 15;
+        }
+        long releaseStart = length - fixedRelease.length;
+        for (long p = Math.max(position, releaseStart), stop = Math.min(end, length); p < stop; p++) {
+            int i = offset + (int) (p - position);
+            buffer[i] = (buffer[i] * fixedRelease[(int) (p - releaseStart)] + (1 << 14)) >> 15;
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return (shape.hashCode() * 31 + Float.hashCode(frameRate)) * 31 + attack.length * 131 + release.length;
+    }
+
+    /**
+     * The ramps are decided by their shape, length and frame rate
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Envelope)) {
+            return false;
+        }
+        Envelope other = (Envelope) o;
+        return other.shape == shape && other.frameRate == frameRate && other.attack.length == attack.length
+                && other.release.length == release.length;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %d/%d frames", shape, attack.length, release.length);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import java.util.List;
+
+/**
+ * Decides which entries a cache bounded by weight, e.g. bytes, keeps. The cache tells the policy about every
+ * lookup and every entry added, and removes whatever the policy says to.
+ * <p>
+ * A policy is used by one cache, which calls it while holding a lock, so it need not be thread safe.
+ *
+ * @param <K> the keys of the cache
+ * @author jo
+ */
+public interface EvictionPolicy<K> {
+
+    /**
+     * A key was looked up and found
+     *
+     * @param key the key
+     */
+    void onHit(K key);
+
+    /**
+     * A key was looked up and not found
+     *
+     * @param key the key
+     */
+    void onMiss(K key);
+
+    /**
+     * An entry has been added
+     *
+     * @param key       its key
+     * @param weight    its weight
+     * @param maxWeight the most the entries may weigh in all
+     * @return the keys of the entries to remove, which may include the one just added
+     */
+    List<K> add(K key, long weight, long maxWeight);
+
+    /**
+     * An entry has been removed other than by the policy
+     *
+     * @param key its key
+     */
+    void remove(K key);
+
+    /**
+     * Evict the least recently used
+     *
+     * @param <K> the keys of the cache
+     * @return a new policy
+     */
+    static <K> EvictionPolicy<K> lru() {
+        return new LruPolicy<>();
+    }
+
+    /**
+     * Evict as W-TinyLFU does: new entries go into a small LRU window, and leaving it they are only admitted to
+     * the main part of the cache if they have been asked for more often than what they would replace, so a burst
+     * of things wanted once doesn't flush out things wanted often
+     *
+     * @param <K> the keys of the cache
+     * @return a new policy
+     */
+    static <K> EvictionPolicy<K> windowTinyLfu() {
+        return new TinyLfuPolicy<>();
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import org.linguafranca.sound.tone.Tone;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Sums a number of unmodulated sine {@link Tone}s into 16 bit samples using only integer arithmetic,
+ * the equivalent of a {@link ToneMixer} of {@link WaveGenerator.Waveform#SINE} for 16 bit output.
+ * <p>
+ * Each tone has a 32 bit phase accumulator, which wraps round by itself at the end of a cycle, indexing a
+ * table of 4096 Q15 sine values with linear interpolation on the next 16 bits of phase. The gains are Q15.
+ * Since the table is made with {@link StrictMath} the output is bit for bit the same on every JVM.
+ * <p>
+ * As with ToneMixer, the tones are scaled down in proportion if their amplitudes add up to more than 1.
+ *
+ * @author jo
+ */
+public class FixedPointMixer {
+
+    private static final int TABLE_BITS = 12;
+    private static final int TABLE_SIZE = 1 << TABLE_BITS;
+    // bits of phase below the table index that are used to interpolate
+    private static final int FRACTION_BITS = 16;
+    private static final int FRACTION_SHIFT = 32 - TABLE_BITS - FRACTION_BITS;
+
+    // one cycle of sine in Q15 with a copy of the first entry at the end
+    private static final short[] SINE = new short[TABLE_SIZE + 1];
+
+    static {
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            SINE[i] = (short) Math.round(StrictMath.sin(2.0 * StrictMath.PI * i / TABLE_SIZE) * Short.MAX_VALUE);
+        }
+        SINE[TABLE_SIZE] = SINE[0];
+    }
+
+    private final int[] phases;
+    private final int[] increments;
+    private final int[] gains;
+
+    /**
+     * Make a mixer
+     *
+     * @param tones     the tones to mix, none of which may be modulated
+     * @param frameRate the frames per second of the output
+     */
+    public FixedPointMixer(List<Tone> tones, float frameRate) {
+        checkArgument(!tones.isEmpty(), "Need at least one tone to mix");
+        checkArgument(frameRate > 0, "Frame rate must be greater than 0");
+        phases = new int[tones.size()];
+        increments = new int[tones.size()];
+        gains = new int[tones.size()];
+        double headroom = 1.0 / Math.max(1.0, ToneMixer.getTotalAmplitude(tones));
+        for (int i = 0; i < tones.size(); i++) {
+            Tone tone = tones.get(i);
+            checkArgument(!tone.isModulated(), "Modulated tones are not supported %s", tone);
+            increments[i] = (int) Math.round(tone.getFrequency() / frameRate * 4294967296.0);
+            gains[i] = (int) Math.round(tone.getAmplitude() * headroom * 32768);
+        }
+    }
+
+    /**
+     * Can these tones be mixed to this format with a FixedPointMixer
+     *
+     * @param format an output format
+     * @param tones  some tones
+     * @return true if the format is 16 bit signed PCM and none of the tones are modulated
+     */
+    public static boolean isSupported(AudioFormat format, List<Tone> tones) {
+        if (!format.getEncoding().equals(AudioFormat.Encoding.PCM_SIGNED) || format.getSampleSizeInBits() != 16
+                || !PcmEncoder.isSupported(format)) {
+            return false;
+        }
+        for (Tone tone : tones) {
+            if (tone.isModulated()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The Q15 sine of a 32 bit phase
+     */
+    static int sine(int phase) {
+        int index = phase >>> (32 - TABLE_BITS);
+        int fraction = (phase >>> FRACTION_SHIFT) & ((1 << FRACTION_BITS) - 1);
+        int a = SINE[index];
+        return a + (((SINE[index + 1] - a) * fraction) >> FRACTION_BITS);
+    }
+
+    /**
+     * Go back to the start of every tone's cycle
+     */
+    public void reset() {
+        for (int i = 0; i < phases.length; i++) {
+            phases[i] = 0;
+        }
+    }
+
+    /**
+     * Write the sum of the next frames of each tone into the buffer as 16 bit values, this never comes to an end
+     *
+     * @param buffer the buffer to write to
+     * @param offset the first frame to write
+     * @param frames the number of frames to write
+     * @return the number of frames written
+     */
+    public int read(int[] buffer, int offset, int frames) {
+        int end = offset + frames;
+        for (int i = offset; i < end; i++) {
+            buffer[i] = 0;
+        }
+        for (int t = 0; t < phases.length; t++) {
+            final int increment = increments[t];
+            final int gain = gains[t];
+            int phase = phases[t];
+            for (int i = offset; i < end; i++) {
+                buffer[i] += (sine(phase) * gain + (1 << 14)) >> 15;
+                phase += increment;
+            }
+            phases[t] = phase;
+        }
+        return frames;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+/**
+ * G.711 mu-law and A-law companding of 16 bit linear samples.
+ * <p>
+ * mu-law works on the top 14 bits of a sample and A-law on the top 13 bits, so encoding is a single
+ * lookup in a table with an entry for each possible value, calculated once when the class is loaded.
+ * <p>
+ * Documentation:
+ * https://www.itu.int/rec/T-REC-G.711
+ *
+ * @author jo
+ */
+public class G711 {
+
+    // class is static - hide constructor
+    private G711() {}
+
+    private static final int ULAW_BIAS = 0x84;
+    private static final int ULAW_CLIP = 8159;
+    private static final int[] ULAW_SEGMENT_END = {0x3F, 0x7F, 0xFF, 0x1FF, 0x3FF, 0x7FF, 0xFFF, 0x1FFF};
+    private static final int[] ALAW_SEGMENT_END = {0x1F, 0x3F, 0x7F, 0xFF, 0x1FF, 0x3FF, 0x7FF, 0xFFF};
+
+    // indexed by the top 14 bits of the sample, offset to be positive
+    private static final byte[] ULAW_TABLE = new byte[1 << 14];
+    // indexed by the top 13 bits of the sample, offset to be positive
+    private static final byte[] ALAW_TABLE = new byte[1 << 13];
+
+    static {
+        for (int i = 0; i < ULAW_TABLE.length; i++) {
+            ULAW_TABLE[i] = (byte) calculateULaw(i - ULAW_TABLE.length / 2);
+        }
+        for (int i = 0; i < ALAW_TABLE.length; i++) {
+            ALAW_TABLE[i] = (byte) calculateALaw(i - ALAW_TABLE.length / 2);
+        }
+    }
+
+    private static int getSegment(int value, int[] segmentEnds) {
+        for (int segment = 0; segment < segmentEnds.length; segment++) {
+            if (value <= segmentEnds[segment]) {
+                return segment;
+            }
+        }
+        return segmentEnds.length;
+    }
+
+    /**
+     * @param value the top 14 bits of a sample
+     */
+    private static int calculateULaw(int value) {
+        int mask;
+        if (value < 0) {
+            value = -value;
+            mask = 0x7F;
+        } else {
+            mask = 0xFF;
+        }
+        value = Math.min(value, ULAW_CLIP) + (ULAW_BIAS >> 2);
+        int segment = getSegment(value, ULAW_SEGMENT_END);
+        if (segment >= 8) {
+            return 0x7F ^ mask;
+        }
+        return ((segment << 4) | ((value >> (segment + 1)) & 0xF)) ^ mask;
+    }
+
+    /**
+     * @param value the top 13 bits of a sample
+     */
+    private static int calculateALaw(int value) {
+        int mask;
+        if (value >= 0) {
+            mask = 0xD5;
+        } else {
+            mask = 0x55;
+            value = -value - 1;
+        }
+        int segment = getSegment(value, ALAW_SEGMENT_END);
+        if (segment >= 8) {
+            return 0x7F ^ mask;
+        }
+        int shift = segment < 2 ? 1 : segment;
+        return ((segment << 4) | ((value >> shift) & 0xF)) ^ mask;
+    }
+
+    /**
+     * Encode a 16 bit sample as mu-law
+     *
+     * @param sample -32768 <= sample <= 32767
+     * @return the mu-law byte
+     */
+    public static byte encodeULaw(int sample) {
+        return ULAW_TABLE[(sample >> 2) + ULAW_TABLE.length / 2];
+    }
+
+    /**
+     * Encode a 16 bit sample as A-law
+     *
+     * @param sample -32768 <= sample <= 32767
+     * @return the A-law byte
+     */
+    public static byte encodeALaw(int sample) {
+        return ALAW_TABLE[(sample >> 3) + ALAW_TABLE.length / 2];
+    }
+
+    /**
+     * Decode a mu-law byte
+     *
+     * @param ulaw the mu-law value
+     * @return a 16 bit sample
+     */
+    public static int decodeULaw(byte ulaw) {
+        int u = ~ulaw & 0xFF;
+        int t = (((u & 0xF) << 3) + ULAW_BIAS) << ((u & 0x70) >> 4);
+        return (u & 0x80) != 0 ? ULAW_BIAS - t : t - ULAW_BIAS;
+    }
+
+    /**
+     * Decode an A-law byte
+     *
+     * @param alaw the A-law value
+     * @return a 16 bit sample
+     */
+    public static int decodeALaw(byte alaw) {
+        int a = (alaw ^ 0x55) & 0xFF;
+        int t = (a & 0xF) << 4;
+        int segment = (a & 0x70) >> 4;
+        if (segment == 0) {
+            t += 8;
+        } else {
+            t = (t + 0x108) << (segment - 1);
+        }
+        return (a & 0x80) != 0 ? t : -t;
+    }
+}
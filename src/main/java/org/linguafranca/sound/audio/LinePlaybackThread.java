@@ -0,0 +1,335 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import org.linguafranca.sound.cadence.CadenceSection;
+import org.linguafranca.sound.player.QueueItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Plays queued {@link CadenceSection}s by streaming them into a single {@link SourceDataLine}, as an alternative
+ * to {@link PlaybackThread}, which opens a Clip for each sound and times the gaps by waiting.
+ * <p>
+ * Each section is rendered a block at a time by a {@link CadenceRenderer}, silences included, and written to the
+ * line, which blocks until there is room for it, so the audio itself paces the thread and the timing of every
+ * segment is exact to the frame. When nothing is queued the thread writes silence, so the line runs continuously.
+ * An item is finished when the line reports it has played the last frame of the section, and is abandoned if
+ * playback is cancelled before then, in which case whatever is waiting in the line is discarded.
+ * <p>
+ * However many sections are played, the thread uses the one line, and the delay before a newly queued section is
+ * heard is at most the size of the line's buffer.
+ *
+ * @author jo
+ */
+public class LinePlaybackThread extends Thread {
+
+    private static final Logger logger = LoggerFactory.getLogger(LinePlaybackThread.class);
+
+    /** the default size of the line's buffer in millis */
+    public static final int DEFAULT_BUFFER_MILLIS = 100;
+
+    /**
+     * An item whose frames have all been written to the line, which is finished when they have been played
+     */
+    private static class Pending {
+        final QueueItem<CadenceSection> item;
+        final long endFrame;
+
+        Pending(QueueItem<CadenceSection> item, long endFrame) {
+            this.item = item;
+            this.endFrame = endFrame;
+        }
+    }
+
+    private final AudioFormat format;
+    private final CadenceRenderer renderer;
+    private final int bufferFrames;
+    // the most frames written at a time, a fraction of the buffer so that cancellation is prompt
+    private final int blockFrames;
+    private final ArrayBlockingQueue<QueueItem<CadenceSection>> playbackQueueItems;
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+
+    private volatile SourceDataLine line;
+    private volatile boolean stopThreadRequested = false;
+    private volatile boolean cancelPlaybackRequested = false;
+
+    // frames written to the line, in the same terms as the line's frame position
+    private long framesWritten = 0;
+    private final float[] samples;
+    private final byte[] data;
+    private final PcmEncoder encoder;
+
+    public LinePlaybackThread() {
+        this(AudioEncoder.DEFAULT_AUDIO_FORMAT);
+    }
+
+    /**
+     * @param format the format to play back in
+     */
+    public LinePlaybackThread(AudioFormat format) {
+        this(format, DEFAULT_BUFFER_MILLIS);
+    }
+
+    /**
+     * @param format       the format to play back in
+     * @param bufferMillis the size of the line's buffer, which is the longest a queued section waits to be heard
+     */
+    public LinePlaybackThread(AudioFormat format, int bufferMillis) {
+        super("Line Player Thread");
+        checkArgument(bufferMillis > 0, "Buffer must be greater than 0");
+        this.format = format;
+        this.renderer = new CadenceRenderer(format);
+        this.bufferFrames = Math.max(2, Math.round(format.getFrameRate() * bufferMillis / 1000));
+        this.blockFrames = Math.min(AudioEncoder.BLOCK_SIZE_IN_FRAMES, bufferFrames / 2);
+        this.samples = new float[blockFrames];
+        this.encoder = new PcmEncoder(format);
+        this.data = new byte[blockFrames * encoder.getFrameSize()];
+        this.playbackQueueItems = new ArrayBlockingQueue<>(16);
+    }
+
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Open and start a line from the default mixer, to be called before the thread is started
+     *
+     * @throws LineUnavailableException if there is no line for the format
+     */
+    public void openLine() throws LineUnavailableException {
+        openLine(AudioSystem.getSourceDataLine(format));
+    }
+
+    /**
+     * Open and start a line, to be called before the thread is started
+     *
+     * @param line the line to play on
+     * @throws LineUnavailableException if the line can't be opened
+     */
+    void openLine(SourceDataLine line) throws LineUnavailableException {
+        checkState(this.line == null, "Line already open");
+        line.open(format, bufferFrames * format.getFrameSize());
+        line.start();
+        framesWritten = line.getLongFramePosition();
+        logger.debug("Opened line with buffer of {} bytes", line.getBufferSize());
+        this.line = line;
+    }
+
+    /**
+     * Stop the playback thread, which closes the line
+     * @param timeToWait in milliseconds
+     * @return true if the thread stopped before time out
+     */
+    public boolean stopThread(int timeToWait) {
+        stopThreadRequested = true;
+        cancelPlaybackRequested = true;
+        this.interrupt();
+
+        if (timeToWait > 0) {
+            try {
+                this.join(timeToWait);
+            } catch (InterruptedException e) {
+                throw new RuntimeException("Did not expect to be interrupted waiting for player thread to exit");
+            }
+        }
+        return !this.isAlive();
+    }
+
+    /**
+     * Stop the cadence currently being played.
+     */
+    public void cancelPlayback() {
+        drainQueue();
+        cancelPlaybackRequested = true;
+    }
+
+    /**
+     * Enqueue an item for playback
+     * @param queueItem a CadenceSection wrapped in a QueueItem
+     * @return true if the item was queued, false if not
+     */
+    public boolean queue(QueueItem<CadenceSection> queueItem) {
+        // don't queue if we are shutting down
+        if (stopThreadRequested) return false;
+        // if the queue was full then we didn't do it
+        return playbackQueueItems.offer(queueItem);
+    }
+
+    private void drainQueue() {
+        ArrayList<QueueItem<CadenceSection>> queueItems = new ArrayList<>();
+        playbackQueueItems.drainTo(queueItems);
+        for (QueueItem<CadenceSection> queueItem : queueItems) {
+            logger.trace("Discarding queueItem {}", queueItem.getItem());
+            queueItem.setAbandoned();
+        }
+    }
+
+    /**
+     * Returns an approximation of how long the queue to queue is in millis
+     *
+     * @return a value in millis
+     */
+    public long getQueueLengthMillis() {
+        long result = 0;
+        // we're OK to iterate over this because it will give consistent results even if it is modified on another thread
+        for (QueueItem<CadenceSection> queueItem : playbackQueueItems) {
+            result += queueItem.getItem().getDuration();
+        }
+        return result;
+    }
+
+    /**
+     * Write a block to the line, waiting for room
+     *
+     * @return false if playback was cancelled first
+     */
+    private boolean write(int frames) {
+        int length = frames * encoder.getFrameSize();
+        int written = 0;
+        while (written < length) {
+            if (cancelPlaybackRequested) {
+                return false;
+            }
+            written += line.write(data, written, length - written);
+        }
+        framesWritten += frames;
+        updatePending();
+        return true;
+    }
+
+    /**
+     * Finish the items the line has played to the end of
+     */
+    private void updatePending() {
+        long position = line.getLongFramePosition();
+        while (!pending.isEmpty() && pending.peek().endFrame <= position) {
+            Pending done = pending.remove();
+            logger.trace("Finished candidate {}", done.item.getItem());
+            done.item.setFinished();
+        }
+    }
+
+    /**
+     * Discard what is in the line, and abandon the items in it
+     */
+    private void cancel(QueueItem<CadenceSection> current) {
+        logger.trace("Cancelling playback");
+        line.flush();
+        framesWritten = line.getLongFramePosition();
+        if (current != null) {
+            current.setAbandoned();
+        }
+        while (!pending.isEmpty()) {
+            pending.remove().item.setAbandoned();
+        }
+        cancelPlaybackRequested = false;
+    }
+
+    /**
+     * Write a section to the line
+     *
+     * @return false if playback was cancelled
+     */
+    private boolean play(QueueItem<CadenceSection> queueItem) {
+        CadenceRenderer.Timeline timeline = renderer.plan(queueItem.getItem());
+        long frameCount = timeline.getFrameCount();
+        long startFrame = framesWritten;
+        queueItem.setStarted();
+        for (long frame = 0; frame < frameCount; frame += blockFrames) {
+            int frames = (int) Math.min(blockFrames, frameCount - frame);
+            timeline.render(frame, samples, 0, frames);
+            encoder.encode(samples, 0, frames, data, 0);
+            if (!write(frames)) {
+                return false;
+            }
+        }
+        pending.add(new Pending(queueItem, startFrame + frameCount));
+        updatePending();
+        return true;
+    }
+
+    /**
+     * Write a block of silence to the line
+     *
+     * @return false if playback was cancelled
+     */
+    private boolean playSilence() {
+        Arrays.fill(samples, 0.0F);
+        encoder.encode(samples, 0, blockFrames, data, 0);
+        return write(blockFrames);
+    }
+
+    @Override
+    public void run() {
+        checkState(line != null, "Line not open");
+        logger.info("Line Player Thread Started");
+        long blockMillis = Math.max(1, (long) (blockFrames * 1000 / format.getFrameRate()));
+        QueueItem<CadenceSection> current = null;
+        try {
+            while (!stopThreadRequested) {
+                boolean completed;
+                try {
+                    current = playbackQueueItems.poll(blockMillis, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    current = null;
+                }
+                if (stopThreadRequested) {
+                    break;
+                }
+                if (current == null) {
+                    // keep the line running while there is nothing to play
+                    completed = playSilence();
+                } else {
+                    logger.trace("Got a candidate {}", current.getItem());
+                    completed = play(current);
+                }
+                if (!completed) {
+                    cancel(current);
+                }
+                current = null;
+            }
+        } finally {
+            logger.info("Line player thread exit");
+            line.flush();
+            line.stop();
+            line.close();
+            if (current != null) {
+                current.setAbandoned();
+            }
+            while (!pending.isEmpty()) {
+                pending.remove().item.setAbandoned();
+            }
+            // anyone waiting on cadences yet to be played gets notified that this isn't going to happen
+            this.drainQueue();
+        }
+    }
+}
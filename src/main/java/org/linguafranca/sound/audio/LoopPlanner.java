@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import org.linguafranca.sound.tone.Tone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.Immutable;
+import javax.sound.sampled.AudioFormat;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Chooses the length of a sample that is to be looped, so that every tone in it (and every modulation)
+ * is back close to the start of its cycle at the loop point, and the join can't be heard.
+ * <p>
+ * The shortest length of at least the minimum duration whose phase error is within the tolerance is chosen.
+ * If there is no such length within the memory budget the length with the smallest error that fits is chosen.
+ * Either way the bytes used by a loop are never more than the budget.
+ *
+ * @author jo
+ */
+@Immutable
+public class LoopPlanner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoopPlanner.class);
+
+    /**
+     * Loops of up to 1MB, at least 100ms long, with each tone within a thousandth of a cycle of its start
+     */
+    public static final LoopPlanner DEFAULT = new LoopPlanner(1 << 20, 0.001, 100);
+
+    private final long maxBytes;
+    private final double tolerance;
+    private final int minMillis;
+
+    /**
+     * Make a planner
+     *
+     * @param maxBytes  the most memory a loop may occupy once encoded
+     * @param tolerance the largest acceptable distance, as a fraction of a cycle, of any tone from
+     *                  the start of its cycle at the loop point
+     * @param minMillis the shortest loop wanted
+     */
+    public LoopPlanner(long maxBytes, double tolerance, int minMillis) {
+        checkArgument(maxBytes > 0, "Memory budget must be greater than 0");
+        checkArgument(tolerance >= 0 && tolerance < 0.5, "Tolerance must be between 0 and 0.5 cycles");
+        checkArgument(minMillis >= 0, "Minimum duration must not be negative");
+        this.maxBytes = maxBytes;
+        this.tolerance = tolerance;
+        this.minMillis = minMillis;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    public int getMinMillis() {
+        return minMillis;
+    }
+
+    /**
+     * The frequencies whose cycles have to line up at the loop point
+     */
+    private static double[] getFrequencies(List<Tone> tones) {
+        double[] frequencies = new double[tones.size() * 2];
+        int count = 0;
+        for (Tone tone : tones) {
+            frequencies[count++] = tone.getFrequency();
+            if (tone.isModulated()) {
+                frequencies[count++] = tone.getModulationFrequency();
+            }
+        }
+        double[] result = new double[count];
+        System.arraycopy(frequencies, 0, result, 0, count);
+        return result;
+    }
+
+    private static double getPhaseError(double[] increments, long frames) {
+        double error = 0.0;
+        for (double increment : increments) {
+            double cycles = frames * increment;
+            error = Math.max(error, Math.abs(cycles - Math.rint(cycles)));
+        }
+        return error;
+    }
+
+    /**
+     * How far from the start of its cycle the tone that is furthest out is, after a number of frames
+     *
+     * @param tones     the tones
+     * @param frameRate frames per second
+     * @param frames    the length of the loop
+     * @return 0 <= error <= 0.5 cycles
+     */
+    public static double getPhaseError(List<Tone> tones, float frameRate, long frames) {
+        double[] increments = getFrequencies(tones);
+        for (int i = 0; i < increments.length; i++) {
+            increments[i] /= frameRate;
+        }
+        return getPhaseError(increments, frames);
+    }
+
+    /**
+     * Choose the length of a loop
+     *
+     * @param tones  the tones to be mixed into the loop
+     * @param format the format the loop will be encoded in
+     * @return a number of frames
+     */
+    public long plan(List<Tone> tones, AudioFormat format) {
+        checkArgument(!tones.isEmpty(), "Need at least one tone to plan a loop");
+        float frameRate = format.getFrameRate();
+        double[] increments = getFrequencies(tones);
+        for (int i = 0; i < increments.length; i++) {
+            increments[i] /= frameRate;
+        }
+
+        long maxFrames = Math.max(1, maxBytes / format.getFrameSize());
+        long minFrames = Math.min(maxFrames, Math.max(1, Math.round(minMillis * (double) frameRate / 1000)));
+
+        long bestFrames = minFrames;
+        double bestError = Double.MAX_VALUE;
+        for (long frames = minFrames; frames <= maxFrames; frames++) {
+            double error = getPhaseError(increments, frames);
+            if (error < bestError) {
+                bestError = error;
+                bestFrames = frames;
+                if (error <= tolerance) {
+                    break;
+                }
+            }
+        }
+        if (bestError > tolerance) {
+            LOGGER.debug("No loop for {} within {} cycles in {} bytes, best is {} frames at {} cycles",
+                    tones, tolerance, maxBytes, bestFrames, bestError);
+        } else {
+            LOGGER.trace("Loop for {} is {} frames at {} cycles", tones, bestFrames, bestError);
+        }
+        return bestFrames;
+    }
+
+    @Override
+    public int hashCode() {
+        return (Long.hashCode(maxBytes) * 31 + Double.hashCode(tolerance)) * 31 + minMillis;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof LoopPlanner && ((LoopPlanner) o).maxBytes == maxBytes
+                && ((LoopPlanner) o).tolerance == tolerance && ((LoopPlanner) o).minMillis == minMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d bytes, %s cycles, %dms", maxBytes, tolerance, minMillis);
+    }
+}
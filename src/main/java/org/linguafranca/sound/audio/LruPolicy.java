@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evicts the least recently used entries, see {@link EvictionPolicy#lru()}
+ *
+ * @author jo
+ */
+class LruPolicy<K> implements EvictionPolicy<K> {
+
+    // in order of use, least recent first
+    private final LinkedHashMap<K, Long> weights = new LinkedHashMap<>(16, 0.75F, true);
+    private long total = 0;
+
+    @Override
+    public void onHit(K key) {
+        weights.get(key);
+    }
+
+    @Override
+    public void onMiss(K key) {
+    }
+
+    @Override
+    public List<K> add(K key, long weight, long maxWeight) {
+        weights.put(key, weight);
+        total += weight;
+        List<K> evicted = new ArrayList<>();
+        Iterator<Map.Entry<K, Long>> iterator = weights.entrySet().iterator();
+        while (total > maxWeight && iterator.hasNext()) {
+            Map.Entry<K, Long> eldest = iterator.next();
+            total -= eldest.getValue();
+            evicted.add(eldest.getKey());
+            iterator.remove();
+        }
+        return evicted;
+    }
+
+    @Override
+    public void remove(K key) {
+        Long weight = weights.remove(key);
+        if (weight != null) {
+            total -= weight;
+        }
+    }
+}
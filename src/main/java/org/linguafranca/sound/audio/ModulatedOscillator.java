@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * An {@link Oscillator} whose output is amplitude modulated by a {@link WaveGenerator.Modulator} running
+ * at a second frequency, e.g. a 400Hz carrier modulated at 25Hz.
+ * <p>
+ * One cycle of the modulator is calculated into a table when the oscillator is made, on the
+ * assumption that the modulator scales the value it is given (as {@link WaveGenerator#SINE_MODULATOR} and
+ * {@link WaveGenerator#IDENTITY_MODULATOR} do). Each frame then costs one interpolated table lookup and a
+ * multiplication more than an unmodulated oscillator.
+ *
+ * @author jo
+ */
+public class ModulatedOscillator extends Oscillator {
+
+    /**
+     * Number of entries in the envelope table, linear interpolation between them
+     * keeps a sine envelope within a few parts per million
+     */
+    public static final int ENVELOPE_SIZE = 1024;
+
+    private final WaveGenerator.Modulator modulator;
+    private final double modulationFrequency;
+    private final double modulationIncrement;
+    // the envelope, with a copy of the first entry at the end so interpolation needs no wrapping
+    private final float[] envelope = new float[ENVELOPE_SIZE + 1];
+    private double modulationPhase;
+
+    /**
+     * Make an oscillator with both carrier and modulator starting at phase 0
+     *
+     * @param waveGen             the carrier waveform
+     * @param frequency           the carrier frequency in Hertz
+     * @param modulator           the modulation to apply
+     * @param modulationFrequency the frequency of the modulator in Hertz
+     * @param frameRate           the number of frames per second of the output
+     */
+    public ModulatedOscillator(WaveGenerator.WaveGen waveGen, double frequency,
+                               WaveGenerator.Modulator modulator, double modulationFrequency, float frameRate) {
+        super(waveGen, frequency, frameRate);
+        checkArgument(modulationFrequency > 0, "Modulation frequency must be greater than 0");
+        this.modulator = modulator;
+        this.modulationFrequency = modulationFrequency;
+        this.modulationIncrement = modulationFrequency / frameRate;
+        for (int i = 0; i < ENVELOPE_SIZE; i++) {
+            envelope[i] = (float) modulator.getValue((double) i / ENVELOPE_SIZE, 1.0);
+        }
+        envelope[ENVELOPE_SIZE] = envelope[0];
+    }
+
+    public WaveGenerator.Modulator getModulator() {
+        return modulator;
+    }
+
+    public double getModulationFrequency() {
+        return modulationFrequency;
+    }
+
+    /**
+     * The current position in the cycle of the modulator
+     * @return 0 <= phase < 1
+     */
+    public double getModulationPhase() {
+        return modulationPhase;
+    }
+
+    /**
+     * Move to a position in the cycle of the modulator
+     * @param phase the position, only the fractional part is used
+     */
+    public void setModulationPhase(double phase) {
+        this.modulationPhase = phase - Math.floor(phase);
+    }
+
+    /**
+     * Move both the carrier and the modulator to where they are a number of frames after starting from phase 0
+     * @param frame the number of frames from the start
+     */
+    @Override
+    public void setFramePosition(long frame) {
+        super.setFramePosition(frame);
+        setModulationPhase(frame * modulationIncrement);
+    }
+
+    /**
+     * Go back to the start of both the carrier's and the modulator's cycles
+     */
+    @Override
+    public void reset() {
+        super.reset();
+        modulationPhase = 0.0;
+    }
+
+    private double getEnvelope(double phase) {
+        double position = phase * ENVELOPE_SIZE;
+        int i = (int) position;
+        return envelope[i] + (position - i) * (envelope[i + 1] - envelope[i]);
+    }
+
+    @Override
+    public double next() {
+        double value = super.next() * getEnvelope(modulationPhase);
+        modulationPhase += modulationIncrement;
+        if (modulationPhase >= 1.0) {
+            modulationPhase -= 1.0;
+        }
+        return value;
+    }
+
+    @Override
+    public void fill(float[] buffer, int offset, int length, double amplitude) {
+        super.fill(buffer, offset, length, amplitude);
+        modulate(buffer, offset, length);
+    }
+
+    @Override
+    public void add(float[] buffer, int offset, int length, double amplitude) {
+        final WaveGenerator.WaveGen sampler = getSampler();
+        final double increment = getIncrement();
+        final double modulationIncrement = this.modulationIncrement;
+        double phase = getPhase();
+        double modulationPhase = this.modulationPhase;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            buffer[i] += (float) (amplitude * sampler.getValue(phase) * getEnvelope(modulationPhase));
+            phase += increment;
+            if (phase >= 1.0) {
+                phase -= 1.0;
+            }
+            modulationPhase += modulationIncrement;
+            if (modulationPhase >= 1.0) {
+                modulationPhase -= 1.0;
+            }
+        }
+        setPhase(phase);
+        this.modulationPhase = modulationPhase;
+    }
+
+    /**
+     * Apply the envelope to frames already in a buffer, advancing the modulator
+     */
+    private void modulate(float[] buffer, int offset, int length) {
+        final double modulationIncrement = this.modulationIncrement;
+        double modulationPhase = this.modulationPhase;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            buffer[i] *= (float) getEnvelope(modulationPhase);
+            modulationPhase += modulationIncrement;
+            if (modulationPhase >= 1.0) {
+                modulationPhase -= 1.0;
+            }
+        }
+        this.modulationPhase = modulationPhase;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import java.util.SplittableRandom;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A never ending source of white, pink or brown noise.
+ * <p>
+ * Each source has its own xorshift generator, so sources on different threads don't contend with one another,
+ * and is started from an explicit seed, so the same seed always produces the same noise. A source itself is
+ * not thread safe.
+ *
+ * @author jo
+ */
+public class NoiseSource implements SampleSource {
+
+    /**
+     * The spectrum of the noise
+     */
+    public enum Colour {
+        /** equal power at every frequency */
+        WHITE,
+        /** power falling by 3dB per octave */
+        PINK,
+        /** power falling by 6dB per octave */
+        BROWN
+    }
+
+    private final Colour colour;
+    private final long seed;
+    private final double amplitude;
+
+    private long state;
+    // filter state for pink and brown
+    private double b0, b1, b2, b3, b4, b5, b6;
+
+    /**
+     * Make a source
+     *
+     * @param colour    the spectrum of the noise
+     * @param seed      the same seed gives the same noise
+     * @param amplitude the scaling applied to the noise, 0 to 1
+     */
+    public NoiseSource(Colour colour, long seed, double amplitude) {
+        checkArgument(amplitude >= 0 && amplitude <= 1.0, "Amplitude must be in range 0 to 1");
+        this.colour = colour;
+        this.seed = seed;
+        this.amplitude = amplitude;
+        reset();
+    }
+
+    public Colour getColour() {
+        return colour;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Start again from the seed, so that the same noise is produced again
+     */
+    public void reset() {
+        // spread the seed's bits, xorshift must not start at 0
+        long mixed = new SplittableRandom(seed).nextLong();
+        state = mixed == 0 ? 0x9E3779B97F4A7C15L : mixed;
+        b0 = b1 = b2 = b3 = b4 = b5 = b6 = 0.0;
+    }
+
+    /**
+     * xorshift64*, uniform in -1 <= value < 1
+     */
+    private double nextWhite() {
+        long x = state;
+        x ^= x >>> 12;
+        x ^= x << 25;
+        x ^= x >>> 27;
+        state = x;
+        return ((x * 0x2545F4914F6CDD1DL) >>> 11) * 0x1.0p-52 - 1.0;
+    }
+
+    /**
+     * Paul Kellet's filter, accurate to within 0.05dB above 9Hz at 44.1kHz, scaled to stay within -1 to 1
+     */
+    private double nextPink() {
+        double white = nextWhite();
+        b0 = 0.99886 * b0 + white * 0.0555179;
+        b1 = 0.99332 * b1 + white * 0.0750759;
+        b2 = 0.96900 * b2 + white * 0.1538520;
+        b3 = 0.86650 * b3 + white * 0.3104856;
+        b4 = 0.55000 * b4 + white * 0.5329522;
+        b5 = -0.7616 * b5 - white * 0.0168980;
+        double pink = b0 + b1 + b2 + b3 + b4 + b5 + b6 + white * 0.5362;
+        b6 = white * 0.115926;
+        return clip(pink * 0.2);
+    }
+
+    /**
+     * A leaky integrator of white noise
+     */
+    private double nextBrown() {
+        b0 = (b0 + 0.02 * nextWhite()) / 1.02;
+        return clip(b0 * 3.5);
+    }
+
+    private static double clip(double value) {
+        return value > 1.0 ? 1.0 : value < -1.0 ? -1.0 : value;
+    }
+
+    /**
+     * Write the next frames of noise into the buffer, this never comes to an end
+     */
+    @Override
+    public int read(float[] buffer, int offset, int frames) {
+        final double amplitude = this.amplitude;
+        switch (colour) {
+            case WHITE:
+                for (int i = offset, end = offset + frames; i < end; i++) {
+                    buffer[i] = (float) (amplitude * nextWhite());
+                }
+                break;
+            case PINK:
+                for (int i = offset, end = offset + frames; i < end; i++) {
+                    buffer[i] = (float) (amplitude * nextPink());
+                }
+                break;
+            default:
+                for (int i = offset, end = offset + frames; i < end; i++) {
+                    buffer[i] = (float) (amplitude * nextBrown());
+                }
+        }
+        return frames;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s noise seed %d", colour, seed);
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A phase accumulator driving a {@link WaveGenerator.WaveGen}.
+ * <p>
+ * The phase is held as a fraction of a cycle and advanced by {@code frequency / frameRate} every frame, so
+ * the pitch is exact rather than rounded to a whole number of frames per period, and the phase carries on
+ * from one call to the next however the output is divided up into buffers.
+ * <p>
+ * A {@link WaveGenerator.BandLimitedWaveGen} is given the increment, so that it can avoid aliasing.
+ *
+ * @author jo
+ */
+public class Oscillator {
+
+    private final WaveGenerator.WaveGen waveGen;
+    // what is called for each frame
+    private final WaveGenerator.WaveGen sampler;
+    private final double frequency;
+    private final double increment;
+    private double phase;
+
+    /**
+     * Make an oscillator starting at phase 0
+     *
+     * @param waveGen   the waveform to generate
+     * @param frequency the frequency in Hertz
+     * @param frameRate the number of frames per second of the output
+     */
+    public Oscillator(WaveGenerator.WaveGen waveGen, double frequency, float frameRate) {
+        checkArgument(frequency > 0, "Frequency must be greater than 0");
+        checkArgument(frameRate > 0, "Frame rate must be greater than 0");
+        this.waveGen = waveGen;
+        this.frequency = frequency;
+        this.increment = frequency / frameRate;
+        if (waveGen instanceof WaveGenerator.BandLimitedWaveGen) {
+            WaveGenerator.BandLimitedWaveGen bandLimited = (WaveGenerator.BandLimitedWaveGen) waveGen;
+            this.sampler = position -> bandLimited.getValue(position, increment);
+        } else {
+            this.sampler = waveGen;
+        }
+    }
+
+    public WaveGenerator.WaveGen getWaveGen() {
+        return waveGen;
+    }
+
+    /**
+     * The function of position called for each frame, which takes account of the increment if necessary
+     */
+    WaveGenerator.WaveGen getSampler() {
+        return sampler;
+    }
+
+    public double getFrequency() {
+        return frequency;
+    }
+
+    /**
+     * The amount the phase advances each frame
+     * @return a fraction of a cycle
+     */
+    public double getIncrement() {
+        return increment;
+    }
+
+    /**
+     * The current position in the cycle
+     * @return 0 <= phase < 1
+     */
+    public double getPhase() {
+        return phase;
+    }
+
+    /**
+     * Move to a position in the cycle
+     * @param phase the position, only the fractional part is used
+     */
+    public void setPhase(double phase) {
+        this.phase = phase - Math.floor(phase);
+    }
+
+    /**
+     * Move to the phase the oscillator has a number of frames after starting from phase 0. The phase is
+     * calculated directly, so it is the same however the frames before have been generated.
+     * @param frame the number of frames from the start
+     */
+    public void setFramePosition(long frame) {
+        setPhase(frame * increment);
+    }
+
+    /**
+     * Go back to the start of the cycle
+     */
+    public void reset() {
+        phase = 0.0;
+    }
+
+    /**
+     * Get the value at the current phase and advance by one frame
+     * @return -1 <= value <= +1
+     */
+    public double next() {
+        double value = sampler.getValue(phase);
+        phase += increment;
+        if (phase >= 1.0) {
+            phase -= 1.0;
+        }
+        return value;
+    }
+
+    /**
+     * Overwrite part of a buffer with the next frames of the waveform
+     *
+     * @param buffer    the buffer to write to
+     * @param offset    the first frame to write
+     * @param length    the number of frames to write
+     * @param amplitude scaling applied to each value
+     */
+    public void fill(float[] buffer, int offset, int length, double amplitude) {
+        final WaveGenerator.WaveGen sampler = this.sampler;
+        final double increment = this.increment;
+        double phase = this.phase;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            buffer[i] = (float) (amplitude * sampler.getValue(phase));
+            phase += increment;
+            if (phase >= 1.0) {
+                phase -= 1.0;
+            }
+        }
+        this.phase = phase;
+    }
+
+    /**
+     * Add the next frames of the waveform to what is already in a buffer
+     *
+     * @param buffer    the buffer to add to
+     * @param offset    the first frame to add to
+     * @param length    the number of frames to add to
+     * @param amplitude scaling applied to each value
+     */
+    public void add(float[] buffer, int offset, int length, double amplitude) {
+        final WaveGenerator.WaveGen sampler = this.sampler;
+        final double increment = this.increment;
+        double phase = this.phase;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            buffer[i] += (float) (amplitude * sampler.getValue(phase));
+            phase += increment;
+            if (phase >= 1.0) {
+                phase -= 1.0;
+            }
+        }
+        this.phase = phase;
+    }
+
+    /**
+     * Use this oscillator as a never ending source of samples
+     *
+     * @param amplitude scaling applied to each value
+     * @return a SampleSource sharing the phase of this oscillator
+     */
+    public SampleSource asSource(double amplitude) {
+        return (buffer, offset, frames) -> {
+            fill(buffer, offset, frames, amplitude);
+            return frames;
+        };
+    }
+
+    /**
+     * The number of frames needed to hold the given number of periods at the exact frequency, to the
+     * nearest frame
+     *
+     * @param frequency the frequency in Hertz
+     * @param frameRate the frames per second
+     * @param periods   the number of cycles wanted
+     * @return a number of frames
+     */
+    public static long getFramesForPeriods(double frequency, float frameRate, int periods) {
+        return Math.round(periods * (double) frameRate / frequency);
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import javax.sound.sampled.AudioFormat;
+import java.nio.ByteBuffer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Encodes blocks of samples, -1 <= sample <= +1, into an {@link AudioFormat}, writing straight into an array
+ * or buffer supplied by the caller. The same sample is written to every channel of a frame. Samples out of
+ * range are clipped.
+ * <p>
+ * Handles signed PCM of 8, 16 and 24 bits, unsigned 8 bit PCM and 32 bit float PCM, in either byte order,
+ * and G.711 mu-law and A-law ({@link G711}), mono or stereo.
+ * <p>
+ * An encoder is not thread safe.
+ *
+ * @author jo
+ */
+public class PcmEncoder {
+
+    private enum SampleType {SIGNED_8, UNSIGNED_8, SIGNED_16, SIGNED_24, FLOAT_32, ULAW_8, ALAW_8}
+
+    private static final float MAX_8 = Byte.MAX_VALUE;
+    private static final float MAX_16 = Short.MAX_VALUE;
+    private static final float MAX_24 = (1 << 23) - 1;
+
+    private final AudioFormat format;
+    private final SampleType sampleType;
+    private final int channels;
+    private final int sampleSize;
+    private final int frameSize;
+    private final boolean bigEndian;
+
+    // used to encode blocks for buffers that don't expose an array
+    private byte[] scratch;
+    // used to read from sources
+    private float[] block;
+
+    /**
+     * Make an encoder for a format
+     *
+     * @param format the format to encode to
+     * @throws IllegalArgumentException if the format is not supported
+     */
+    public PcmEncoder(AudioFormat format) {
+        this.sampleType = getSampleType(format);
+        checkArgument(sampleType != null, "Unsupported encoding %s", format);
+        checkArgument(format.getChannels() == 1 || format.getChannels() == 2, "Unsupported number of channels %s", format);
+        this.format = format;
+        this.channels = format.getChannels();
+        this.sampleSize = format.getSampleSizeInBits() / 8;
+        this.frameSize = format.getFrameSize();
+        checkArgument(frameSize == sampleSize * channels, "Unsupported frame size %s", format);
+        this.bigEndian = format.isBigEndian();
+    }
+
+    private static SampleType getSampleType(AudioFormat format) {
+        AudioFormat.Encoding encoding = format.getEncoding();
+        int bits = format.getSampleSizeInBits();
+        if (encoding.equals(AudioFormat.Encoding.PCM_SIGNED)) {
+            switch (bits) {
+                case 8:
+                    return SampleType.SIGNED_8;
+                case 16:
+                    return SampleType.SIGNED_16;
+                case 24:
+                    return SampleType.SIGNED_24;
+                default:
+                    return null;
+            }
+        }
+        if (encoding.equals(AudioFormat.Encoding.PCM_UNSIGNED) && bits == 8) {
+            return SampleType.UNSIGNED_8;
+        }
+        if (encoding.equals(AudioFormat.Encoding.PCM_FLOAT) && bits == 32) {
+            return SampleType.FLOAT_32;
+        }
+        if (encoding.equals(AudioFormat.Encoding.ULAW) && bits == 8) {
+            return SampleType.ULAW_8;
+        }
+        if (encoding.equals(AudioFormat.Encoding.ALAW) && bits == 8) {
+            return SampleType.ALAW_8;
+        }
+        return null;
+    }
+
+    /**
+     * Is the format one that can be encoded
+     *
+     * @param format a format
+     * @return true if a PcmEncoder can be made for it
+     */
+    public static boolean isSupported(AudioFormat format) {
+        return getSampleType(format) != null && (format.getChannels() == 1 || format.getChannels() == 2)
+                && format.getFrameSize() == format.getChannels() * format.getSampleSizeInBits() / 8;
+    }
+
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * The number of bytes each frame encodes to
+     * @return bytes per frame
+     */
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    private static float clip(float sample) {
+        if (sample > 1.0F) {
+            return 1.0F;
+        }
+        if (sample < -1.0F) {
+            return -1.0F;
+        }
+        return sample;
+    }
+
+    private static int scale(float sample, float max) {
+        return (int) (sample * max + (sample >= 0 ? 0.5F : -0.5F));
+    }
+
+    /**
+     * Convert a sample to a 16 bit value, clipping anything out of range
+     */
+    static int toShort(float sample) {
+        return scale(clip(sample), MAX_16);
+    }
+
+    /**
+     * Write one sample in the first channel of a frame
+     */
+    private void writeSample(float sample, byte[] dest, int d) {
+        sample = clip(sample);
+        int value;
+        switch (sampleType) {
+            case SIGNED_8:
+                dest[d] = (byte) scale(sample, MAX_8);
+                return;
+            case UNSIGNED_8:
+                dest[d] = (byte) (scale(sample, MAX_8) + 128);
+                return;
+            case ULAW_8:
+                dest[d] = G711.encodeULaw(scale(sample, MAX_16));
+                return;
+            case ALAW_8:
+                dest[d] = G711.encodeALaw(scale(sample, MAX_16));
+                return;
+            case SIGNED_16:
+                value = scale(sample, MAX_16);
+                break;
+            case SIGNED_24:
+                value = scale(sample, MAX_24);
+                break;
+            default:
+                value = Float.floatToRawIntBits(sample);
+        }
+        if (bigEndian) {
+            for (int b = sampleSize - 1; b >= 0; b--, value >>= 8) {
+                dest[d + b] = (byte) value;
+            }
+        } else {
+            for (int b = 0; b < sampleSize; b++, value >>= 8) {
+                dest[d + b] = (byte) value;
+            }
+        }
+    }
+
+    /**
+     * Encode frames into a byte array
+     *
+     * @param samples    the samples to encode, one per frame
+     * @param offset     the first sample
+     * @param frames     the number of samples
+     * @param dest       the array to write to
+     * @param destOffset the first byte to write
+     * @return the number of bytes written
+     */
+    public int encode(float[] samples, int offset, int frames, byte[] dest, int destOffset) {
+        int bytes = frames * frameSize;
+        checkArgument(destOffset + bytes <= dest.length, "Destination too small");
+        if (sampleType == SampleType.SIGNED_16) {
+            encode16(samples, offset, frames, dest, destOffset);
+            return bytes;
+        }
+        int d = destOffset;
+        for (int i = offset, end = offset + frames; i < end; i++, d += frameSize) {
+            writeSample(samples[i], dest, d);
+            for (int b = sampleSize; b < frameSize; b++) {
+                dest[d + b] = dest[d + b - sampleSize];
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * The commonest case gets a loop of its own
+     */
+    private void encode16(float[] samples, int offset, int frames, byte[] dest, int destOffset) {
+        int hi = bigEndian ? 0 : 1;
+        int lo = bigEndian ? 1 : 0;
+        int d = destOffset;
+        for (int i = offset, end = offset + frames; i < end; i++) {
+            int value = toShort(samples[i]);
+            byte hiByte = (byte) (value >> 8);
+            byte loByte = (byte) value;
+            for (int c = 0; c < channels; c++, d += 2) {
+                dest[d + hi] = hiByte;
+                dest[d + lo] = loByte;
+            }
+        }
+    }
+
+    /**
+     * Encode frames that are already 16 bit values into a byte array, clipping anything out of range
+     *
+     * @param samples    the samples to encode, one per frame
+     * @param offset     the first sample
+     * @param frames     the number of samples
+     * @param dest       the array to write to
+     * @param destOffset the first byte to write
+     * @return the number of bytes written
+     * @throws IllegalStateException if the format is not 16 bit
+     */
+    public int encode(int[] samples, int offset, int frames, byte[] dest, int destOffset) {
+        checkState(sampleType == SampleType.SIGNED_16, "Format is not 16 bit %s", format);
+        int bytes = frames * frameSize;
+        checkArgument(destOffset + bytes <= dest.length, "Destination too small");
+        int hi = bigEndian ? 0 : 1;
+        int lo = bigEndian ? 1 : 0;
+        int d = destOffset;
+        for (int i = offset, end = offset + frames; i < end; i++) {
+            int value = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, samples[i]));
+            byte hiByte = (byte) (value >> 8);
+            byte loByte = (byte) value;
+            for (int c = 0; c < channels; c++, d += 2) {
+                dest[d + hi] = hiByte;
+                dest[d + lo] = loByte;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Encode frames into an array of 16 bit values, one per channel per frame (byte order is not applicable)
+     *
+     * @param samples    the samples to encode, one per frame
+     * @param offset     the first sample
+     * @param frames     the number of samples
+     * @param dest       the array to write to
+     * @param destOffset the first element to write
+     * @return the number of elements written
+     * @throws IllegalStateException if the format is not 16 bit
+     */
+    public int encode(float[] samples, int offset, int frames, short[] dest, int destOffset) {
+        checkState(sampleType == SampleType.SIGNED_16, "Format is not 16 bit %s", format);
+        int count = frames * channels;
+        checkArgument(destOffset + count <= dest.length, "Destination too small");
+        int d = destOffset;
+        for (int i = offset, end = offset + frames; i < end; i++) {
+            short value = (short) toShort(samples[i]);
+            for (int c = 0; c < channels; c++) {
+                dest[d++] = value;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Encode frames into a buffer at its position, which is advanced past the frames written. The byte order
+     * is that of the format, the buffer's own order is ignored. A buffer with an array is written through the
+     * array. Anything else, e.g. a direct or mapped buffer, is written a block at a time from a small array
+     * kept by the encoder, which is quicker than writing it a value at a time.
+     *
+     * @param samples the samples to encode, one per frame
+     * @param offset  the first sample
+     * @param frames  the number of samples
+     * @param dest    the buffer to write to
+     * @return the number of bytes written
+     */
+    public int encode(float[] samples, int offset, int frames, ByteBuffer dest) {
+        int bytes = frames * frameSize;
+        checkArgument(bytes <= dest.remaining(), "Destination too small");
+        if (dest.hasArray()) {
+            encode(samples, offset, frames, dest.array(), dest.arrayOffset() + dest.position());
+            dest.position(dest.position() + bytes);
+            return bytes;
+        }
+        if (scratch == null) {
+            scratch = new byte[AudioEncoder.BLOCK_SIZE_IN_FRAMES * frameSize];
+        }
+        int blockFrames = scratch.length / frameSize;
+        for (int done = 0; done < frames; done += blockFrames) {
+            int length = Math.min(blockFrames, frames - done);
+            int written = encode(samples, offset + done, length, scratch, 0);
+            dest.put(scratch, 0, written);
+        }
+        return bytes;
+    }
+
+    /**
+     * Fill a buffer, from its position up to its limit, with as many whole frames as fit, read from a source.
+     * The position is advanced past the frames written.
+     *
+     * @param source where to get the samples
+     * @param dest   the buffer to write to
+     * @return the number of frames written, less than fit in the buffer only if the source came to an end
+     */
+    public int encode(SampleSource source, ByteBuffer dest) {
+        if (block == null) {
+            block = new float[AudioEncoder.BLOCK_SIZE_IN_FRAMES];
+        }
+        int wanted = dest.remaining() / frameSize;
+        int done = 0;
+        while (done < wanted) {
+            int read = source.read(block, 0, Math.min(block.length, wanted - done));
+            if (read <= 0) {
+                break;
+            }
+            encode(block, 0, read, dest);
+            done += read;
+        }
+        return done;
+    }
+}
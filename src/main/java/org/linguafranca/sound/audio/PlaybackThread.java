@@ -22,23 +22,61 @@ import org.linguafranca.sound.player.QueueItem;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.sound.sampled.AudioFormat;
 import java.util.ArrayList;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 public class PlaybackThread extends Thread {
 
     private static final Logger logger = LoggerFactory.getLogger(PlaybackThread.class);
 
-    private final CadenceSectionPlayback sectionPlayback = new CadenceSectionPlayback();
+    private final CadenceSectionPlayback sectionPlayback;
 
     private volatile Boolean stopThreadRequested;
 
     private final ArrayBlockingQueue<QueueItem<CadenceSection>> playbackQueueItems;
 
+    // renders the sounds of queued items while earlier ones play, or null if that isn't wanted
+    private final ExecutorService lookahead;
+
     public PlaybackThread() {
+        this(AudioEncoder.DEFAULT_AUDIO_FORMAT);
+    }
+
+    /**
+     * @param format the format to play back in
+     */
+    public PlaybackThread(AudioFormat format) {
+        this(format, CadenceSectionPlayback.Scheduling.SLEEP);
+    }
+
+    /**
+     * @param format the format to play back in
+     * @param scheduling how the waits between segments are timed
+     */
+    public PlaybackThread(AudioFormat format, CadenceSectionPlayback.Scheduling scheduling) {
+        this(format, scheduling, true);
+    }
+
+    /**
+     * @param format the format to play back in
+     * @param scheduling how the waits between segments are timed
+     * @param lookahead true to render the sounds of each item in the background as it is queued, so they are
+     *                  ready by the time it is played
+     */
+    public PlaybackThread(AudioFormat format, CadenceSectionPlayback.Scheduling scheduling, boolean lookahead) {
         super("Player Thread");
+        sectionPlayback = new CadenceSectionPlayback(format, Envelope.getDefault(format.getFrameRate()), null, scheduling);
         stopThreadRequested = false;
         playbackQueueItems = new ArrayBlockingQueue<>(16);
+        this.lookahead = lookahead ? Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Lookahead Thread");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
     }
 
     /**
@@ -63,6 +101,22 @@ public class PlaybackThread extends Thread {
         return !this.isAlive();
     }
 
+    /**
+     * How late the boundaries of the last section played were
+     * @return the drift, or null if nothing has been played
+     */
+    public CadenceSectionPlayback.Drift getLastDrift() {
+        return sectionPlayback.getLastDrift();
+    }
+
+    /**
+     * How well the pool of open Clips is working, to help choose its size
+     * @return a snapshot
+     */
+    public ClipPool.Stats getClipPoolStats() {
+        return sectionPlayback.getClipPool().getStats();
+    }
+
     /**
      * Stop the cadence currently being played.
      */
@@ -79,8 +133,36 @@ public class PlaybackThread extends Thread {
     public boolean queue(QueueItem<CadenceSection> queueItem) {
         // don't queue if we are shutting down
         if (stopThreadRequested) return false;
+        queueItem.setEnqueued();
         // if the queue was full then we didn't do it
-        return playbackQueueItems.offer(queueItem);
+        if (!playbackQueueItems.offer(queueItem)) {
+            return false;
+        }
+        if (lookahead != null) {
+            try {
+                lookahead.execute(() -> prepare(queueItem));
+            } catch (RejectedExecutionException e) {
+                logger.trace("Not looking ahead, stopping");
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Render the sounds of an item, unless it has been taken off the queue already
+     */
+    private void prepare(QueueItem<CadenceSection> queueItem) {
+        if (stopThreadRequested || queueItem.isAbandoned() || queueItem.isFinished()) {
+            return;
+        }
+        try {
+            long started = System.nanoTime();
+            sectionPlayback.prepare(queueItem.getItem());
+            logger.trace("Prepared {} in {} us", queueItem.getItem(), (System.nanoTime() - started) / 1000);
+        } catch (RuntimeException e) {
+            // it will be tried again when it is played
+            logger.warn("Could not prepare {}", queueItem.getItem(), e);
+        }
     }
 
 
@@ -132,8 +214,10 @@ public class PlaybackThread extends Thread {
                 if (nextQueueItem == null) break;
 
                 nextQueueItem.setStarted();
-                if (sectionPlayback.play(nextQueueItem.getItem())) {
+                if (sectionPlayback.play(nextQueueItem.getItem(), nextQueueItem::setFirstSound)) {
                     logger.trace("Finished candidate {}", nextQueueItem.getItem());
+                    logger.debug("First sound of {} was {} us after it was queued", nextQueueItem.getItem(),
+                            nextQueueItem.getFirstSoundLatencyNanos() / 1000);
                     nextQueueItem.setFinished();
                 } else {
                     logger.trace("Abandoned candidate {}", nextQueueItem.getItem());
@@ -144,6 +228,10 @@ public class PlaybackThread extends Thread {
             logger.info("Player thread exit");
             // anyone waiting on cadences yet to be played gets notified that this isn't going to happen
             this.drainQueue();
+            if (lookahead != null) {
+                lookahead.shutdownNow();
+            }
+            sectionPlayback.close();
         }
         if (!stopThreadRequested) {
             logger.error("Thread stopping without being asked");
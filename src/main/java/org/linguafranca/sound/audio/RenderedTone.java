@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import javax.annotation.concurrent.Immutable;
+import javax.sound.sampled.AudioFormat;
+import java.nio.ByteBuffer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * The encoded data of the sound for a {@link ToneKey}, ready to be opened as a Clip by
+ * {@link EncodedTone#open(RenderedTone)}.
+ * <p>
+ * The data is part of an array which may hold other things too, so that sounds stored together need not be
+ * copied out of it to be handed around. A Clip opened on it takes its own copy. It must not be changed.
+ *
+ * @author jo
+ */
+@Immutable
+public class RenderedTone {
+
+    private final ToneKey key;
+    private final AudioFormat format;
+    private final byte[] data;
+    private final int offset;
+    private final int length;
+    private final int loopStart;
+
+    /**
+     * Wrap some rendered data
+     *
+     * @param key       the tones and duration
+     * @param format    the format of the data
+     * @param data      an array holding the data
+     * @param offset    the first byte of the data in the array
+     * @param length    the number of bytes of data, a whole number of frames
+     * @param loopStart the frame a loop goes back to, or -1 if the sound is played once
+     */
+    public RenderedTone(ToneKey key, AudioFormat format, byte[] data, int offset, int length, int loopStart) {
+        checkArgument(offset >= 0 && length >= 0 && offset + length <= data.length, "Data is outside the array");
+        checkArgument(length % format.getFrameSize() == 0, "Data is not a whole number of frames");
+        this.key = key;
+        this.format = format;
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+        this.loopStart = loopStart;
+    }
+
+    /**
+     * Render the sound for a key, exactly its duration with attack and release, or if it is
+     * {@link ToneKey#LOOPED} an attack followed by a loop
+     *
+     * @param key      the tones and duration
+     * @param format   the format to encode to
+     * @param envelope the attack and release, for the frame rate of the format
+     * @param planner  chooses the length of a loop
+     * @return the rendered data
+     */
+    public static RenderedTone render(ToneKey key, AudioFormat format, Envelope envelope, LoopPlanner planner) {
+        if (key.isLooped()) {
+            byte[] data = AudioEncoder.renderLoop(format, key.getTones(), planner, envelope, AudioEncoder.Synthesis.FLOAT);
+            return new RenderedTone(key, format, data, 0, data.length, envelope.getAttackFrames());
+        }
+        byte[] data = AudioEncoder.renderSegment(format, key.getTones(), key.getDurationMillis(), envelope,
+                AudioEncoder.Synthesis.FLOAT);
+        return new RenderedTone(key, format, data, 0, data.length, -1);
+    }
+
+    public ToneKey getKey() {
+        return key;
+    }
+
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * The array holding the data, which must not be changed
+     * @return the array
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * The data as a read only buffer, without copying it, e.g. to write to a channel
+     * @return a buffer positioned at the start of the data, with its limit at the end
+     */
+    public ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(data, offset, length).slice().asReadOnlyBuffer();
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public int getFrameLength() {
+        return length / format.getFrameSize();
+    }
+
+    /**
+     * The frame a loop goes back to
+     * @return a frame, or -1 if the sound is played once
+     */
+    public int getLoopStart() {
+        return loopStart;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %d frames", key, getFrameLength());
+    }
+}
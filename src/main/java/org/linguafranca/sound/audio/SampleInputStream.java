@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * An AudioInputStream that generates its samples as they are read, a block at a time, from a {@link SampleSource}.
+ * <p>
+ * Memory use does not depend on the length of the stream, which may be unbounded
+ * ({@link AudioSystem#NOT_SPECIFIED}), in which case it ends only if the source does.
+ *
+ * @author jo
+ */
+public class SampleInputStream extends AudioInputStream {
+
+    private final SampleSource source;
+    private final PcmEncoder encoder;
+    private final float[] block = new float[AudioEncoder.BLOCK_SIZE_IN_FRAMES];
+    private boolean sourceEnded = false;
+
+    /**
+     * Make a stream
+     *
+     * @param source         where the samples come from
+     * @param format         the format to encode them to
+     * @param lengthInFrames the length of the stream or {@link AudioSystem#NOT_SPECIFIED} for as long as the
+     *                       source goes on
+     */
+    public SampleInputStream(SampleSource source, AudioFormat format, long lengthInFrames) {
+        super(new ByteArrayInputStream(new byte[0]), format, lengthInFrames);
+        this.source = source;
+        this.encoder = new PcmEncoder(format);
+    }
+
+    private long getFramesRemaining() {
+        if (sourceEnded) {
+            return 0;
+        }
+        return frameLength == AudioSystem.NOT_SPECIFIED ? Long.MAX_VALUE : frameLength - framePos;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (frameSize != 1) {
+            throw new IOException("cannot read a single byte if frame size > 1");
+        }
+        byte[] data = new byte[1];
+        return read(data, 0, 1) == -1 ? -1 : data[0] & 0xFF;
+    }
+
+    /**
+     * Generate as many whole frames as fit in the space given
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int wanted = (int) Math.min(len / frameSize, getFramesRemaining());
+        if (wanted == 0) {
+            return getFramesRemaining() == 0 ? -1 : 0;
+        }
+        int bytes = 0;
+        while (wanted > 0) {
+            int requested = Math.min(block.length, wanted);
+            int frames = Math.max(0, source.read(block, 0, requested));
+            bytes += encoder.encode(block, 0, frames, b, off + bytes);
+            framePos += frames;
+            wanted -= frames;
+            if (frames < requested) {
+                sourceEnded = true;
+                break;
+            }
+        }
+        return bytes == 0 ? -1 : bytes;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] discard = new byte[block.length * frameSize];
+        long skipped = 0;
+        while (skipped < n - n % frameSize) {
+            int read = read(discard, 0, (int) Math.min(discard.length, n - skipped));
+            if (read <= 0) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(getFramesRemaining(), block.length) * frameSize;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readlimit) {
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    @Override
+    public void close() {
+    }
+}
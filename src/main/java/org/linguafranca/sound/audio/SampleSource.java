@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+/**
+ * Something that produces a stream of samples, one per frame, on demand
+ *
+ * @author jo
+ */
+@FunctionalInterface
+public interface SampleSource {
+    /**
+     * Write the next frames into a buffer
+     *
+     * @param buffer the buffer to write to
+     * @param offset the first frame to write
+     * @param frames the number of frames wanted
+     * @return the number of frames written, which is fewer than wanted only if the source has come to an end
+     */
+    int read(float[] buffer, int offset, int frames);
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evicts as W-TinyLFU does, see {@link EvictionPolicy#windowTinyLfu()}.
+ * <p>
+ * Entries start in an LRU window of 1% of the weight. Leaving it they go to the probation part of the main
+ * cache if there is room, or if they have been asked for more often than the least recently used entry in
+ * probation, which is evicted instead; otherwise they are evicted themselves. An entry found again while in
+ * probation moves to the protected part, which is up to 80% of the main cache, and the least recently used
+ * of which go back to probation when it is full. How often keys have been asked for is estimated by a
+ * count-min sketch whose counts are halved from time to time, so that old popularity fades.
+ *
+ * @author jo
+ */
+class TinyLfuPolicy<K> implements EvictionPolicy<K> {
+
+    private static final double WINDOW_FRACTION = 0.01;
+    private static final double PROTECTED_FRACTION = 0.8;
+
+    /**
+     * An estimate of how often each key has been asked for recently, counting up to 15
+     */
+    static class FrequencySketch {
+        private static final int ROWS = 4;
+        private static final int[] SEEDS = {0x97CB3127, 0xB0B5A1A9, 0x7B9C1F15, 0x5F356495};
+        private static final int MAX_COUNT = 15;
+
+        private final byte[][] counts;
+        private final int mask;
+        // increments before the counts are halved
+        private final int sampleSize;
+        private int additions = 0;
+
+        /**
+         * @param width the counters in each row, a power of 2
+         */
+        FrequencySketch(int width) {
+            this.counts = new byte[ROWS][width];
+            this.mask = width - 1;
+            this.sampleSize = 10 * width;
+        }
+
+        private int index(Object key, int row) {
+            int hash = key.hashCode() * SEEDS[row];
+            hash ^= hash >>> 17;
+            hash *= 0xED5AD4BB;
+            hash ^= hash >>> 11;
+            return hash & mask;
+        }
+
+        void increment(Object key) {
+            for (int row = 0; row < ROWS; row++) {
+                int i = index(key, row);
+                if (counts[row][i] < MAX_COUNT) {
+                    counts[row][i]++;
+                }
+            }
+            if (++additions >= sampleSize) {
+                for (byte[] row : counts) {
+                    for (int i = 0; i < row.length; i++) {
+                        row[i] >>>= 1;
+                    }
+                }
+                additions /= 2;
+            }
+        }
+
+        int frequency(Object key) {
+            int frequency = MAX_COUNT;
+            for (int row = 0; row < ROWS; row++) {
+                frequency = Math.min(frequency, counts[row][index(key, row)]);
+            }
+            return frequency;
+        }
+    }
+
+    // each in order of use, least recent first
+    private final LinkedHashMap<K, Long> window = new LinkedHashMap<>(16, 0.75F, true);
+    private final LinkedHashMap<K, Long> probation = new LinkedHashMap<>(16, 0.75F, true);
+    private final LinkedHashMap<K, Long> protectedPart = new LinkedHashMap<>(16, 0.75F, true);
+    private long windowWeight = 0;
+    private long probationWeight = 0;
+    private long protectedWeight = 0;
+    // as given by the last call to add
+    private long maxWeight = Long.MAX_VALUE;
+    private final FrequencySketch sketch = new FrequencySketch(1 << 12);
+
+    @Override
+    public void onHit(K key) {
+        sketch.increment(key);
+        if (window.get(key) != null || protectedPart.get(key) != null) {
+            return;
+        }
+        Long weight = probation.remove(key);
+        if (weight != null) {
+            probationWeight -= weight;
+            protectedPart.put(key, weight);
+            protectedWeight += weight;
+            // the least recently used of the protected go back to probation
+            long maxProtected = (long) ((maxWeight - getWindowMax(maxWeight)) * PROTECTED_FRACTION);
+            while (protectedWeight > maxProtected && protectedPart.size() > 1) {
+                Map.Entry<K, Long> eldest = protectedPart.entrySet().iterator().next();
+                protectedPart.remove(eldest.getKey());
+                protectedWeight -= eldest.getValue();
+                probation.put(eldest.getKey(), eldest.getValue());
+                probationWeight += eldest.getValue();
+            }
+        }
+    }
+
+    @Override
+    public void onMiss(K key) {
+        sketch.increment(key);
+    }
+
+    private static long getWindowMax(long maxWeight) {
+        return Math.max(1, (long) (maxWeight * WINDOW_FRACTION));
+    }
+
+    @Override
+    public List<K> add(K key, long weight, long maxWeight) {
+        this.maxWeight = maxWeight;
+        List<K> evicted = new ArrayList<>();
+        if (weight > maxWeight) {
+            evicted.add(key);
+            return evicted;
+        }
+        window.put(key, weight);
+        windowWeight += weight;
+        long windowMax = getWindowMax(maxWeight);
+        while (windowWeight > windowMax) {
+            Map.Entry<K, Long> candidate = window.entrySet().iterator().next();
+            window.remove(candidate.getKey());
+            windowWeight -= candidate.getValue();
+            admit(candidate.getKey(), candidate.getValue(), maxWeight - windowMax, evicted);
+        }
+        return evicted;
+    }
+
+    /**
+     * Move an entry leaving the window into probation, if it is wanted more often than what it would replace
+     */
+    private void admit(K candidate, long weight, long mainMax, List<K> evicted) {
+        while (probationWeight + protectedWeight + weight > mainMax) {
+            LinkedHashMap<K, Long> from = probation.isEmpty() ? protectedPart : probation;
+            if (from.isEmpty() || weight > mainMax) {
+                evicted.add(candidate);
+                return;
+            }
+            Map.Entry<K, Long> victim = from.entrySet().iterator().next();
+            if (sketch.frequency(candidate) <= sketch.frequency(victim.getKey())) {
+                evicted.add(candidate);
+                return;
+            }
+            from.remove(victim.getKey());
+            if (from == probation) {
+                probationWeight -= victim.getValue();
+            } else {
+                protectedWeight -= victim.getValue();
+            }
+            evicted.add(victim.getKey());
+        }
+        probation.put(candidate, weight);
+        probationWeight += weight;
+    }
+
+    @Override
+    public void remove(K key) {
+        Long weight;
+        if ((weight = window.remove(key)) != null) {
+            windowWeight -= weight;
+        } else if ((weight = probation.remove(key)) != null) {
+            probationWeight -= weight;
+        } else if ((weight = protectedPart.remove(key)) != null) {
+            protectedWeight -= weight;
+        }
+    }
+}
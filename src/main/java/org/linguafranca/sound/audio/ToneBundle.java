@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import org.linguafranca.sound.cadence.CadenceSection;
+import org.linguafranca.sound.cadence.CadenceSegment;
+import org.linguafranca.sound.cadence.Cadences;
+import org.linguafranca.sound.cadence.DTMF;
+import org.linguafranca.sound.cadence.ToneScriptParser;
+import org.linguafranca.sound.tone.Tone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.Immutable;
+import javax.sound.sampled.AudioFormat;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A set of tones rendered ahead of time, so that playing them for the first time is a lookup rather
+ * than a synthesis.
+ * <p>
+ * The {@link #getDefault() default} bundle is made by the build, by running {@link #main(String[])}, and holds
+ * the sounds of every segment of {@link Cadences#CALL_PROGRESS} and of each {@link DTMF.Digit}, as
+ * {@link CadenceSectionPlayback} plays them by default, i.e. in {@link AudioEncoder#DEFAULT_AUDIO_FORMAT} with the
+ * {@link Envelope#getDefault default} envelope and {@link LoopPlanner#DEFAULT}. It is loaded from the jar the
+ * first time it is wanted.
+ * <p>
+ * A bundle is an index followed by the data of all its sounds, which is read in one go into a single
+ * array that the sounds share, so no sound is rendered or copied out of it to find it. Opening a Clip on a
+ * sound still copies its data into the Clip's own buffer.
+ *
+ * @author jo
+ */
+@Immutable
+public class ToneBundle {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ToneBundle.class);
+
+    /**
+     * The name of the default bundle, as a resource alongside this class
+     */
+    public static final String RESOURCE_NAME = "tones.bundle";
+
+    // "TONB"
+    private static final int MAGIC = 0x544F4E42;
+    private static final int BUNDLE_VERSION = 1;
+
+    private static final AudioFormat.Encoding[] ENCODINGS = {AudioFormat.Encoding.PCM_SIGNED,
+            AudioFormat.Encoding.PCM_UNSIGNED, AudioFormat.Encoding.PCM_FLOAT, AudioFormat.Encoding.ULAW,
+            AudioFormat.Encoding.ALAW};
+
+    private static final ToneBundle EMPTY = new ToneBundle(null, null, 0, 0, null, Collections.emptyMap());
+
+    private static class DefaultHolder {
+        private static final ToneBundle INSTANCE = loadDefault();
+    }
+
+    private final AudioFormat format;
+    // an envelope is made from millis, so what it was made from can't be recreated exactly
+    private final Envelope.Shape shape;
+    private final int attackFrames;
+    private final int releaseFrames;
+    private final LoopPlanner planner;
+    private final Map<ToneKey, RenderedTone> tones;
+
+    private ToneBundle(AudioFormat format, Envelope.Shape shape, int attackFrames, int releaseFrames,
+                       LoopPlanner planner, Map<ToneKey, RenderedTone> tones) {
+        this.format = format;
+        this.shape = shape;
+        this.attackFrames = attackFrames;
+        this.releaseFrames = releaseFrames;
+        this.planner = planner;
+        this.tones = tones;
+    }
+
+    /**
+     * The bundle packaged with the library, or an empty one if there isn't one
+     * @return a bundle
+     */
+    public static ToneBundle getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    private static ToneBundle loadDefault() {
+        long started = System.nanoTime();
+        InputStream resource = ToneBundle.class.getResourceAsStream(RESOURCE_NAME);
+        if (resource == null) {
+            LOGGER.debug("No tone bundle found");
+            return EMPTY;
+        }
+        try (InputStream in = new BufferedInputStream(resource)) {
+            ToneBundle bundle = read(in);
+            LOGGER.debug("Loaded {} tones in {} ms", bundle.size(), (System.nanoTime() - started) / 1000000);
+            return bundle;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Tone bundle could not be read, tones will be rendered as needed", e);
+            return EMPTY;
+        }
+    }
+
+    /**
+     * Find a rendered tone
+     *
+     * @param key      the tones and duration
+     * @param format   the format wanted
+     * @param envelope the envelope wanted
+     * @param planner  the planner wanted
+     * @return the tone if it is in the bundle rendered in the way wanted, otherwise null
+     */
+    public RenderedTone find(ToneKey key, AudioFormat format, Envelope envelope, LoopPlanner planner) {
+        if (this.format == null || !isSameFormat(this.format, format) || envelope.getShape() != shape
+                || envelope.getAttackFrames() != attackFrames || envelope.getReleaseFrames() != releaseFrames
+                || !this.planner.equals(planner)) {
+            return null;
+        }
+        return tones.get(key);
+    }
+
+    /**
+     * The number of tones in the bundle
+     * @return a count
+     */
+    public int size() {
+        return tones.size();
+    }
+
+    /**
+     * AudioFormat does not have equals
+     */
+    private static boolean isSameFormat(AudioFormat a, AudioFormat b) {
+        return a.getEncoding().equals(b.getEncoding()) && a.getSampleRate() == b.getSampleRate()
+                && a.getSampleSizeInBits() == b.getSampleSizeInBits() && a.getChannels() == b.getChannels()
+                && a.getFrameSize() == b.getFrameSize() && a.getFrameRate() == b.getFrameRate()
+                && (a.isBigEndian() == b.isBigEndian() || a.getSampleSizeInBits() <= 8);
+    }
+
+    /**
+     * The keys of the sounds of every segment of {@link Cadences#CALL_PROGRESS} and of each {@link DTMF.Digit}
+     *
+     * @param format  the format they are to be rendered in
+     * @param planner limits the length of sounds that are not looped
+     * @return the keys, without duplicates, always in the same order
+     */
+    public static Set<ToneKey> getStandardKeys(AudioFormat format, LoopPlanner planner) {
+        List<CadenceSection> sections = new ArrayList<>();
+        for (String script : new TreeMap<>(Cadences.CALL_PROGRESS).values()) {
+            sections.addAll(ToneScriptParser.parseToneScript(script).getCadences());
+        }
+        for (DTMF.Digit digit : DTMF.Digit.values()) {
+            sections.add(digit.getCadences());
+        }
+        Set<ToneKey> keys = new LinkedHashSet<>();
+        for (CadenceSection section : sections) {
+            for (CadenceSegment segment : section) {
+                if (!segment.getTones().isEmpty() && segment.getOnDuration() != 0) {
+                    keys.add(ToneKey.forSegment(segment, format, planner));
+                }
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Render tones and write them as a bundle
+     *
+     * @param out      where to write the bundle
+     * @param keys     the tones to render
+     * @param format   the format to render them in
+     * @param envelope the attack and release, for the frame rate of the format
+     * @param planner  chooses the length of loops
+     * @throws IOException if the bundle can't be written
+     */
+    public static void write(OutputStream out, Collection<ToneKey> keys, AudioFormat format, Envelope envelope,
+                             LoopPlanner planner) throws IOException {
+        List<RenderedTone> rendered = new ArrayList<>();
+        for (ToneKey key : keys) {
+            rendered.add(RenderedTone.render(key, format, envelope, planner));
+        }
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(BUNDLE_VERSION);
+        data.writeInt(AudioEncoder.RENDERER_VERSION);
+
+        data.writeUTF(format.getEncoding().toString());
+        data.writeFloat(format.getSampleRate());
+        data.writeInt(format.getSampleSizeInBits());
+        data.writeInt(format.getChannels());
+        data.writeInt(format.getFrameSize());
+        data.writeFloat(format.getFrameRate());
+        data.writeBoolean(format.isBigEndian());
+
+        data.writeUTF(envelope.getShape().name());
+        data.writeInt(envelope.getAttackFrames());
+        data.writeInt(envelope.getReleaseFrames());
+
+        data.writeLong(planner.getMaxBytes());
+        data.writeDouble(planner.getTolerance());
+        data.writeInt(planner.getMinMillis());
+
+        data.writeInt(rendered.size());
+        int offset = 0;
+        for (RenderedTone tone : rendered) {
+            List<Tone> tones = tone.getKey().getTones();
+            data.writeInt(tones.size());
+            for (Tone t : tones) {
+                data.writeDouble(t.getFrequency());
+                data.writeDouble(t.getAmplitude());
+                data.writeDouble(t.getModulationFrequency());
+            }
+            data.writeInt(tone.getKey().getDurationMillis());
+            data.writeInt(tone.getLoopStart());
+            data.writeInt(offset);
+            data.writeInt(tone.getLength());
+            offset += tone.getLength();
+        }
+        data.writeInt(offset);
+        for (RenderedTone tone : rendered) {
+            data.write(tone.getData(), tone.getOffset(), tone.getLength());
+        }
+        data.flush();
+    }
+
+    /**
+     * Read a bundle
+     *
+     * @param in the bundle, which is read to its end
+     * @return the bundle, which is empty if it was made by a different version of the renderer
+     * @throws IOException if the bundle can't be read or is not a bundle
+     */
+    public static ToneBundle read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC || data.readInt() != BUNDLE_VERSION) {
+            throw new IOException("Not a tone bundle");
+        }
+        if (data.readInt() != AudioEncoder.RENDERER_VERSION) {
+            LOGGER.info("Tone bundle is from a different version of the renderer, it is not used");
+            return EMPTY;
+        }
+
+        String encodingName = data.readUTF();
+        AudioFormat.Encoding encoding = new AudioFormat.Encoding(encodingName);
+        for (AudioFormat.Encoding known : ENCODINGS) {
+            if (known.toString().equals(encodingName)) {
+                encoding = known;
+            }
+        }
+        AudioFormat format = new AudioFormat(encoding, data.readFloat(), data.readInt(), data.readInt(),
+                data.readInt(), data.readFloat(), data.readBoolean());
+
+        Envelope.Shape shape = Envelope.Shape.valueOf(data.readUTF());
+        int attackFrames = data.readInt();
+        int releaseFrames = data.readInt();
+        LoopPlanner planner = new LoopPlanner(data.readLong(), data.readDouble(), data.readInt());
+
+        int count = data.readInt();
+        List<ToneKey> keys = new ArrayList<>(count);
+        int[][] entries = new int[count][];
+        for (int i = 0; i < count; i++) {
+            int toneCount = data.readInt();
+            Tone.List tones = new Tone.List();
+            for (int t = 0; t < toneCount; t++) {
+                tones.add(Tone.makeToneFA(data.readDouble(), data.readDouble(), data.readDouble()));
+            }
+            keys.add(new ToneKey(tones, data.readInt()));
+            entries[i] = new int[]{data.readInt(), data.readInt(), data.readInt()};
+        }
+        byte[] all = new byte[data.readInt()];
+        data.readFully(all);
+
+        Map<ToneKey, RenderedTone> tones = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            int[] entry = entries[i];
+            tones.put(keys.get(i), new RenderedTone(keys.get(i), format, all, entry[1], entry[2], entry[0]));
+        }
+        return new ToneBundle(format, shape, attackFrames, releaseFrames, planner, Collections.unmodifiableMap(tones));
+    }
+
+    /**
+     * Write the default bundle, run by the build
+     *
+     * @param args the file to write
+     * @throws IOException if it can't be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: ToneBundle <output file>");
+            System.exit(1);
+        }
+        AudioFormat format = AudioEncoder.DEFAULT_AUDIO_FORMAT;
+        Set<ToneKey> keys = getStandardKeys(format, LoopPlanner.DEFAULT);
+        Path path = Paths.get(args[0]);
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path))) {
+            write(out, keys, format, Envelope.getDefault(format.getFrameRate()), LoopPlanner.DEFAULT);
+        }
+        LOGGER.info("Wrote {} tones to {}, {} bytes", keys.size(), path, Files.size(path));
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import com.google.common.hash.Hashing;
+import org.linguafranca.sound.tone.Tone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A directory of rendered tones that lasts from one run to the next, so that tones are rendered once rather
+ * than every time the program starts.
+ * <p>
+ * Each tone is a file whose name is a hash of everything that decides its samples: the tones and duration,
+ * the waveform, the format, the envelope, the loop planner and {@link AudioEncoder#RENDERER_VERSION}. The file
+ * repeats that description, to guard against hash collisions, and has a CRC of its data. A file which is
+ * truncated, fails its CRC or is for something else is deleted and the tone rendered again.
+ * <p>
+ * A file is read in one go into an array which the tone then uses in place, so its data is copied once. Files
+ * are not mapped, since a mapping lasts until it is garbage collected and would stop a damaged file, or one
+ * being evicted, from being deleted on Windows. Reading a file marks it as recently used, and when the files
+ * come to more than the size limit the least recently used are deleted. Files are written to a temporary name
+ * and moved into place, so several threads, or processes, can share a directory.
+ *
+ * @author jo
+ */
+@ThreadSafe
+public class ToneDiskCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ToneDiskCache.class);
+
+    // "TONC"
+    private static final int MAGIC = 0x544F4E43;
+    private static final String SUFFIX = ".tone";
+    // the waveform the tones are rendered with, part of the key in case that becomes a choice
+    private static final String WAVEFORM = WaveGenerator.Waveform.SINE.name();
+
+    private final Path directory;
+    private final long maxBytes;
+    // an estimate, corrected whenever the directory is scanned
+    private final AtomicLong totalBytes = new AtomicLong();
+
+    /**
+     * Use a directory as a cache, creating it if need be
+     *
+     * @param directory where to keep the files
+     * @param maxBytes  the most space the files may occupy
+     * @throws IOException if the directory can't be created or read
+     */
+    public ToneDiskCache(Path directory, long maxBytes) throws IOException {
+        checkArgument(maxBytes > 0, "Size limit must be greater than 0");
+        this.directory = Files.createDirectories(directory);
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Everything that decides the samples of a tone
+     */
+    static String describe(ToneKey key, AudioFormat format, Envelope envelope, LoopPlanner planner) {
+        StringBuilder description = new StringBuilder();
+        description.append("renderer ").append(AudioEncoder.RENDERER_VERSION).append('|').append(WAVEFORM);
+        for (Tone tone : key.getTones()) {
+            // exact values, not the rounded ones of Tone.toString
+            description.append('|').append(Double.toHexString(tone.getFrequency()))
+                    .append(',').append(Double.toHexString(tone.getAmplitude()))
+                    .append(',').append(Double.toHexString(tone.getModulationFrequency()));
+        }
+        description.append('|').append(key.getDurationMillis());
+        description.append('|').append(format.getEncoding()).append(',').append(format.getSampleRate())
+                .append(',').append(format.getSampleSizeInBits()).append(',').append(format.getChannels())
+                .append(',').append(format.getFrameSize()).append(',').append(format.getFrameRate())
+                .append(',').append(format.isBigEndian());
+        description.append('|').append(envelope.getShape()).append(',').append(envelope.getFrameRate())
+                .append(',').append(envelope.getAttackFrames()).append(',').append(envelope.getReleaseFrames());
+        description.append('|').append(planner.getMaxBytes()).append(',').append(planner.getTolerance())
+                .append(',').append(planner.getMinMillis());
+        return description.toString();
+    }
+
+    private Path getPath(String description) {
+        return directory.resolve(Hashing.sha256().hashString(description, StandardCharsets.UTF_8) + SUFFIX);
+    }
+
+    /**
+     * Get a tone from the cache, or render it and add it
+     *
+     * @param key      the tones and duration
+     * @param format   the format wanted
+     * @param envelope the attack and release, for the frame rate of the format
+     * @param planner  chooses the length of a loop
+     * @return the tone
+     */
+    public RenderedTone getOrRender(ToneKey key, AudioFormat format, Envelope envelope, LoopPlanner planner) {
+        RenderedTone tone = get(key, format, envelope, planner);
+        if (tone == null) {
+            tone = RenderedTone.render(key, format, envelope, planner);
+            put(tone, envelope, planner);
+        }
+        return tone;
+    }
+
+    /**
+     * Get a tone from the cache
+     *
+     * @param key      the tones and duration
+     * @param format   the format wanted
+     * @param envelope the envelope wanted
+     * @param planner  the planner wanted
+     * @return the tone, or null if it is not there or its file is damaged
+     */
+    public RenderedTone get(ToneKey key, AudioFormat format, Envelope envelope, LoopPlanner planner) {
+        String description = describe(key, format, envelope, planner);
+        Path path = getPath(description);
+        try {
+            RenderedTone tone = read(Files.readAllBytes(path), description, key, format);
+            if (tone != null) {
+                Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+                LOGGER.trace("Disk cache hit for {}", key);
+                return tone;
+            }
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            LOGGER.warn("Can't read {}", path, e);
+        }
+        LOGGER.warn("Deleting damaged cache file {} for {}", path, key);
+        delete(path);
+        return null;
+    }
+
+    /**
+     * Check the contents of a file and use its data where it is
+     *
+     * @return the tone or null if the file is not what it should be
+     */
+    private static RenderedTone read(byte[] file, String description, ToneKey key, AudioFormat format) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(file);
+            if (buffer.getInt() != MAGIC) {
+                return null;
+            }
+            byte[] stored = new byte[buffer.getInt()];
+            buffer.get(stored);
+            if (!description.equals(new String(stored, StandardCharsets.UTF_8))) {
+                return null;
+            }
+            int loopStart = buffer.getInt();
+            int length = buffer.getInt();
+            long crc = buffer.getLong();
+            if (length != buffer.remaining() || length % format.getFrameSize() != 0) {
+                return null;
+            }
+            int offset = buffer.position();
+            CRC32 check = new CRC32();
+            check.update(file, offset, length);
+            if (check.getValue() != crc) {
+                return null;
+            }
+            return new RenderedTone(key, format, file, offset, length, loopStart);
+        } catch (RuntimeException e) {
+            // e.g. BufferUnderflowException if truncated
+            return null;
+        }
+    }
+
+    /**
+     * Add a tone to the cache, evicting the least recently used if the cache is then too big. Failure to write
+     * is logged and otherwise ignored, the tone will just be rendered again next time.
+     *
+     * @param tone     the tone
+     * @param envelope the envelope it was rendered with
+     * @param planner  the planner it was rendered with
+     */
+    public void put(RenderedTone tone, Envelope envelope, LoopPlanner planner) {
+        String description = describe(tone.getKey(), tone.getFormat(), envelope, planner);
+        byte[] stored = description.getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(tone.getData(), tone.getOffset(), tone.getLength());
+        ByteBuffer header = ByteBuffer.allocate(4 + 4 + stored.length + 4 + 4 + 8);
+        header.putInt(MAGIC).putInt(stored.length).put(stored)
+                .putInt(tone.getLoopStart()).putInt(tone.getLength()).putLong(crc.getValue());
+        header.flip();
+
+        Path path = getPath(description);
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(directory, "render", ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer data = ByteBuffer.wrap(tone.getData(), tone.getOffset(), tone.getLength());
+                while (header.hasRemaining() || data.hasRemaining()) {
+                    channel.write(new ByteBuffer[]{header, data});
+                }
+            }
+            long size = Files.size(temp);
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            LOGGER.trace("Cached {} in {}", tone.getKey(), path);
+            if (totalBytes.addAndGet(size) > maxBytes) {
+                evict();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Can't cache {} in {}", tone.getKey(), directory, e);
+            if (temp != null) {
+                delete(temp);
+            }
+        }
+    }
+
+    /**
+     * Delete the least recently used files until the rest fit within the limit
+     */
+    private synchronized void evict() {
+        List<Path> files = new ArrayList<>();
+        List<Long> sizes = new ArrayList<>();
+        List<Long> times = new ArrayList<>();
+        long total = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : stream) {
+                try {
+                    long size = Files.size(file);
+                    times.add(Files.getLastModifiedTime(file).toMillis());
+                    sizes.add(size);
+                    files.add(file);
+                    total += size;
+                } catch (IOException e) {
+                    // deleted by someone else
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Can't list {}", directory, e);
+            return;
+        }
+        if (total > maxBytes) {
+            List<Integer> order = new ArrayList<>();
+            for (int i = 0; i < files.size(); i++) {
+                order.add(i);
+            }
+            order.sort(Comparator.comparingLong(times::get));
+            for (int i : order) {
+                if (total <= maxBytes) {
+                    break;
+                }
+                if (delete(files.get(i))) {
+                    total -= sizes.get(i);
+                    LOGGER.debug("Evicted {}", files.get(i));
+                }
+            }
+        }
+        totalBytes.set(total);
+    }
+
+    /**
+     * The space the files of the cache occupy, as last counted
+     * @return bytes
+     */
+    public long getTotalBytes() {
+        return totalBytes.get();
+    }
+
+    private static boolean delete(Path path) {
+        try {
+            return Files.deleteIfExists(path);
+        } catch (IOException e) {
+            LOGGER.warn("Can't delete {}", path, e);
+            return false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s, %d of %d bytes", directory, totalBytes.get(), maxBytes);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import org.linguafranca.sound.cadence.CadenceSegment;
+import org.linguafranca.sound.tone.Tone;
+
+import javax.annotation.concurrent.Immutable;
+import javax.sound.sampled.AudioFormat;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Identifies an {@link EncodedTone} in a cache: the tones mixed together and how long the sound lasts,
+ * {@link #LOOPED} if it is a loop to be played for as long as needed
+ *
+ * @author jo
+ */
+@Immutable
+public class ToneKey {
+
+    /**
+     * The duration of a sound that loops
+     */
+    public static final int LOOPED = -1;
+
+    private final List<Tone> tones;
+    private final int durationMillis;
+
+    /**
+     * Make a key
+     *
+     * @param tones          the tones, which are copied
+     * @param durationMillis the duration of the sound or {@link #LOOPED}
+     */
+    public ToneKey(List<Tone> tones, int durationMillis) {
+        Tone.List copy = new Tone.List();
+        copy.addAll(tones);
+        this.tones = Collections.unmodifiableList(copy);
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * The key for the sound of a segment: exactly its on-duration if it has one that fits within the planner's
+     * memory budget, otherwise a loop
+     *
+     * @param segment the segment
+     * @param format  the format it is to be encoded to
+     * @param planner limits the length of sounds that are not looped
+     * @return a key
+     */
+    public static ToneKey forSegment(CadenceSegment segment, AudioFormat format, LoopPlanner planner) {
+        return forSound(segment.getTones(), segment.getOnDuration(), format, planner);
+    }
+
+    /**
+     * The key for tones sounding for a time: exactly that time if it fits within the planner's memory budget,
+     * otherwise a loop. A segment cut short by the end of its section is keyed by the time it actually sounds, so
+     * that it too ends with a release.
+     *
+     * @param tones          the tones
+     * @param durationMillis how long they sound, negative if for as long as needed
+     * @param format         the format it is to be encoded to
+     * @param planner        limits the length of sounds that are not looped
+     * @return a key
+     */
+    public static ToneKey forSound(List<Tone> tones, int durationMillis, AudioFormat format, LoopPlanner planner) {
+        long bytes = Math.round(durationMillis * (double) format.getFrameRate() / 1000) * format.getFrameSize();
+        return new ToneKey(tones, durationMillis > 0 && bytes <= planner.getMaxBytes() ? durationMillis : LOOPED);
+    }
+
+    public List<Tone> getTones() {
+        return tones;
+    }
+
+    public int getDurationMillis() {
+        return durationMillis;
+    }
+
+    public boolean isLooped() {
+        return durationMillis == LOOPED;
+    }
+
+    @Override
+    public int hashCode() {
+        return tones.hashCode() * 31 + durationMillis;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ToneKey && ((ToneKey) o).tones.equals(tones) && ((ToneKey) o).durationMillis == durationMillis;
+    }
+
+    @Override
+    public String toString() {
+        return isLooped() ? String.format("%s looped", tones) : String.format("%s %dms", tones, durationMillis);
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.sound.sampled.AudioFormat;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Rendered tones held in memory, shared by every player in the process, so that a tone is rendered once however
+ * many players play it. The data is bounded in bytes, and what is evicted to keep within the bound is decided by
+ * an {@link EvictionPolicy}, by default {@link EvictionPolicy#windowTinyLfu() W-TinyLFU}.
+ * <p>
+ * If several threads want a tone that isn't there at the same time, one renders it and the others wait for it.
+ * Tones are identified by everything that decides their samples, as for the {@link ToneDiskCache}, so players
+ * in different formats, or with different envelopes, can share a cache.
+ *
+ * @author jo
+ */
+@ThreadSafe
+public class ToneMemoryCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ToneMemoryCache.class);
+
+    /** the size of the default cache */
+    public static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+    private static volatile ToneMemoryCache defaultCache = new ToneMemoryCache(DEFAULT_MAX_BYTES);
+
+    /**
+     * What a cache has done since it was made
+     */
+    @Immutable
+    public static class Stats {
+        private final long hits;
+        private final long misses;
+        private final long renders;
+        private final long evictions;
+        private final int size;
+        private final long bytes;
+        private final long maxBytes;
+
+        Stats(long hits, long misses, long renders, long evictions, int size, long bytes, long maxBytes) {
+            this.hits = hits;
+            this.misses = misses;
+            this.renders = renders;
+            this.evictions = evictions;
+            this.size = size;
+            this.bytes = bytes;
+            this.maxBytes = maxBytes;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        /**
+         * Tones not there when wanted, including those that were being rendered for another thread
+         * @return a count
+         */
+        public long getMisses() {
+            return misses;
+        }
+
+        /**
+         * Tones rendered, fewer than the misses if threads waited for a tone another was rendering
+         * @return a count
+         */
+        public long getRenders() {
+            return renders;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        /**
+         * The number of tones held
+         * @return a count
+         */
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * The bytes of data held
+         * @return a count
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getMaxBytes() {
+            return maxBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d tones, %d of %d bytes, %d hits, %d misses, %d renders, %d evictions",
+                    size, bytes, maxBytes, hits, misses, renders, evictions);
+        }
+    }
+
+    private final long maxBytes;
+    private final EvictionPolicy<String> policy;
+    // guarded by this, as are the counts and the policy
+    private final HashMap<String, RenderedTone> tones = new HashMap<>();
+    // tones being rendered, for other threads that want them to wait for
+    private final ConcurrentHashMap<String, CompletableFuture<RenderedTone>> rendering = new ConcurrentHashMap<>();
+    private long bytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long renders = 0;
+    private long evictions = 0;
+
+    /**
+     * A cache using {@link EvictionPolicy#windowTinyLfu() W-TinyLFU}
+     *
+     * @param maxBytes the most data to hold
+     */
+    public ToneMemoryCache(long maxBytes) {
+        this(maxBytes, EvictionPolicy.windowTinyLfu());
+    }
+
+    /**
+     * @param maxBytes the most data to hold
+     * @param policy   decides what to evict, used only by this cache
+     */
+    public ToneMemoryCache(long maxBytes, EvictionPolicy<String> policy) {
+        checkArgument(maxBytes > 0, "Size limit must be greater than 0");
+        this.maxBytes = maxBytes;
+        this.policy = checkNotNull(policy);
+    }
+
+    /**
+     * The cache shared by the players of the process
+     * @return the cache
+     */
+    public static ToneMemoryCache getDefault() {
+        return defaultCache;
+    }
+
+    /**
+     * Replace the shared cache, e.g. with one of a different size or policy, for tones played from now on
+     * @param cache the new cache
+     */
+    public static void setDefault(ToneMemoryCache cache) {
+        defaultCache = checkNotNull(cache);
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Get a tone, rendering it if it is not there
+     *
+     * @param key      the tones and duration
+     * @param format   the format wanted
+     * @param envelope the attack and release, for the frame rate of the format
+     * @param planner  chooses the length of a loop
+     * @return the tone
+     */
+    public RenderedTone getOrRender(ToneKey key, AudioFormat format, Envelope envelope, LoopPlanner planner) {
+        return getOrRender(key, format, envelope, planner, () -> RenderedTone.render(key, format, envelope, planner));
+    }
+
+    /**
+     * Get a tone, getting it some other way if it is not there, e.g. from a {@link ToneDiskCache}
+     *
+     * @param key      the tones and duration
+     * @param format   the format wanted
+     * @param envelope the attack and release, for the frame rate of the format
+     * @param planner  chooses the length of a loop
+     * @param renderer gets the tone if it is not there, called by one thread at a time for each tone
+     * @return the tone
+     */
+    public RenderedTone getOrRender(ToneKey key, AudioFormat format, Envelope envelope, LoopPlanner planner,
+                                    Supplier<RenderedTone> renderer) {
+        String description = ToneDiskCache.describe(key, format, envelope, planner);
+        RenderedTone tone = get(description);
+        if (tone != null) {
+            return tone;
+        }
+        CompletableFuture<RenderedTone> future = new CompletableFuture<>();
+        CompletableFuture<RenderedTone> existing = rendering.putIfAbsent(description, future);
+        if (existing != null) {
+            LOGGER.trace("Waiting for {} to be rendered", key);
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        try {
+            // it may have been added since we looked
+            synchronized (this) {
+                tone = tones.get(description);
+            }
+            if (tone == null) {
+                tone = renderer.get();
+                put(description, tone);
+            }
+            future.complete(tone);
+            return tone;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            rendering.remove(description, future);
+        }
+    }
+
+    private synchronized RenderedTone get(String description) {
+        RenderedTone tone = tones.get(description);
+        if (tone != null) {
+            hits++;
+            policy.onHit(description);
+        } else {
+            misses++;
+            policy.onMiss(description);
+        }
+        return tone;
+    }
+
+    private synchronized void put(String description, RenderedTone tone) {
+        renders++;
+        tones.put(description, tone);
+        bytes += tone.getLength();
+        List<String> evicted = policy.add(description, tone.getLength(), maxBytes);
+        for (String victim : evicted) {
+            RenderedTone removed = tones.remove(victim);
+            if (removed != null) {
+                bytes -= removed.getLength();
+                if (removed != tone) {
+                    evictions++;
+                    LOGGER.debug("Evicted {}", removed.getKey());
+                }
+            }
+        }
+    }
+
+    /**
+     * What the cache has done since it was made
+     * @return a snapshot
+     */
+    public synchronized Stats getStats() {
+        return new Stats(hits, misses, renders, evictions, tones.size(), bytes, maxBytes);
+    }
+
+    /**
+     * Empty the cache
+     */
+    public synchronized void clear() {
+        for (String description : tones.keySet()) {
+            policy.remove(description);
+        }
+        tones.clear();
+        bytes = 0;
+    }
+
+    @Override
+    public String toString() {
+        return getStats().toString();
+    }
+}
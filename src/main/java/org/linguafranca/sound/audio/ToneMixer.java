@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import org.linguafranca.sound.tone.Tone;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Sums a number of {@link Tone}s, each from its own {@link Oscillator}, into a single stream of samples.
+ * <p>
+ * If the amplitudes of the tones add up to more than 1 they are all scaled down in proportion, so that
+ * the mix can never clip.
+ * <p>
+ * Tones that are {@link Tone#isModulated() modulated} are generated by a {@link ModulatedOscillator}.
+ *
+ * @author jo
+ */
+public class ToneMixer implements SampleSource {
+
+    private final Oscillator[] oscillators;
+    private final double[] gains;
+
+    /**
+     * Make a mixer, modulated tones use {@link WaveGenerator#SINE_MODULATOR}
+     *
+     * @param waveGen   the waveform to use for every tone
+     * @param tones     the tones to mix
+     * @param frameRate the frames per second of the output
+     */
+    public ToneMixer(WaveGenerator.WaveGen waveGen, List<Tone> tones, float frameRate) {
+        this(waveGen, WaveGenerator.SINE_MODULATOR, tones, frameRate);
+    }
+
+    /**
+     * Make a mixer
+     *
+     * @param waveGen   the waveform to use for every tone
+     * @param modulator the modulation to use for tones that are modulated
+     * @param tones     the tones to mix
+     * @param frameRate the frames per second of the output
+     */
+    public ToneMixer(WaveGenerator.WaveGen waveGen, WaveGenerator.Modulator modulator, List<Tone> tones, float frameRate) {
+        checkArgument(!tones.isEmpty(), "Need at least one tone to mix");
+        oscillators = new Oscillator[tones.size()];
+        gains = new double[tones.size()];
+        double headroom = 1.0 / Math.max(1.0, getTotalAmplitude(tones));
+        for (int i = 0; i < oscillators.length; i++) {
+            Tone tone = tones.get(i);
+            oscillators[i] = tone.isModulated() ?
+                    new ModulatedOscillator(waveGen, tone.getFrequency(), modulator, tone.getModulationFrequency(), frameRate) :
+                    new Oscillator(waveGen, tone.getFrequency(), frameRate);
+            gains[i] = tone.getAmplitude() * headroom;
+        }
+    }
+
+    /**
+     * The largest value the tones can reach if they all peak together
+     *
+     * @param tones some tones
+     * @return the sum of their amplitudes
+     */
+    public static double getTotalAmplitude(List<Tone> tones) {
+        double total = 0.0;
+        for (Tone tone : tones) {
+            total += tone.getAmplitude();
+        }
+        return total;
+    }
+
+    /**
+     * Go back to the start of every tone's cycle
+     */
+    public void reset() {
+        for (Oscillator oscillator : oscillators) {
+            oscillator.reset();
+        }
+    }
+
+    /**
+     * Move every tone to where it is a number of frames from the start
+     * @param frame the number of frames from the start
+     */
+    public void setFramePosition(long frame) {
+        for (Oscillator oscillator : oscillators) {
+            oscillator.setFramePosition(frame);
+        }
+    }
+
+    /**
+     * Write the sum of the next frames of each tone into the buffer, this never comes to an end
+     */
+    @Override
+    public int read(float[] buffer, int offset, int frames) {
+        oscillators[0].fill(buffer, offset, frames, gains[0]);
+        for (int i = 1; i < oscillators.length; i++) {
+            oscillators[i].add(buffer, offset, frames, gains[i]);
+        }
+        return frames;
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Writes samples to a WAV file as they are generated, encoding them straight into a window of the file
+ * mapped into memory, so that however long the output, memory use stays the same and nothing is copied
+ * more than once. The sizes in the RIFF header are filled in when the writer is closed.
+ * <p>
+ * Only whole windows are mapped. Writes of a window or more are encoded straight into the mapping, and smaller
+ * ones are gathered in memory until they fill a window, which is then copied into the file in one go. Whatever
+ * is left over when the writer is closed is written through the channel, so the file is never longer than what
+ * has been written and is not truncated on closing. That matters on Windows, which won't change the length of a file
+ * while any part of it is mapped, and Java releases a mapping only when it is garbage collected, some time after
+ * the writer is closed. For the same reason a file just written may not be replaceable there straight away.
+ * <p>
+ * WAV requires 8 bit PCM to be unsigned and everything else to be little endian, so a format which is
+ * otherwise is written as the nearest format that isn't, see {@link #toWavFormat(AudioFormat)}. Float and
+ * G.711 files have the extended format chunk and the fact chunk that go with them.
+ * <p>
+ * A writer is not thread safe.
+ *
+ * @author jo
+ */
+public class WavWriter implements Closeable {
+
+    // frames mapped at a time, a whole number of frames so none crosses a window
+    static final int DEFAULT_WINDOW_FRAMES = 1 << 18;
+
+    private static final int WAVE_FORMAT_PCM = 1;
+    private static final int WAVE_FORMAT_IEEE_FLOAT = 3;
+    private static final int WAVE_FORMAT_ALAW = 6;
+    private static final int WAVE_FORMAT_MULAW = 7;
+
+    private static final long MAX_RIFF_SIZE = 0xFFFFFFFFL;
+
+    private final FileChannel channel;
+    private final AudioFormat format;
+    private final PcmEncoder encoder;
+    private final int formatTag;
+    private final int headerSize;
+    private final int windowFrames;
+
+    // the last window mapped
+    private MappedByteBuffer window;
+    // frames written, including those waiting to fill a window
+    private long frames = 0;
+    // frames in the windows mapped so far
+    private long mappedFrames = 0;
+    private int mappings = 0;
+    // frames waiting for a whole window, made when first wanted
+    private byte[] pending;
+    private int pendingFrames = 0;
+    private boolean closed = false;
+
+    /**
+     * Create or replace a WAV file
+     *
+     * @param path   the file to write
+     * @param format the format to write, or the nearest that WAV allows
+     * @throws IOException if the file can't be opened
+     */
+    public WavWriter(Path path, AudioFormat format) throws IOException {
+        this(path, format, DEFAULT_WINDOW_FRAMES);
+    }
+
+    WavWriter(Path path, AudioFormat format, int windowFrames) throws IOException {
+        checkArgument(PcmEncoder.isSupported(format), "Unsupported format %s", format);
+        checkArgument(windowFrames > 0, "Window must be at least one frame");
+        this.format = toWavFormat(format);
+        this.encoder = new PcmEncoder(this.format);
+        this.formatTag = getFormatTag(this.format);
+        this.headerSize = getHeaderSize(formatTag);
+        this.windowFrames = windowFrames;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * The format WAV allows that is nearest to a format: signed 8 bit PCM becomes unsigned and big endian
+     * becomes little endian
+     *
+     * @param format a format a {@link PcmEncoder} supports
+     * @return the format that will be written
+     */
+    public static AudioFormat toWavFormat(AudioFormat format) {
+        AudioFormat.Encoding encoding = format.getEncoding();
+        int bits = format.getSampleSizeInBits();
+        if (bits == 8 && encoding.equals(AudioFormat.Encoding.PCM_SIGNED)) {
+            encoding = AudioFormat.Encoding.PCM_UNSIGNED;
+        } else if (bits == 8 || !format.isBigEndian()) {
+            return format;
+        }
+        return new AudioFormat(encoding, format.getSampleRate(), bits, format.getChannels(),
+                format.getFrameSize(), format.getFrameRate(), false);
+    }
+
+    private static int getFormatTag(AudioFormat format) {
+        AudioFormat.Encoding encoding = format.getEncoding();
+        if (encoding.equals(AudioFormat.Encoding.PCM_FLOAT)) {
+            return WAVE_FORMAT_IEEE_FLOAT;
+        }
+        if (encoding.equals(AudioFormat.Encoding.ULAW)) {
+            return WAVE_FORMAT_MULAW;
+        }
+        if (encoding.equals(AudioFormat.Encoding.ALAW)) {
+            return WAVE_FORMAT_ALAW;
+        }
+        return WAVE_FORMAT_PCM;
+    }
+
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * The number of frames written so far
+     * @return a count
+     */
+    public long getFrameCount() {
+        return frames;
+    }
+
+    /**
+     * Append frames to the file
+     *
+     * @param samples the samples to write
+     * @param offset  the first sample to write
+     * @param length  the number of frames to write
+     * @throws IOException if the file can't be written or would be too big for WAV
+     */
+    public void write(float[] samples, int offset, int length) throws IOException {
+        checkState(!closed, "Writer is closed");
+        int frameSize = encoder.getFrameSize();
+        if (headerSize + (frames + length) * frameSize + 1 > MAX_RIFF_SIZE + 8) {
+            throw new IOException("Too long for a WAV file");
+        }
+        int done = 0;
+        while (done < length) {
+            int count;
+            if (pendingFrames == 0 && length - done >= windowFrames) {
+                count = windowFrames;
+                encoder.encode(samples, offset + done, count, mapWindow());
+            } else {
+                if (pending == null) {
+                    pending = new byte[windowFrames * frameSize];
+                }
+                count = Math.min(windowFrames - pendingFrames, length - done);
+                encoder.encode(samples, offset + done, count, pending, pendingFrames * frameSize);
+                pendingFrames += count;
+                if (pendingFrames == windowFrames) {
+                    mapWindow().put(pending);
+                    pendingFrames = 0;
+                }
+            }
+            done += count;
+            frames += count;
+        }
+    }
+
+    /**
+     * Map the next whole window of the file
+     */
+    private MappedByteBuffer mapWindow() throws IOException {
+        int frameSize = encoder.getFrameSize();
+        window = channel.map(FileChannel.MapMode.READ_WRITE, headerSize + mappedFrames * frameSize,
+                (long) windowFrames * frameSize);
+        mappedFrames += windowFrames;
+        mappings++;
+        return window;
+    }
+
+    /**
+     * The number of windows mapped so far
+     * @return a count
+     */
+    int getMappingCount() {
+        return mappings;
+    }
+
+    /**
+     * Append frames to the file from a source, until the source comes to an end or enough have been written
+     *
+     * @param source    where to get the samples
+     * @param maxFrames the most frames to write
+     * @return the number of frames written
+     * @throws IOException if the file can't be written or would be too big for WAV
+     */
+    public long write(SampleSource source, long maxFrames) throws IOException {
+        float[] block = new float[AudioEncoder.BLOCK_SIZE_IN_FRAMES];
+        long written = 0;
+        while (written < maxFrames) {
+            int read = source.read(block, 0, (int) Math.min(block.length, maxFrames - written));
+            if (read <= 0) {
+                break;
+            }
+            write(block, 0, read);
+            written += read;
+        }
+        return written;
+    }
+
+    /**
+     * Fill in the header, once the data is in the file
+     *
+     * @throws IOException if the file can't be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            int frameSize = encoder.getFrameSize();
+            if (window != null) {
+                // so the data is in the file before the header that describes it
+                window.force();
+                window = null;
+            }
+            // the part of a window left over, written past the end of the mapped windows
+            ByteBuffer rest = ByteBuffer.wrap(pending == null ? new byte[0] : pending, 0, pendingFrames * frameSize);
+            while (rest.hasRemaining()) {
+                channel.write(rest, headerSize + mappedFrames * frameSize + rest.position());
+            }
+            long dataSize = frames * frameSize;
+            // chunks have an even length
+            int pad = (int) (dataSize & 1);
+            long end = headerSize + dataSize;
+            if (pad != 0) {
+                channel.write(ByteBuffer.allocate(1), end);
+            }
+            ByteBuffer header = makeHeader(format, frames);
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * The header of a WAV file of a known length, so that one can be written as a stream, e.g. to a pipe, with
+     * no need to go back and fill in the sizes
+     *
+     * @param format the format of the data, which must be as {@link #toWavFormat(AudioFormat)} gives
+     * @param frames the number of frames that follow the header
+     * @return the header
+     */
+    public static byte[] getHeader(AudioFormat format, long frames) {
+        checkArgument(PcmEncoder.isSupported(format), "Unsupported format %s", format);
+        checkArgument(toWavFormat(format) == format, "Not a format WAV allows %s", format);
+        long dataSize = frames * format.getFrameSize();
+        if (getHeaderSize(getFormatTag(format)) + dataSize + 1 > MAX_RIFF_SIZE + 8) {
+            throw new IllegalArgumentException("Too long for a WAV file");
+        }
+        return makeHeader(format, frames).array();
+    }
+
+    private static int getHeaderSize(int formatTag) {
+        // PCM has the short format chunk, everything else the extended one and a fact chunk
+        return formatTag == WAVE_FORMAT_PCM ? 44 : 58;
+    }
+
+    private static ByteBuffer makeHeader(AudioFormat format, long frames) {
+        int formatTag = getFormatTag(format);
+        int headerSize = getHeaderSize(formatTag);
+        int frameSize = format.getFrameSize();
+        long dataSize = frames * frameSize;
+        // chunks have an even length
+        long riffSize = headerSize - 8 + dataSize + (dataSize & 1);
+        ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+        int sampleRate = Math.round(format.getSampleRate());
+        header.put("RIFF".getBytes(StandardCharsets.US_ASCII)).putInt((int) riffSize);
+        header.put("WAVE".getBytes(StandardCharsets.US_ASCII));
+        header.put("fmt ".getBytes(StandardCharsets.US_ASCII)).putInt(formatTag == WAVE_FORMAT_PCM ? 16 : 18);
+        header.putShort((short) formatTag);
+        header.putShort((short) format.getChannels());
+        header.putInt(sampleRate);
+        header.putInt(sampleRate * frameSize);
+        header.putShort((short) frameSize);
+        header.putShort((short) format.getSampleSizeInBits());
+        if (formatTag != WAVE_FORMAT_PCM) {
+            header.putShort((short) 0);
+            header.put("fact".getBytes(StandardCharsets.US_ASCII)).putInt(4).putInt((int) frames);
+        }
+        header.put("data".getBytes(StandardCharsets.US_ASCII)).putInt((int) dataSize);
+        header.flip();
+        return header;
+    }
+}
@@ -17,13 +17,12 @@
 
 package org.linguafranca.sound.audio;
 
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * @author jo
  */
 public class WaveGenerator {
-    static private final Random random = new Random();
 
     /**
      * Creates a waveform
@@ -50,7 +49,8 @@ public class WaveGenerator {
                 position < 0.75 ? -4.0 * (position - 0.5) :
                         4.0 * (position - 1.0)),
         SAWTOOTH(position -> position < 0.5 ? 2.0 * position : 2.0 * (position - 1.0)),
-        RANDOM(position -> random.nextDouble() * 2.0 - 1.0);
+        // each thread has its own generator, for reproducible or coloured noise see NoiseSource
+        RANDOM(position -> ThreadLocalRandom.current().nextDouble() * 2.0 - 1.0);
 
         private final WaveGen waveGen;
 
@@ -65,6 +65,106 @@ public class WaveGenerator {
         public double getValue(double position) {
             return waveGen.getValue(position);
         }
+
+        /**
+         * Make a table driven version of this waveform. Note that a table of {@link #RANDOM} repeats
+         * the same noise every cycle.
+         *
+         * @param size          the number of entries in the table
+         * @param interpolation how to calculate values between entries
+         * @return a Wavetable
+         */
+        public Wavetable toWavetable(int size, Wavetable.Interpolation interpolation) {
+            return new Wavetable(this, size, interpolation);
+        }
+    }
+
+    /**
+     * A waveform that can avoid aliasing by smoothing its discontinuities according to how far
+     * the position moves from one frame to the next. {@link Oscillator} supplies the increment.
+     */
+    @FunctionalInterface
+    public interface BandLimitedWaveGen extends WaveGen {
+        /**
+         * Generate a value for the waveform
+         *
+         * @param position  0 <= position <= 1 in the cycle
+         * @param increment the distance in the cycle between one frame and the next
+         * @return -1 <= value <= +1 (approximately) for the amplitude at that position
+         */
+        double getValue(double position, double increment);
+
+        /**
+         * The value without smoothing, as if the frame rate were infinite
+         */
+        default double getValue(double position) {
+            return getValue(position, 0.0);
+        }
+    }
+
+    /**
+     * Band-limited versions of the {@link Waveform}s with discontinuities, with the same phase, using
+     * polynomial corrections (PolyBLEP for steps and PolyBLAMP for corners) over the frame either side of each
+     * discontinuity. The result is clean enough at the output rate that no oversampling or filter is needed.
+     * <p>
+     * See https://www.researchgate.net/publication/307990687_Rounding_Corners_with_BLAMP
+     */
+    public enum BandLimited implements BandLimitedWaveGen {
+        SQUARE {
+            @Override
+            public double getValue(double position, double increment) {
+                double value = Waveform.SQUARE.getValue(position);
+                double half = position < 0.5 ? position + 0.5 : position - 0.5;
+                return value + 2.0 * polyBlep(position, increment) - 2.0 * polyBlep(half, increment);
+            }
+        },
+        TRIANGLE {
+            @Override
+            public double getValue(double position, double increment) {
+                double value = Waveform.TRIANGLE.getValue(position);
+                double peak = position < 0.25 ? position + 0.75 : position - 0.25;
+                double trough = position < 0.75 ? position + 0.25 : position - 0.75;
+                return value + 8.0 * increment * (polyBlamp(trough, increment) - polyBlamp(peak, increment));
+            }
+        },
+        SAWTOOTH {
+            @Override
+            public double getValue(double position, double increment) {
+                double value = Waveform.SAWTOOTH.getValue(position);
+                double jump = position < 0.5 ? position + 0.5 : position - 0.5;
+                return value - 2.0 * polyBlep(jump, increment);
+            }
+        };
+
+        /**
+         * The difference between a band-limited and a naive step up of 1 at position 0
+         */
+        private static double polyBlep(double position, double increment) {
+            if (position < increment) {
+                double x = 1.0 - position / increment;
+                return -0.5 * x * x;
+            }
+            if (position > 1.0 - increment) {
+                double x = 1.0 + (position - 1.0) / increment;
+                return 0.5 * x * x;
+            }
+            return 0.0;
+        }
+
+        /**
+         * The difference between a band-limited and a naive increase in slope of 1 per frame at position 0
+         */
+        private static double polyBlamp(double position, double increment) {
+            double x;
+            if (position < increment) {
+                x = 1.0 - position / increment;
+            } else if (position > 1.0 - increment) {
+                x = 1.0 + (position - 1.0) / increment;
+            } else {
+                return 0.0;
+            }
+            return x * x * x / 6.0;
+        }
     }
 
     /**
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A {@link WaveGenerator.WaveGen} that looks up a single cycle of another WaveGen, sampled once
+ * at construction, rather than calculating it each time.
+ * <p>
+ * The accuracy depends on the size of the table and on how values between table entries are
+ * interpolated, see {@link #getMaxError(WaveGenerator.WaveGen, int)}.
+ *
+ * @author jo
+ */
+public class Wavetable implements WaveGenerator.WaveGen {
+
+    /**
+     * How to get a value for a position that falls between two entries of the table
+     */
+    public enum Interpolation {
+        /** use the entry at or before the position */
+        NONE,
+        /** straight line between the entries either side */
+        LINEAR,
+        /** Catmull-Rom spline through the two entries either side */
+        CUBIC
+    }
+
+    private final int size;
+    private final Interpolation interpolation;
+    /*
+     * table[i + 1] holds the value at position i / size for -1 <= i <= size + 1, the extra entries
+     * at each end mean that interpolation never has to wrap round
+     */
+    private final float[] table;
+
+    /**
+     * Sample one cycle of a WaveGen
+     *
+     * @param source        the waveform to tabulate
+     * @param size          the number of entries per cycle
+     * @param interpolation how to fill in between the entries
+     */
+    public Wavetable(WaveGenerator.WaveGen source, int size, Interpolation interpolation) {
+        checkArgument(size >= 4, "Table size must be at least 4");
+        this.size = size;
+        this.interpolation = interpolation;
+        this.table = new float[size + 3];
+        for (int i = 0; i < size; i++) {
+            table[i + 1] = (float) source.getValue((double) i / size);
+        }
+        table[0] = table[size];
+        table[size + 1] = table[1];
+        table[size + 2] = table[2];
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public Interpolation getInterpolation() {
+        return interpolation;
+    }
+
+    @Override
+    public double getValue(double position) {
+        double x = position * size;
+        int i = (int) x;
+        float fraction = (float) (x - i);
+        if (i >= size) {
+            i -= size;
+        }
+        final float[] table = this.table;
+        switch (interpolation) {
+            case NONE:
+                return table[i + 1];
+            case LINEAR: {
+                float y0 = table[i + 1];
+                return y0 + fraction * (table[i + 2] - y0);
+            }
+            default: {
+                float ym1 = table[i];
+                float y0 = table[i + 1];
+                float y1 = table[i + 2];
+                float y2 = table[i + 3];
+                float c1 = 0.5F * (y1 - ym1);
+                float c2 = ym1 - 2.5F * y0 + 2.0F * y1 - 0.5F * y2;
+                float c3 = 0.5F * (y2 - ym1) + 1.5F * (y0 - y1);
+                return ((c3 * fraction + c2) * fraction + c1) * fraction + y0;
+            }
+        }
+    }
+
+    /**
+     * Compare this table with the WaveGen it approximates
+     *
+     * @param reference the exact waveform
+     * @param points    the number of evenly spaced positions to compare at
+     * @return the largest absolute difference found
+     */
+    public double getMaxError(WaveGenerator.WaveGen reference, int points) {
+        double maxError = 0.0;
+        for (int i = 0; i < points; i++) {
+            double position = (double) i / points;
+            maxError = Math.max(maxError, Math.abs(getValue(position) - reference.getValue(position)));
+        }
+        return maxError;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Wavetable %d %s", size, interpolation);
+    }
+}
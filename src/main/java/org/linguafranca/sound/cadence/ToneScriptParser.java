@@ -34,12 +34,15 @@ import static com.google.common.base.Preconditions.checkArgument;
     // a comma separated list of tones  (up to 6)
     &lt;freqScript>     ::= &lt;tone>{','&lt;tone>}*5
 
-    // a tone is the combination of a frequency and a volume
-    &lt;tone>           ::= &lt;frequency>'@'&lt;dBm>
+    // a tone is the combination of a frequency and a volume, optionally amplitude modulated
+    &lt;tone>           ::= &lt;frequency>['*'&lt;modulation>]'@'&lt;dBm>
 
     // a frequency in Hertz  (must be an integer)
     &lt;frequency>      ::= &lt;integer>
 
+    // the frequency in Hertz the tone is modulated at, e.g. 400*25 (an extension, written as in ITU-T E.180)
+    &lt;modulation>     ::= &lt;integer>
+
     // a loudness value -35 is very soft, 0 is the loudest distinguishable, one decimal place is allowed
     &lt;dBm>            ::= &lt;float>
 
@@ -160,7 +163,8 @@ public class ToneScriptParser {
     }
 
     /**
-     * Parse a FreqScript - i.e. something of the form freq@dBels,freq@dBels etc.
+     * Parse a FreqScript - i.e. something of the form freq@dBels,freq@dBels etc. where a freq may be written
+     * freq*modulationFreq for an amplitude modulated tone
      * @param input a string assumed to contain a FreqScript
      * @return a {@link Tone.List}
      */
@@ -170,8 +174,12 @@ public class ToneScriptParser {
         for (String part : parts) {
             String[] components = part.split("@");
             checkArgument((components.length ==2),
-                    "Tones are of the form 'freq@dB'");
-            Tone tone = Tone.makeToneFD(Double.parseDouble(components[0].trim()), Double.parseDouble(components[1].trim()));
+                    "Tones are of the form 'freq@dB' or 'freq*modulation@dB'");
+            String[] frequencies = components[0].split("\\*");
+            checkArgument((frequencies.length == 1 || frequencies.length == 2),
+                    "Tones are of the form 'freq@dB' or 'freq*modulation@dB'");
+            double modulation = frequencies.length == 2 ? Double.parseDouble(frequencies[1].trim()) : 0.0;
+            Tone tone = Tone.makeToneFD(Double.parseDouble(frequencies[0].trim()), Double.parseDouble(components[1].trim()), modulation);
             toneList.add(tone);
         }
         return toneList;
@@ -32,6 +32,9 @@ public class  QueueItem <I>  {
     private final I item;
     private enum Statuses {IDLE, STARTED, FINISHED, ABANDONED}
     private Statuses status;
+    // System.nanoTime() when queued and when first heard, or -1 if not yet
+    private long enqueuedNanos = -1;
+    private long firstSoundNanos = -1;
 
     public interface QueueItemUpdateListener<J>{
         void onUpdate(QueueItem<J> item);
@@ -60,6 +63,31 @@ public class  QueueItem <I>  {
         return status == Statuses.ABANDONED;
     }
 
+    /**
+     * Record that the item has been queued for playback
+     */
+    public synchronized void setEnqueued() {
+        this.enqueuedNanos = System.nanoTime();
+    }
+
+    /**
+     * Record that the first sound of the item has started, if it hasn't already
+     */
+    public synchronized void setFirstSound() {
+        if (firstSoundNanos < 0) {
+            this.firstSoundNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * The time from the item being queued to its first sound starting, which includes waiting for the items
+     * ahead of it as well as getting its sounds ready
+     * @return nanoseconds, or -1 if it has not been queued or no sound of it has started
+     */
+    public synchronized long getFirstSoundLatencyNanos() {
+        return enqueuedNanos < 0 || firstSoundNanos < 0 ? -1 : firstSoundNanos - enqueuedNanos;
+    }
+
     public synchronized void setStarted() {
         this.status = Statuses.STARTED;
         for (QueueItemUpdateListener<I> listener: listeners){
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.player;
+
+import org.linguafranca.sound.audio.AudioEncoder;
+import org.linguafranca.sound.audio.LinePlaybackThread;
+import org.linguafranca.sound.cadence.CadenceSection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+
+/**
+ * Plays cadences like {@link WaveCadencePlayer}, but streams them into a single SourceDataLine, opened by
+ * {@link #openSound()}, rather than opening a Clip for each tone. Timing comes from the number of frames
+ * written, not from waking a thread, see {@link LinePlaybackThread}.
+ *
+ * @author jo
+ */
+public class StreamingCadencePlayer extends CadencePlayer.Skeleton {
+
+    private static final Logger logger = LoggerFactory.getLogger(StreamingCadencePlayer.class);
+
+    private LinePlaybackThread player;
+
+    public StreamingCadencePlayer() {
+        this(AudioEncoder.DEFAULT_AUDIO_FORMAT);
+    }
+
+    /**
+     * Make a player that plays in the format given, e.g. {@link AudioEncoder#TELEPHONY_AUDIO_FORMAT}
+     * @param format the format to render and play tones in
+     */
+    public StreamingCadencePlayer(AudioFormat format) {
+        this(format, LinePlaybackThread.DEFAULT_BUFFER_MILLIS);
+    }
+
+    /**
+     * Make a player
+     * @param format the format to render and play tones in
+     * @param bufferMillis the size of the line's buffer, which is the longest a queued section waits to be heard
+     */
+    public StreamingCadencePlayer(AudioFormat format, int bufferMillis) {
+        player = new LinePlaybackThread(format, bufferMillis);
+    }
+
+    /**
+     * Open the line and start playing
+     * @throws LineUnavailableException if there is no line for the format
+     */
+    @Override
+    public void openSound() throws LineUnavailableException {
+        player.openLine();
+        player.start();
+    }
+
+    @Override
+    public QueueItem<CadenceSection> queue(CadenceSection section, boolean block) {
+        QueueItem<CadenceSection> item = new QueueItem<>(section);
+        queue(item, block);
+        return item;
+    }
+
+    @Override
+    public void queue(QueueItem<CadenceSection> queuedCadences, boolean block) {
+
+        logger.trace("Queueing item {}", queuedCadences.getItem());
+        if (!player.queue(queuedCadences)) return;
+        if (block) {
+            try {
+                logger.trace("Waiting for queued item to play");
+                //noinspection SynchronizationOnLocalVariableOrMethodParameter
+                synchronized (queuedCadences) {
+                    while (!queuedCadences.isFinished() && !queuedCadences.isAbandoned()) {
+                        queuedCadences.wait(player.getQueueLengthMillis() + queuedCadences.getItem().getDuration()
+                                + WaveCadencePlayer.GRACE_PERIOD);
+                    }
+                    logger.trace("Item {}", queuedCadences);
+                }
+            } catch (InterruptedException e) {
+                logger.trace("not expecting to be interrupted while playing sound (blocking)");
+            }
+        }
+    }
+
+    @Override
+    public boolean stopSound(int timeToWait) {
+        if (player == null || !player.isAlive()) {
+            return true;
+        }
+        logger.debug("Player is alive, trying to stop sound");
+        player.cancelPlayback();
+        return true;
+    }
+
+    @Override
+    public boolean closeSound(int timeToWait) {
+        if (player == null || !player.isAlive()) {
+            player = null;
+            return true;
+        }
+
+        logger.debug("Player is alive, trying to stop thread");
+        boolean stopped = player.stopThread(timeToWait);
+        player = null;
+        return stopped;
+    }
+}
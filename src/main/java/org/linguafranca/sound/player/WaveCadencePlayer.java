@@ -18,10 +18,14 @@
 package org.linguafranca.sound.player;
 
 import ch.qos.logback.classic.Logger;
+import org.linguafranca.sound.audio.AudioEncoder;
+import org.linguafranca.sound.audio.CadenceSectionPlayback;
 import org.linguafranca.sound.cadence.CadenceSection;
 import org.linguafranca.sound.audio.PlaybackThread;
 import org.slf4j.LoggerFactory;
 
+import javax.sound.sampled.AudioFormat;
+
 /**
  * Created by IntelliJ IDEA.
  * User: Jo
@@ -39,8 +43,35 @@ public class WaveCadencePlayer extends CadencePlayer.Skeleton {
     private PlaybackThread player;
 
     public WaveCadencePlayer(){
-        player = new PlaybackThread();
+        this(AudioEncoder.DEFAULT_AUDIO_FORMAT);
+    }
+
+    /**
+     * Make a player that plays in the format given, e.g. {@link AudioEncoder#TELEPHONY_AUDIO_FORMAT}
+     * @param format the format to encode and play tones in
+     */
+    public WaveCadencePlayer(AudioFormat format){
+        this(format, CadenceSectionPlayback.Scheduling.SLEEP);
+    }
+
+    /**
+     * Make a player that plays in the format given, with the waits between segments timed as given
+     * @param format the format to encode and play tones in
+     * @param scheduling how the waits between segments are timed, {@link CadenceSectionPlayback.Scheduling#DEADLINE}
+     *                   to stop lateness building up over a section
+     */
+    public WaveCadencePlayer(AudioFormat format, CadenceSectionPlayback.Scheduling scheduling){
+        this(format, scheduling, true);
+    }
 
+    /**
+     * Make a player that plays in the format given, with the waits between segments timed as given
+     * @param format the format to encode and play tones in
+     * @param scheduling how the waits between segments are timed
+     * @param lookahead true to get the sounds of queued cadences ready in the background before they are played
+     */
+    public WaveCadencePlayer(AudioFormat format, CadenceSectionPlayback.Scheduling scheduling, boolean lookahead){
+        player = new PlaybackThread(format, scheduling, lookahead);
     }
 
     @Override
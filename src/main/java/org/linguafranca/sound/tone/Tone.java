@@ -23,7 +23,8 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static java.lang.Math.*;
 
 /**
- * An immutable representation of a frequency and volume
+ * An immutable representation of a frequency and volume, optionally amplitude modulated at a second,
+ * lower, frequency
  */
 public class Tone {
 
@@ -74,8 +75,27 @@ public class Tone {
         return makeToneFA(frequency, getAmplitudeFromDb(dBm));
     }
 
+    /**
+     * Factory method for creating an amplitude modulated {@link Tone}, e.g. 400Hz modulated at 25Hz
+     * as found in some ringing tones
+     *
+     * @param frequency           a frequency in Hertz
+     * @param amplitude           a loudness in 0-1
+     * @param modulationFrequency the frequency of the modulation in Hertz, 0 for none
+     * @return a {@link Tone}
+     * @throws IllegalArgumentException if any of the parameters is out of range
+     */
+    public static Tone makeToneFA(double frequency, double amplitude, double modulationFrequency) throws IllegalArgumentException {
+        return new Tone(frequency, amplitude, modulationFrequency);
+    }
+
+    public static Tone makeToneFD(double frequency, double dBm, double modulationFrequency) throws IllegalArgumentException {
+        return makeToneFA(frequency, getAmplitudeFromDb(dBm), modulationFrequency);
+    }
+
     protected final double frequency;
     protected final double amplitude;
+    protected final double modulationFrequency;
 
     /**
      * Private constructor to prevent subclassing
@@ -85,10 +105,25 @@ public class Tone {
      * @throws IllegalArgumentException if any of the parameters is out of range
      */
     protected Tone(double frequency, double amplitude) throws IllegalArgumentException {
+        this(frequency, amplitude, 0.0);
+    }
+
+    /**
+     * Private constructor to prevent subclassing
+     *
+     * @param frequency           the frequency in Hertz
+     * @param amplitude           the amplitude - range 0 to 1
+     * @param modulationFrequency the modulation frequency in Hertz, 0 for none
+     * @throws IllegalArgumentException if any of the parameters is out of range
+     */
+    protected Tone(double frequency, double amplitude, double modulationFrequency) throws IllegalArgumentException {
         checkArgument(frequency > 0.0 && frequency < 40000, "Frequency is out of range");
         this.frequency = frequency;
         checkArgument(isValidAmplitude(amplitude),"Amplitude %f is out of range %f to %f", amplitude, LOW_AMPLITUDE, HIGH_AMPLITUDE);
         this.amplitude = amplitude;
+        checkArgument(modulationFrequency >= 0.0 && modulationFrequency < frequency,
+                "Modulation frequency %s must be at least 0 and less than the frequency %s", modulationFrequency, frequency);
+        this.modulationFrequency = modulationFrequency;
     }
 
     /**
@@ -110,6 +145,19 @@ public class Tone {
         return amplitude;
     }
 
+    /**
+     * Get the frequency the amplitude of this Tone is modulated at
+     *
+     * @return a frequency in Hertz, 0 if the tone is not modulated
+     */
+    public double getModulationFrequency() {
+        return modulationFrequency;
+    }
+
+    public boolean isModulated() {
+        return modulationFrequency > 0.0;
+    }
+
     /**
      * Is this a valid amplitude?
      *
@@ -145,6 +193,9 @@ public class Tone {
 
     @Override
     public String toString() {
+        if (isModulated()) {
+            return String.format("%d*%d@%d%%", round(frequency), round(modulationFrequency), round(100 * amplitude));
+        }
         return String.format("%d@%d%%", round(frequency), round(100 * amplitude));
     }
 
@@ -155,6 +206,7 @@ public class Tone {
 
     @Override
     public boolean equals(Object a) {
-        return (a instanceof Tone && ((Tone) a).frequency == frequency && ((Tone) a).amplitude == amplitude);
+        return (a instanceof Tone && ((Tone) a).frequency == frequency && ((Tone) a).amplitude == amplitude
+                && ((Tone) a).modulationFrequency == modulationFrequency);
     }
 }
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound;
+
+import org.junit.Test;
+import org.linguafranca.sound.audio.AudioEncoder;
+import org.linguafranca.sound.audio.CadenceRenderer;
+import org.linguafranca.sound.cadence.Cadences;
+import org.linguafranca.sound.cadence.ToneScriptParser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author jo
+ */
+public class RenderTonesTest {
+
+    private final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+
+    private int run(String... args) throws IOException {
+        return RenderTones.run(args, stdout, new PrintStream(stderr, true));
+    }
+
+    @Test
+    public void name() throws IOException {
+        assertEquals(0, run("us_busy", "--rate", "8000", "--format", "ulaw"));
+        byte[] expected = new CadenceRenderer(AudioEncoder.ULAW_AUDIO_FORMAT)
+                .render(ToneScriptParser.parseToneScript(Cadences.CALL_PROGRESS.get("us_busy")));
+        assertArrayEquals(expected, stdout.toByteArray());
+        assertEquals(0, stderr.size());
+    }
+
+    @Test
+    public void script() throws IOException {
+        assertEquals(0, run("350@-13,440@-13;2(*/0/1+2)", "--rate", "16000"));
+        assertEquals(2 * 16000 * 2, stdout.size());
+    }
+
+    @Test
+    public void wav() throws IOException {
+        assertEquals(0, run("us_dial", "--format", "wav"));
+        byte[] streamed = stdout.toByteArray();
+        assertEquals(44 + 10 * 8000 * 2, streamed.length);
+        assertEquals("RIFF", new String(streamed, 0, 4, "US-ASCII"));
+
+        // the same as writing a file
+        Path path = Files.createTempFile("dial", ".wav");
+        try {
+            assertEquals(0, run("us_dial", "--format", "wav", "--output", path.toString()));
+            assertArrayEquals(Files.readAllBytes(path), streamed);
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void benchmark() throws IOException {
+        assertEquals(0, run("us_ringback", "--rate", "44100", "--benchmark"));
+        assertEquals(0, stdout.size());
+        String report = stderr.toString();
+        assertTrue(report, report.contains("441000 frames"));
+        System.out.print(report);
+    }
+
+    @Test
+    public void usage() throws IOException {
+        assertEquals(2, run());
+        assertEquals(2, run("us_busy", "--format", "mp3"));
+        assertEquals(2, run("us_busy", "--rate"));
+        assertEquals(2, run("us_busy", "us_dial"));
+        assertTrue(stderr.toString().contains("Usage"));
+        assertEquals(1, run("not a script"));
+        assertEquals(0, stdout.size());
+    }
+}
@@ -22,6 +22,8 @@ import org.junit.Test;
 import org.linguafranca.sound.tone.Tone;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.linguafranca.sound.tone.MidiTone.getVelocityFromAmplitude;
 import static org.linguafranca.sound.tone.Tone.getAmplitudeFromDb;
 import static org.linguafranca.sound.tone.Tone.getDbFromAmplitude;
@@ -64,6 +66,21 @@ public class ToneTest {
         Tone.makeToneFA(440.0, 0.5);
     }
 
+    @Test
+    public void modulated() {
+        Tone tone = Tone.makeToneFA(400.0, 0.5, 25.0);
+        assertTrue(tone.isModulated());
+        assertEquals("400*25@50%", tone.toString());
+        assertFalse(Tone.makeToneFA(400.0, 0.5).equals(tone));
+        assertEquals(Tone.makeToneFA(400.0, 0.5, 25.0), tone);
+        assertFalse(Tone.makeToneFA(400.0, 0.5).isModulated());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void checkCreate4() {
+        Tone.makeToneFA(400.0, 0.5, 400.0);
+    }
+
     @Test
     public void testDbAmplitude() {
         for (double amp = 0.0; amp <= 1.0; amp += 0.05){
@@ -105,4 +105,9 @@ public class AudioEncoderTest {
     public void play6() throws LineUnavailableException, InterruptedException, IOException {
         playStream(5000, AudioEncoder.createSample(WaveGenerator.Waveform.SINE, 1100, 0.8, 200));
     }
+
+    @Test
+    public void play7() throws LineUnavailableException, InterruptedException, IOException {
+        playStream(5000, AudioEncoder.createSample(AudioEncoder.TELEPHONY_AUDIO_FORMAT, WaveGenerator.Waveform.SINE, 440, 0.25, 200));
+    }
 }
\ No newline at end of file
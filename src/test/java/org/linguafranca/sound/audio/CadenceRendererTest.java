@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import org.junit.Test;
+import org.linguafranca.sound.cadence.CadenceScript;
+import org.linguafranca.sound.cadence.CadenceSection;
+import org.linguafranca.sound.cadence.CadenceSegment;
+import org.linguafranca.sound.cadence.Cadences;
+import org.linguafranca.sound.cadence.ToneScriptParser;
+
+import javax.sound.sampled.AudioFormat;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author jo
+ */
+public class CadenceRendererTest {
+
+    // 8kHz 16 bit little endian
+    private static final AudioFormat FORMAT = AudioEncoder.TELEPHONY_AUDIO_FORMAT;
+
+    private static CadenceSection getSection(String script) {
+        return ToneScriptParser.parseToneScript(script).getCadences().get(0);
+    }
+
+    /**
+     * The largest absolute sample value between two frames
+     */
+    private static int peak(byte[] data, int from, int to) {
+        int peak = 0;
+        for (int i = from; i < to; i++) {
+            int sample = (short) ((data[2 * i] & 0xFF) | (data[2 * i + 1] << 8));
+            peak = Math.max(peak, Math.abs(sample));
+        }
+        return peak;
+    }
+
+    @Test
+    public void layOut() {
+        // two segments looped and the second pass cut short
+        CadenceSection section = getSection("350@-19;0.5(.1/.05/1,.08/.02/1)");
+        List<String> parts = new ArrayList<>();
+        assertTrue(CadenceRenderer.layOut(section, 0, section.getDuration(), new CadenceRenderer.Layout() {
+            @Override
+            public boolean sound(CadenceSegment segment, long start, long end) {
+                parts.add(start + "-" + end);
+                return true;
+            }
+
+            @Override
+            public boolean silence(long end) {
+                parts.add("to " + end);
+                return true;
+            }
+        }));
+        assertEquals(Arrays.asList("0-100", "to 150", "150-230", "to 250", "250-350", "to 400", "400-480", "to 500"),
+                parts);
+    }
+
+    @Test
+    public void busy() {
+        byte[] data = new CadenceRenderer(FORMAT).render(getSection(Cadences.CALL_PROGRESS.get("us_busy")));
+        // exactly 10 seconds
+        assertEquals(80000 * 2, data.length);
+        for (int second = 0; second < 10; second++) {
+            int start = second * 8000;
+            assertTrue(peak(data, start + 100, start + 3900) > 1000);
+            assertEquals(0, peak(data, start + 4000, start + 8000));
+        }
+    }
+
+    @Test
+    public void indefinite() {
+        byte[] data = new CadenceRenderer(FORMAT).render(getSection(Cadences.CALL_PROGRESS.get("us_dial")));
+        assertEquals(80000 * 2, data.length);
+        for (int start = 100; start < 80000 - 100; start += 4000) {
+            assertTrue(peak(data, start, start + 100) > 1000);
+        }
+    }
+
+    @Test
+    public void truncated() {
+        // the second pass is cut short in the middle of its tone
+        CadenceRenderer renderer = new CadenceRenderer(FORMAT);
+        byte[] data = renderer.render(getSection("480@-24;1.3(.5/.5/1)"));
+        assertEquals(10400 * 2, data.length);
+        assertTrue(peak(data, 10000, 10400) > 1000);
+        assertEquals(2, renderer.plan(getSection("480@-24;1.3(.5/.5/1)")).getSoundCount());
+    }
+
+    @Test
+    public void repeatCount() {
+        // 3 seconds, 3 times (rather than 10 seconds)
+        CadenceSection section = getSection(Cadences.CALL_PROGRESS.get("uk_ringback"));
+        assertEquals(3, section.getRepeatCount());
+        CadenceRenderer renderer = new CadenceRenderer(FORMAT, Envelope.getDefault(FORMAT.getFrameRate()),
+                CadenceRenderer.Timing.REPEAT_COUNT);
+        CadenceRenderer.Timeline timeline = renderer.plan(section);
+        assertEquals(3 * 24000, timeline.getFrameCount());
+        assertEquals(6, timeline.getSoundCount());
+        assertEquals(80000, new CadenceRenderer(FORMAT).plan(section).getFrameCount());
+    }
+
+    @Test
+    public void script() {
+        CadenceScript script = ToneScriptParser.parseToneScript("350@-13,440@-13;2(.1/.1/1+2);3(*/0/1)");
+        CadenceRenderer renderer = new CadenceRenderer(FORMAT);
+        assertEquals(5 * 8000, renderer.plan(script).getFrameCount());
+        byte[] data = renderer.render(script);
+        assertEquals(5 * 8000 * 2, data.length);
+        // the silence at the end of the first section and the sound of the second
+        assertEquals(0, peak(data, 15200, 16000));
+        assertTrue(peak(data, 16100, 40000) > 1000);
+    }
+
+    @Test
+    public void sil() {
+        // a segment with no tones is silence
+        byte[] data = new CadenceRenderer(FORMAT).render(getSection(Cadences.CALL_PROGRESS.get("us_SIT")));
+        assertEquals(5 * 8000 * 2, data.length);
+        assertEquals(0, peak(data, 8288, 16000));
+    }
+
+    @Test
+    public void chunks() {
+        // the same frames however the timeline is divided up
+        CadenceRenderer.Timeline timeline = new CadenceRenderer(FORMAT)
+                .plan(getSection("400*25@-20,450@-20;2(.123/.077/1+2,*/0/2)"));
+        int frames = (int) timeline.getFrameCount();
+        float[] whole = new float[frames];
+        timeline.render(0, whole, 0, frames);
+        float[] pieces = new float[frames];
+        for (int start = 0, length = 1; start < frames; start += length, length = length * 3 + 7) {
+            timeline.render(start, pieces, start, Math.min(length, frames - start));
+        }
+        assertArrayEquals(whole, pieces, 0.0F);
+        // and in pieces smaller than a block, last first
+        float[] backwards = new float[frames];
+        for (int start = frames - frames % 100; start >= 0; start -= 100) {
+            timeline.render(start, backwards, start, Math.min(100, frames - start));
+        }
+        assertArrayEquals(whole, backwards, 0.0F);
+    }
+
+    @Test
+    public void parallel() {
+        // a minute of ringback, the same as rendering sequentially in every format
+        CadenceScript script = ToneScriptParser.parseToneScript("400*25@-20,450@-20;60(.4/.2/1+2,.4/2/1+2)");
+        AudioFormat[] formats = {FORMAT, AudioEncoder.DEFAULT_AUDIO_FORMAT, AudioEncoder.ULAW_AUDIO_FORMAT,
+                AudioEncoder.makeFloatFormat(8000.0F, 1, true), AudioEncoder.makeFormat(8000.0F, 24, 2, false)};
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (AudioFormat format : formats) {
+                CadenceRenderer renderer = new CadenceRenderer(format);
+                assertArrayEquals(renderer.render(script), renderer.render(script, pool));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void buffers() throws Exception {
+        CadenceScript script = ToneScriptParser.parseToneScript("400*25@-20,450@-20;3(.4/.2/1+2,.4/2/1+2)");
+        CadenceRenderer renderer = new CadenceRenderer(FORMAT);
+        CadenceRenderer.Timeline timeline = renderer.plan(script);
+        byte[] expected = renderer.render(timeline);
+        int length = expected.length;
+
+        // heap, direct and mapped, with something before the position and after the limit
+        Path file = Files.createTempFile("render", ".pcm");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer[] buffers = {ByteBuffer.allocate(length + 20), ByteBuffer.allocateDirect(length + 20),
+                    channel.map(FileChannel.MapMode.READ_WRITE, 0, length + 20)};
+            for (ByteBuffer buffer : buffers) {
+                buffer.position(10).limit(length + 10);
+                renderer.render(timeline, buffer, ForkJoinPool.commonPool());
+                assertEquals(length + 10, buffer.position());
+                byte[] actual = new byte[length];
+                buffer.position(10);
+                buffer.get(actual);
+                assertArrayEquals(expected, actual);
+                assertEquals(0, buffer.get(9));
+                buffer.limit(length + 20);
+                assertEquals(0, buffer.get(length + 10));
+            }
+        } finally {
+            Files.delete(file);
+        }
+
+        // streamed through a small buffer, an odd number of bytes so the last frame doesn't fit
+        ByteBuffer small = ByteBuffer.allocateDirect(1001);
+        byte[] streamed = new byte[length];
+        long frame = 0;
+        int done = 0;
+        while (frame < timeline.getFrameCount()) {
+            small.clear();
+            int frames = renderer.render(timeline, frame, small);
+            assertEquals(frames * 2, small.position());
+            assertTrue(frames == 500 || frame + frames == timeline.getFrameCount());
+            small.flip();
+            small.get(streamed, done, small.remaining());
+            done += frames * 2;
+            frame += frames;
+        }
+        assertArrayEquals(expected, streamed);
+        small.clear();
+        assertEquals(0, renderer.render(timeline, frame, small));
+        assertEquals(0, small.position());
+    }
+
+    @Test
+    public void parallelBenchmark() {
+        CadenceScript script = ToneScriptParser.parseToneScript(Cadences.CALL_PROGRESS.get("us_ringback").replace("10(", "300("));
+        CadenceRenderer renderer = new CadenceRenderer(AudioEncoder.DEFAULT_AUDIO_FORMAT);
+        CadenceRenderer.Timeline timeline = renderer.plan(script);
+        long sequential = Long.MAX_VALUE;
+        long parallel = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            long start = System.nanoTime();
+            renderer.render(timeline);
+            sequential = Math.min(sequential, System.nanoTime() - start);
+            start = System.nanoTime();
+            renderer.render(timeline, ForkJoinPool.commonPool());
+            parallel = Math.min(parallel, System.nanoTime() - start);
+        }
+        System.out.format("5 minutes of ringback: sequential %.1f ms, parallel %.1f ms on %d threads%n",
+                sequential / 1e6, parallel / 1e6, ForkJoinPool.commonPool().getParallelism());
+    }
+
+    @Test
+    public void benchmark() {
+        CadenceScript script = ToneScriptParser.parseToneScript("30 seconds busy", "480@-24,620@-24;30(.5/.5/1+2)");
+        AudioFormat format = AudioEncoder.DEFAULT_AUDIO_FORMAT;
+        CadenceRenderer renderer = new CadenceRenderer(format);
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 20; i++) {
+            long start = System.nanoTime();
+            byte[] data = renderer.render(script);
+            best = Math.min(best, System.nanoTime() - start);
+            assertEquals(30 * 44100 * format.getFrameSize(), data.length);
+        }
+        System.out.format("30s of busy tone at 44.1kHz rendered in %.1f ms%n", best / 1e6);
+    }
+}
@@ -20,8 +20,16 @@ package org.linguafranca.sound.audio;
 import org.junit.Before;
 import org.junit.Test;
 import org.linguafranca.sound.cadence.*;
+import org.linguafranca.sound.tone.Tone;
 import org.slf4j.LoggerFactory;
 
+import javax.sound.sampled.AudioFormat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
 /**
  * @author jo
  */
@@ -54,6 +62,31 @@ public class CadenceSectionPlaybackTest {
         }
     }
 
+    @Test
+    public void drift() {
+        // silent, so needs no sound device
+        CadenceSection section = ToneScriptParser.parseCadenceSection("1(.02/.03)", new Tone.List());
+        AudioFormat format = AudioEncoder.DEFAULT_AUDIO_FORMAT;
+        for (CadenceSectionPlayback.Scheduling scheduling : CadenceSectionPlayback.Scheduling.values()) {
+            CadenceSectionPlayback playback = new CadenceSectionPlayback(format,
+                    Envelope.getDefault(format.getFrameRate()), null, scheduling);
+            assertNull(playback.getLastDrift());
+            long start = System.nanoTime();
+            assertTrue(playback.play(section));
+            long elapsed = System.nanoTime() - start;
+            CadenceSectionPlayback.Drift drift = playback.getLastDrift();
+            System.out.format("%-8s %s, section took %.3f ms%n", scheduling, drift, elapsed / 1e6);
+            assertSame(section, drift.getSection());
+            assertTrue(drift.getBoundaries() > 0);
+            if (scheduling == CadenceSectionPlayback.Scheduling.DEADLINE) {
+                // the rests end every 50ms, and lateness doesn't accumulate
+                assertEquals(20, drift.getBoundaries());
+                assertTrue(drift.getFinalNanos() >= 0 && drift.getFinalNanos() < 20000000);
+                assertTrue(elapsed >= 1000000000L);
+            }
+        }
+    }
+
     @Test
     public void playDTMF() {
         CadenceSectionPlayback playback = new CadenceSectionPlayback();
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import org.junit.Test;
+import org.linguafranca.sound.tone.Tone;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.Clip;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Uses Clips that only keep track of whether they are open and running, so needs no sound device
+ *
+ * @author jo
+ */
+public class ClipPoolTest {
+
+    private static final AudioFormat FORMAT = AudioEncoder.TELEPHONY_AUDIO_FORMAT;
+
+    /**
+     * The state of a pretend Clip
+     */
+    private static class ClipState {
+        boolean open = false;
+        boolean running = false;
+        int opens = 0;
+        int closes = 0;
+    }
+
+    private final List<ClipState> states = new ArrayList<>();
+
+    private Clip makeClip() {
+        ClipState state = new ClipState();
+        states.add(state);
+        return (Clip) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Clip.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "open":
+                            assertFalse("already open", state.open);
+                            state.open = true;
+                            state.opens++;
+                            return null;
+                        case "close":
+                            state.open = false;
+                            state.running = false;
+                            state.closes++;
+                            return null;
+                        case "start":
+                        case "loop":
+                            state.running = true;
+                            return null;
+                        case "stop":
+                            state.running = false;
+                            return null;
+                        case "isOpen":
+                            return state.open;
+                        case "isRunning":
+                            return state.running;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    private static ToneKey makeKey(double frequency) {
+        return new ToneKey(Collections.singletonList(Tone.makeToneFD(frequency, -20)), 100);
+    }
+
+    private static RenderedTone makeTone(ToneKey key) {
+        return new RenderedTone(key, FORMAT, new byte[1600], 0, 1600, -1);
+    }
+
+    /**
+     * Get a tone and give it back, as when it has been played
+     */
+    private EncodedTone get(ClipPool pool, ToneKey key) throws Exception {
+        EncodedTone tone = pool.get(key, () -> makeTone(key));
+        pool.release(tone);
+        return tone;
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        ClipPool pool = new ClipPool(2, this::makeClip);
+        ToneKey a = makeKey(400);
+        ToneKey b = makeKey(425);
+        ToneKey c = makeKey(450);
+
+        EncodedTone toneA = get(pool, a);
+        EncodedTone toneB = get(pool, b);
+        assertSame(toneA, get(pool, a));
+        assertEquals(2, states.size());
+
+        // b is least recently used, so goes, and its Clip is reused for c
+        EncodedTone toneC = get(pool, c);
+        assertEquals(2, states.size());
+        assertSame(toneB.getClip(), toneC.getClip());
+        assertEquals(1, states.get(1).closes);
+        assertEquals(2, states.get(1).opens);
+        assertTrue(states.get(1).open);
+        assertEquals(2, pool.size());
+        assertSame(toneA, get(pool, a));
+
+        ClipPool.Stats stats = pool.getStats();
+        assertEquals(2, stats.getHits());
+        assertEquals(3, stats.getMisses());
+        assertEquals(1, stats.getEvictions());
+        assertEquals(2, stats.getOpened());
+        assertEquals(2, stats.getSize());
+        assertEquals(0.4, stats.getHitRate(), 1e-9);
+
+        pool.close();
+        assertEquals(0, pool.size());
+        for (ClipState state : states) {
+            assertFalse(state.open);
+        }
+    }
+
+    @Test
+    public void playingClipsAreNotEvicted() throws Exception {
+        ClipPool pool = new ClipPool(2, this::makeClip);
+        AtomicInteger renders = new AtomicInteger();
+        EncodedTone toneA = get(pool, makeKey(400));
+        EncodedTone toneB = get(pool, makeKey(425));
+        toneA.play();
+        toneB.play();
+
+        // both playing, so another Clip is opened
+        EncodedTone toneC = pool.get(makeKey(450), () -> {
+            renders.incrementAndGet();
+            return makeTone(makeKey(450));
+        });
+        assertEquals(1, renders.get());
+        assertEquals(3, states.size());
+        assertEquals(3, pool.size());
+        assertEquals(0, pool.getStats().getEvictions());
+
+        // once they stop, the pool shrinks back to its size
+        toneA.stop();
+        toneB.stop();
+        EncodedTone toneD = get(pool, makeKey(475));
+        assertEquals(3, states.size());
+        assertEquals(2, pool.size());
+        assertEquals(2, pool.getStats().getEvictions());
+        assertSame(toneA.getClip(), toneD.getClip());
+        assertNotSame(toneC.getClip(), toneD.getClip());
+        assertFalse(states.get(1).open);
+        assertTrue(states.get(2).open);
+    }
+
+    @Test
+    public void tonesInUseAreNotEvicted() throws Exception {
+        ClipPool pool = new ClipPool(1, this::makeClip);
+        ToneKey a = makeKey(400);
+        // got by one thread and not yet started
+        EncodedTone toneA = pool.get(a, () -> makeTone(a));
+
+        // so another thread wanting another tone gets another Clip
+        EncodedTone toneB = get(pool, makeKey(425));
+        assertNotSame(toneA.getClip(), toneB.getClip());
+        assertTrue(states.get(0).open);
+        assertEquals(0, pool.getStats().getEvictions());
+
+        // and once it has been given back it may go
+        pool.release(toneA);
+        EncodedTone toneC = get(pool, makeKey(450));
+        assertSame(toneA.getClip(), toneC.getClip());
+        assertEquals(2, states.get(0).opens);
+        assertFalse(states.get(1).open);
+        assertEquals(1, pool.size());
+    }
+}
@@ -21,6 +21,7 @@ import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.Logger;
 import org.junit.Before;
 import org.junit.Test;
+import org.linguafranca.sound.cadence.Cadences;
 import org.linguafranca.sound.tone.Tone;
 import org.slf4j.LoggerFactory;
 
@@ -61,4 +62,19 @@ public class EncodedToneTest {
         }
     }
 
+    @Test
+    public void makeMixedToneTest() throws LineUnavailableException, InterruptedException, IOException {
+        // all the tones of a ringer mixed together on one line
+        int duration = 1000;
+        EncodedTone encodedTone = EncodedTone.encodeTones(Cadences.REGULAR_PHONE_RING, duration);
+
+        encodedTone.getClip().addLineListener(event -> logger.info("Event {}", event));
+        encodedTone.play();
+
+        Thread.sleep(duration);
+        if (encodedTone.getClip().isActive()) {
+            encodedTone.stop();
+        }
+    }
+
 }
\ No newline at end of file
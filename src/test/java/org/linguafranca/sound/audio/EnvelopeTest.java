@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import org.junit.Test;
+import org.linguafranca.sound.tone.Tone;
+
+import javax.sound.sampled.AudioInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author jo
+ */
+public class EnvelopeTest {
+
+    private static final float FRAME_RATE = 8000.0F;
+
+    @Test
+    public void ramps() {
+        // 5ms at 8kHz
+        Envelope envelope = new Envelope(Envelope.Shape.LINEAR, 5, 5, FRAME_RATE);
+        assertEquals(40, envelope.getAttackFrames());
+        assertEquals(40, envelope.getReleaseFrames());
+
+        float[] buffer = new float[1000];
+        Arrays.fill(buffer, 1.0F);
+        envelope.apply(buffer, 0, buffer.length, 0, buffer.length);
+
+        assertEquals(1.0 / 41, buffer[0], 1e-6);
+        assertEquals(40.0 / 41, buffer[39], 1e-6);
+        assertEquals(1.0, buffer[40], 0.0);
+        assertEquals(1.0, buffer[959], 0.0);
+        assertEquals(40.0 / 41, buffer[960], 1e-6);
+        assertEquals(1.0 / 41, buffer[999], 1e-6);
+        for (int i = 1; i < 40; i++) {
+            assertTrue(buffer[i] > buffer[i - 1]);
+        }
+    }
+
+    @Test
+    public void raisedCosine() {
+        assertEquals(0.0, Envelope.Shape.RAISED_COSINE.getValue(0.0), 1e-9);
+        assertEquals(0.5, Envelope.Shape.RAISED_COSINE.getValue(0.5), 1e-9);
+        assertEquals(1.0, Envelope.Shape.RAISED_COSINE.getValue(1.0), 1e-9);
+        assertEquals(0.5, Envelope.Shape.LINEAR.getValue(0.5), 1e-9);
+    }
+
+    @Test
+    public void blocks() {
+        Envelope envelope = Envelope.getDefault(FRAME_RATE);
+        float[] whole = new float[300];
+        Arrays.fill(whole, 0.5F);
+        envelope.apply(whole, 0, whole.length, 0, whole.length);
+
+        // the same applied in pieces at an offset in a larger buffer
+        float[] pieces = new float[whole.length + 7];
+        Arrays.fill(pieces, 0.5F);
+        for (int position = 0; position < whole.length; position += 13) {
+            int frames = Math.min(13, whole.length - position);
+            envelope.apply(pieces, 7 + position, frames, position, whole.length);
+        }
+        for (int i = 0; i < whole.length; i++) {
+            assertEquals(whole[i], pieces[i + 7], 0.0F);
+        }
+
+        // without an end there is no release
+        Arrays.fill(pieces, 0.5F);
+        envelope.apply(pieces, 0, pieces.length, 0, Long.MAX_VALUE);
+        assertEquals(0.5F, pieces[pieces.length - 1], 0.0F);
+    }
+
+    @Test
+    public void segment() throws IOException {
+        Tone.List tones = new Tone.List();
+        tones.add(Tone.makeToneFA(941, 0.5));
+        tones.add(Tone.makeToneFA(1336, 0.5));
+        AudioInputStream stream = AudioEncoder.createSegment(AudioEncoder.TELEPHONY_AUDIO_FORMAT, tones, 100,
+                Envelope.getDefault(FRAME_RATE));
+        assertEquals(800, stream.getFrameLength());
+
+        byte[] data = new byte[1600];
+        assertEquals(1600, stream.read(data));
+        // starts and ends close to silence
+        int first = (short) ((data[3] << 8) | (data[2] & 0xFF));
+        int last = (short) ((data[1599] << 8) | (data[1598] & 0xFF));
+        assertTrue(Math.abs(first) < 500);
+        assertTrue(Math.abs(last) < 500);
+    }
+}
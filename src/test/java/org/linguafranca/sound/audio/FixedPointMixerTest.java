@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import org.junit.Test;
+import org.linguafranca.sound.tone.Tone;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author jo
+ */
+public class FixedPointMixerTest {
+
+    private static final AudioFormat FORMAT = AudioEncoder.TELEPHONY_AUDIO_FORMAT;
+
+    private static Tone.List dialTone() {
+        Tone.List tones = new Tone.List();
+        tones.add(Tone.makeToneFD(350, -13));
+        tones.add(Tone.makeToneFD(440, -13));
+        return tones;
+    }
+
+    private static byte[] readAll(InputStream stream) throws IOException {
+        byte[] data = new byte[stream.available()];
+        int read = 0;
+        while (read < data.length) {
+            read += stream.read(data, read, data.length - read);
+        }
+        return data;
+    }
+
+    private static short[] toShorts(byte[] data) {
+        short[] shorts = new short[data.length / 2];
+        for (int i = 0; i < shorts.length; i++) {
+            shorts[i] = (short) ((data[2 * i + 1] << 8) | (data[2 * i] & 0xFF));
+        }
+        return shorts;
+    }
+
+    @Test
+    public void sine() {
+        assertEquals(0, FixedPointMixer.sine(0));
+        assertEquals(32767, FixedPointMixer.sine(1 << 30));
+        assertEquals(0, FixedPointMixer.sine(1 << 31));
+        assertEquals(-32767, FixedPointMixer.sine(3 << 30));
+    }
+
+    @Test
+    public void closeToFloat() throws IOException {
+        Envelope envelope = Envelope.getDefault(FORMAT.getFrameRate());
+        short[] fixed = toShorts(readAll(AudioEncoder.createSegment(FORMAT, dialTone(), 1000, envelope, AudioEncoder.Synthesis.FIXED_POINT)));
+        short[] floating = toShorts(readAll(AudioEncoder.createSegment(FORMAT, dialTone(), 1000, envelope, AudioEncoder.Synthesis.FLOAT)));
+        assertEquals(8000, fixed.length);
+        int maxDifference = 0;
+        for (int i = 0; i < fixed.length; i++) {
+            maxDifference = Math.max(maxDifference, Math.abs(fixed[i] - floating[i]));
+        }
+        System.out.format("max difference from float %d\n", maxDifference);
+        assertTrue(maxDifference <= 4);
+    }
+
+    /**
+     * The same output every time and on every JVM
+     */
+    @Test
+    public void reproducible() throws IOException {
+        byte[] first = readAll(AudioEncoder.createSegment(FORMAT, dialTone(), 1000, Envelope.getDefault(8000F), AudioEncoder.Synthesis.FIXED_POINT));
+        byte[] second = readAll(AudioEncoder.createSegment(FORMAT, dialTone(), 1000, Envelope.getDefault(8000F), AudioEncoder.Synthesis.FIXED_POINT));
+        assertArrayEquals(first, second);
+        CRC32 crc = new CRC32();
+        crc.update(first);
+        System.out.format("crc %08x\n", crc.getValue());
+    }
+
+    @Test
+    public void supported() {
+        assertTrue(FixedPointMixer.isSupported(FORMAT, dialTone()));
+        assertTrue(FixedPointMixer.isSupported(AudioEncoder.DEFAULT_AUDIO_FORMAT, dialTone()));
+        assertFalse(FixedPointMixer.isSupported(AudioEncoder.ULAW_AUDIO_FORMAT, dialTone()));
+        Tone.List modulated = new Tone.List();
+        modulated.add(Tone.makeToneFA(400, 0.5, 25));
+        assertFalse(FixedPointMixer.isSupported(FORMAT, modulated));
+    }
+
+    /**
+     * Compare the time per frame of rendering 16 bit output in floating and fixed point
+     */
+    @Test
+    public void benchmark() {
+        int frames = (int) AudioEncoder.DEFAULT_AUDIO_FORMAT.getFrameRate() * 5;
+        PcmEncoder encoder = new PcmEncoder(AudioEncoder.DEFAULT_AUDIO_FORMAT);
+        long floatNanos = Long.MAX_VALUE;
+        long fixedNanos = Long.MAX_VALUE;
+        for (int run = 0; run < 20; run++) {
+            long start = System.nanoTime();
+            AudioEncoder.render(new ToneMixer(WaveGenerator.Waveform.SINE, dialTone(), 44100F), frames, encoder);
+            floatNanos = Math.min(floatNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            AudioEncoder.render(new FixedPointMixer(dialTone(), 44100F), frames, encoder, null, frames);
+            fixedNanos = Math.min(fixedNanos, System.nanoTime() - start);
+        }
+        System.out.format("%-12s %8.2f ns/frame\n", "float", (double) floatNanos / frames);
+        System.out.format("%-12s %8.2f ns/frame\n", "fixed point", (double) fixedNanos / frames);
+    }
+}
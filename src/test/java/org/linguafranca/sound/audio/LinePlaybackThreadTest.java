@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import org.junit.Test;
+import org.linguafranca.sound.cadence.CadenceSection;
+import org.linguafranca.sound.cadence.ToneScriptParser;
+import org.linguafranca.sound.player.QueueItem;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Control;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.LineListener;
+import javax.sound.sampled.SourceDataLine;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Plays into a line that records what it is given rather than making a sound, so needs no sound device
+ *
+ * @author jo
+ */
+public class LinePlaybackThreadTest {
+
+    private static final AudioFormat FORMAT = AudioEncoder.TELEPHONY_AUDIO_FORMAT;
+
+    /**
+     * A line that plays everything as soon as it is written, taking a millisecond over each write
+     */
+    private static class RecordingLine implements SourceDataLine {
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        volatile int opens = 0;
+        volatile int flushes = 0;
+        volatile boolean open = false;
+        volatile boolean running = false;
+        private int bufferSize;
+        private AudioFormat format;
+
+        @Override
+        public void open(AudioFormat format, int bufferSize) {
+            this.format = format;
+            this.bufferSize = bufferSize;
+            opens++;
+            open = true;
+        }
+
+        @Override
+        public void open(AudioFormat format) {
+            open(format, format.getFrameSize() * 1024);
+        }
+
+        @Override
+        public int write(byte[] b, int off, int len) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (written) {
+                written.write(b, off, len);
+            }
+            return len;
+        }
+
+        byte[] getWritten() {
+            synchronized (written) {
+                return written.toByteArray();
+            }
+        }
+
+        @Override
+        public void drain() {
+        }
+
+        @Override
+        public void flush() {
+            flushes++;
+        }
+
+        @Override
+        public void start() {
+            running = true;
+        }
+
+        @Override
+        public void stop() {
+            running = false;
+        }
+
+        @Override
+        public boolean isRunning() {
+            return running;
+        }
+
+        @Override
+        public boolean isActive() {
+            return running;
+        }
+
+        @Override
+        public AudioFormat getFormat() {
+            return format;
+        }
+
+        @Override
+        public int getBufferSize() {
+            return bufferSize;
+        }
+
+        @Override
+        public int available() {
+            return bufferSize;
+        }
+
+        @Override
+        public int getFramePosition() {
+            return (int) getLongFramePosition();
+        }
+
+        @Override
+        public long getLongFramePosition() {
+            synchronized (written) {
+                return written.size() / format.getFrameSize();
+            }
+        }
+
+        @Override
+        public long getMicrosecondPosition() {
+            return (long) (getLongFramePosition() * 1e6 / format.getFrameRate());
+        }
+
+        @Override
+        public float getLevel() {
+            return AudioSystem.NOT_SPECIFIED;
+        }
+
+        @Override
+        public Line.Info getLineInfo() {
+            return new Line.Info(SourceDataLine.class);
+        }
+
+        @Override
+        public void open() {
+            open(FORMAT);
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public Control[] getControls() {
+            return new Control[0];
+        }
+
+        @Override
+        public boolean isControlSupported(Control.Type control) {
+            return false;
+        }
+
+        @Override
+        public Control getControl(Control.Type control) {
+            throw new IllegalArgumentException("No controls");
+        }
+
+        @Override
+        public void addLineListener(LineListener listener) {
+        }
+
+        @Override
+        public void removeLineListener(LineListener listener) {
+        }
+    }
+
+    private static CadenceSection getSection(String script) {
+        return ToneScriptParser.parseToneScript(script).getCadences().get(0);
+    }
+
+    private static void await(QueueItem<CadenceSection> item, long millis) throws InterruptedException {
+        long end = System.currentTimeMillis() + millis;
+        //noinspection SynchronizationOnLocalVariableOrMethodParameter
+        synchronized (item) {
+            while (!item.isFinished() && !item.isAbandoned() && System.currentTimeMillis() < end) {
+                item.wait(10);
+            }
+        }
+    }
+
+    @Test
+    public void framesAsRendered() throws Exception {
+        CadenceSection first = getSection("350@-19,440@-19;1(.1/.1/1+2)");
+        CadenceSection second = getSection("400@-20;0.5(.2/.05/1)");
+        LinePlaybackThread thread = new LinePlaybackThread(FORMAT, 50);
+        RecordingLine line = new RecordingLine();
+        thread.openLine(line);
+        QueueItem<CadenceSection> firstItem = new QueueItem<>(first);
+        QueueItem<CadenceSection> secondItem = new QueueItem<>(second);
+        assertTrue(thread.queue(firstItem));
+        assertTrue(thread.queue(secondItem));
+        thread.start();
+        try {
+            await(secondItem, 5000);
+            assertTrue(firstItem.isFinished());
+            assertTrue(secondItem.isFinished());
+        } finally {
+            assertTrue(thread.stopThread(1000));
+        }
+        assertEquals(1, line.opens);
+        assertFalse(line.isOpen());
+
+        // the sections back to back, silences included, then silence while idle
+        CadenceRenderer renderer = new CadenceRenderer(FORMAT);
+        byte[] expectedFirst = renderer.render(first);
+        byte[] expectedSecond = renderer.render(second);
+        byte[] written = line.getWritten();
+        assertEquals(8000 * 2 + 4000 * 2, expectedFirst.length + expectedSecond.length);
+        assertTrue(written.length >= expectedFirst.length + expectedSecond.length);
+        assertArrayEquals(expectedFirst, Arrays.copyOfRange(written, 0, expectedFirst.length));
+        assertArrayEquals(expectedSecond, Arrays.copyOfRange(written, expectedFirst.length,
+                expectedFirst.length + expectedSecond.length));
+        for (int i = expectedFirst.length + expectedSecond.length; i < written.length; i++) {
+            assertEquals(0, written[i]);
+        }
+    }
+
+    @Test
+    public void cancel() throws Exception {
+        LinePlaybackThread thread = new LinePlaybackThread(FORMAT, 50);
+        RecordingLine line = new RecordingLine();
+        thread.openLine(line);
+        thread.start();
+        try {
+            // a minute takes a few seconds to write
+            QueueItem<CadenceSection> playing = new QueueItem<>(getSection("350@-19;60(*/0/1)"));
+            QueueItem<CadenceSection> queued = new QueueItem<>(getSection("350@-19;60(*/0/1)"));
+            assertTrue(thread.queue(playing));
+            assertTrue(thread.queue(queued));
+            while (!playing.isStarted()) {
+                Thread.sleep(5);
+            }
+            thread.cancelPlayback();
+            await(playing, 1000);
+            assertTrue(playing.isAbandoned());
+            assertTrue(queued.isAbandoned());
+            assertEquals(1, line.flushes);
+            assertTrue(line.getWritten().length < 8000 * 2 * 60);
+
+            // and plays on afterwards
+            QueueItem<CadenceSection> next = new QueueItem<>(getSection("350@-19;0.2(*/0/1)"));
+            assertTrue(thread.queue(next));
+            await(next, 5000);
+            assertTrue(next.isFinished());
+        } finally {
+            assertTrue(thread.stopThread(1000));
+        }
+        assertEquals(1, line.opens);
+        assertFalse(line.isOpen());
+    }
+}
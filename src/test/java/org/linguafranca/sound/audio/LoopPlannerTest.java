@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import org.junit.Test;
+import org.linguafranca.sound.cadence.CadenceScript;
+import org.linguafranca.sound.cadence.Cadences;
+import org.linguafranca.sound.cadence.ToneScriptParser;
+import org.linguafranca.sound.tone.Tone;
+
+import javax.sound.sampled.AudioFormat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author jo
+ */
+public class LoopPlannerTest {
+
+    private static final AudioFormat FORMAT = AudioEncoder.DEFAULT_AUDIO_FORMAT;
+
+    @Test
+    public void dialTone() {
+        Tone.List tones = new Tone.List();
+        tones.add(Tone.makeToneFD(350, -13));
+        tones.add(Tone.makeToneFD(440, -13));
+
+        // 100ms holds exactly 35 and 44 cycles
+        long frames = LoopPlanner.DEFAULT.plan(tones, FORMAT);
+        assertEquals(4410, frames);
+        assertEquals(0.0, LoopPlanner.getPhaseError(tones, FORMAT.getFrameRate(), frames), 1e-9);
+
+        // 200 periods of 350Hz leaves 440Hz nearly half a cycle out
+        long legacy = Oscillator.getFramesForPeriods(350, FORMAT.getFrameRate(), 200);
+        assertTrue(LoopPlanner.getPhaseError(tones, FORMAT.getFrameRate(), legacy) > 0.4);
+    }
+
+    @Test
+    public void modulation() {
+        Tone.List tones = new Tone.List();
+        tones.add(Tone.makeToneFA(400, 0.5, 25));
+        // a whole cycle of 25Hz
+        assertEquals(1764, new LoopPlanner(1 << 20, 0.001, 0).plan(tones, FORMAT));
+    }
+
+    @Test
+    public void budget() {
+        CadenceScript script = ToneScriptParser.parseToneScript(Cadences.CALL_PROGRESS.get("us_SIT"));
+        Tone.List tones = script.getTones();
+
+        LoopPlanner planner = new LoopPlanner(256 * 1024, 0.001, 100);
+        long frames = planner.plan(tones, FORMAT);
+        assertTrue(frames * FORMAT.getFrameSize() <= planner.getMaxBytes());
+        double error = LoopPlanner.getPhaseError(tones, FORMAT.getFrameRate(), frames);
+        System.out.format("us_SIT loop %d frames error %.4f cycles\n", frames, error);
+
+        // no worse than 200 periods of the lowest tone
+        long legacy = Oscillator.getFramesForPeriods(985.2, FORMAT.getFrameRate(), 200);
+        assertTrue(error <= LoopPlanner.getPhaseError(tones, FORMAT.getFrameRate(), legacy));
+    }
+
+    @Test
+    public void telephony() {
+        // every tone in CALL_PROGRESS fits in the default budget
+        for (String name : Cadences.CALL_PROGRESS.keySet()) {
+            CadenceScript script = ToneScriptParser.parseToneScript(Cadences.CALL_PROGRESS.get(name));
+            long frames = LoopPlanner.DEFAULT.plan(script.getTones(), AudioEncoder.TELEPHONY_AUDIO_FORMAT);
+            double error = LoopPlanner.getPhaseError(script.getTones(), 8000F, frames);
+            System.out.format("%-20s %8d frames %.4f cycles\n", name, frames, error);
+            assertTrue(frames * 2 <= LoopPlanner.DEFAULT.getMaxBytes());
+        }
+    }
+}
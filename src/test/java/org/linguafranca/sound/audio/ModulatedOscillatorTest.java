@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import org.junit.Test;
+import org.linguafranca.sound.tone.Tone;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author jo
+ */
+public class ModulatedOscillatorTest {
+
+    private static final float FRAME_RATE = 8000.0F;
+
+    @Test
+    public void envelope() {
+        float[] buffer = new float[(int) FRAME_RATE];
+        new ModulatedOscillator(WaveGenerator.Waveform.SINE, 400, WaveGenerator.SINE_MODULATOR, 25, FRAME_RATE)
+                .fill(buffer, 0, buffer.length, 0.5);
+        for (int i = 0; i < buffer.length; i++) {
+            double expected = 0.5 * WaveGenerator.SINE_MODULATOR.getValue((i * 25.0 / FRAME_RATE) % 1.0,
+                    WaveGenerator.Waveform.SINE.getValue((i * 400.0 / FRAME_RATE) % 1.0));
+            assertEquals(expected, buffer[i], 1e-5);
+        }
+    }
+
+    @Test
+    public void identity() {
+        float[] plain = new float[10000];
+        new Oscillator(WaveGenerator.Waveform.SINE, 985.2, FRAME_RATE).fill(plain, 0, plain.length, 0.5);
+
+        float[] modulated = new float[plain.length];
+        ModulatedOscillator oscillator = new ModulatedOscillator(WaveGenerator.Waveform.SINE, 985.2,
+                WaveGenerator.IDENTITY_MODULATOR, 25, FRAME_RATE);
+        oscillator.fill(modulated, 0, 5000, 0.5);
+        oscillator.add(modulated, 5000, 5000, 0.5);
+        for (int i = 0; i < plain.length; i++) {
+            assertEquals(plain[i], modulated[i], 1e-6F);
+        }
+    }
+
+    @Test
+    public void mixer() {
+        Tone.List tones = new Tone.List();
+        tones.add(Tone.makeToneFA(400, 0.5, 25));
+        float[] mix = new float[1000];
+        new ToneMixer(WaveGenerator.Waveform.SINE, tones, FRAME_RATE).read(mix, 0, mix.length);
+
+        float[] expected = new float[mix.length];
+        new ModulatedOscillator(WaveGenerator.Waveform.SINE, 400, WaveGenerator.SINE_MODULATOR, 25, FRAME_RATE)
+                .fill(expected, 0, expected.length, 0.5);
+        for (int i = 0; i < mix.length; i++) {
+            assertEquals(expected[i], mix[i], 0.0F);
+        }
+    }
+
+    /**
+     * Compare the time per sample with and without modulation
+     */
+    @Test
+    public void benchmark() {
+        float[] buffer = new float[(int) FRAME_RATE * 5];
+        Oscillator plain = new Oscillator(WaveGenerator.Waveform.SINE, 400, FRAME_RATE);
+        Oscillator modulated = new ModulatedOscillator(WaveGenerator.Waveform.SINE, 400, WaveGenerator.SINE_MODULATOR, 25, FRAME_RATE);
+        long plainNanos = Long.MAX_VALUE;
+        long modulatedNanos = Long.MAX_VALUE;
+        for (int run = 0; run < 20; run++) {
+            long start = System.nanoTime();
+            plain.fill(buffer, 0, buffer.length, 0.5);
+            plainNanos = Math.min(plainNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            modulated.fill(buffer, 0, buffer.length, 0.5);
+            modulatedNanos = Math.min(modulatedNanos, System.nanoTime() - start);
+        }
+        System.out.format("%-12s %8.2f ns/sample\n", "plain", (double) plainNanos / buffer.length);
+        System.out.format("%-12s %8.2f ns/sample\n", "modulated", (double) modulatedNanos / buffer.length);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author jo
+ */
+public class NoiseSourceTest {
+
+    private static final int FRAMES = 44100;
+
+    private static float[] read(NoiseSource source) {
+        float[] buffer = new float[FRAMES];
+        source.read(buffer, 0, buffer.length);
+        return buffer;
+    }
+
+    @Test
+    public void seeded() {
+        for (NoiseSource.Colour colour : NoiseSource.Colour.values()) {
+            NoiseSource source = new NoiseSource(colour, 42, 0.5);
+            float[] first = read(source);
+            assertArrayEquals(first, read(new NoiseSource(colour, 42, 0.5)), 0.0F);
+            source.reset();
+            assertArrayEquals(first, read(source), 0.0F);
+            assertFalse(first[100] == read(new NoiseSource(colour, 43, 0.5))[100]);
+        }
+    }
+
+    @Test
+    public void range() {
+        for (NoiseSource.Colour colour : NoiseSource.Colour.values()) {
+            float[] buffer = read(new NoiseSource(colour, 0, 1.0));
+            double sum = 0;
+            for (float sample : buffer) {
+                assertTrue(sample >= -1.0F && sample <= 1.0F);
+                sum += sample;
+            }
+            System.out.format("%-6s mean %8.4f\n", colour, sum / buffer.length);
+        }
+        double sum = 0;
+        for (float sample : read(new NoiseSource(NoiseSource.Colour.WHITE, 0, 1.0))) {
+            sum += sample;
+        }
+        assertEquals(0.0, sum / FRAMES, 0.01);
+    }
+
+    /**
+     * The ratio of the power of the differences between frames to the power of the frames themselves,
+     * 2 for white noise and falling as the noise gets redder
+     */
+    private static double getDifferenceRatio(float[] buffer) {
+        double power = 0;
+        double differencePower = 0;
+        for (int i = 1; i < buffer.length; i++) {
+            power += buffer[i] * buffer[i];
+            differencePower += (buffer[i] - buffer[i - 1]) * (buffer[i] - buffer[i - 1]);
+        }
+        return differencePower / power;
+    }
+
+    @Test
+    public void colour() {
+        double white = getDifferenceRatio(read(new NoiseSource(NoiseSource.Colour.WHITE, 1, 0.5)));
+        double pink = getDifferenceRatio(read(new NoiseSource(NoiseSource.Colour.PINK, 1, 0.5)));
+        double brown = getDifferenceRatio(read(new NoiseSource(NoiseSource.Colour.BROWN, 1, 0.5)));
+        System.out.format("difference ratio white %.3f pink %.3f brown %.3f\n", white, pink, brown);
+        assertEquals(2.0, white, 0.05);
+        assertTrue(pink < white);
+        assertTrue(brown < pink);
+    }
+
+    private static double framesPerSecond(int threads, Runnable work) throws InterruptedException {
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            workers.add(new Thread(work));
+        }
+        long start = System.nanoTime();
+        workers.forEach(Thread::start);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return threads * 100.0 * FRAMES / ((System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Throughput of noise from a shared Random, as Waveform.RANDOM used to be, and from a source per thread
+     */
+    @Test
+    public void threads() throws InterruptedException {
+        Random shared = new Random();
+        System.out.format("%8s %16s %16s\n", "threads", "shared Random", "NoiseSource");
+        for (int threads = 1; threads <= 4; threads *= 2) {
+            double sharedRate = framesPerSecond(threads, () -> {
+                float[] buffer = new float[FRAMES];
+                for (int run = 0; run < 100; run++) {
+                    for (int i = 0; i < buffer.length; i++) {
+                        buffer[i] = (float) (shared.nextDouble() * 2.0 - 1.0);
+                    }
+                }
+            });
+            double sourceRate = framesPerSecond(threads, () -> {
+                NoiseSource source = new NoiseSource(NoiseSource.Colour.WHITE, Thread.currentThread().getId(), 1.0);
+                float[] buffer = new float[FRAMES];
+                for (int run = 0; run < 100; run++) {
+                    source.read(buffer, 0, buffer.length);
+                }
+            });
+            System.out.format("%8d %12.1f M/s %12.1f M/s\n", threads, sharedRate / 1e6, sourceRate / 1e6);
+        }
+    }
+}
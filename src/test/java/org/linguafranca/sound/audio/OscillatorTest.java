@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author jo
+ */
+public class OscillatorTest {
+
+    private static final float FRAME_RATE = 44100.0F;
+
+    /**
+     * The loop that was used to make samples before the oscillator, the period is rounded to whole frames
+     */
+    private static void legacyFill(WaveGenerator.WaveGen waveGen, double signalFrequency, float[] buffer) {
+        long signalPeriodLengthInFrames = Math.round(FRAME_RATE / signalFrequency);
+        for (int frameNumber = 0; frameNumber < buffer.length; frameNumber++) {
+            float positionInSignalPeriod = (float) (frameNumber % signalPeriodLengthInFrames) / signalPeriodLengthInFrames;
+            buffer[frameNumber] = (float) 0.5 * (float) waveGen.getValue(positionInSignalPeriod);
+        }
+    }
+
+    private static int countRisingZeroCrossings(float[] buffer) {
+        int count = 0;
+        for (int i = 1; i < buffer.length; i++) {
+            if (buffer[i - 1] < 0 && buffer[i] >= 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void exactPitch() {
+        // 10 seconds of us_SIT's first frequency
+        float[] buffer = new float[(int) FRAME_RATE * 10];
+        new Oscillator(WaveGenerator.Waveform.SINE, 985.2, FRAME_RATE).fill(buffer, 0, buffer.length, 0.5);
+        assertEquals(9852, countRisingZeroCrossings(buffer), 1);
+
+        // the rounded period makes this 980Hz
+        legacyFill(WaveGenerator.Waveform.SINE, 985.2, buffer);
+        assertEquals(9800, countRisingZeroCrossings(buffer), 1);
+    }
+
+    @Test
+    public void continuousPhase() {
+        float[] whole = new float[10000];
+        new Oscillator(WaveGenerator.Waveform.SINE, 1370.6, FRAME_RATE).fill(whole, 0, whole.length, 0.5);
+
+        float[] pieces = new float[whole.length];
+        Oscillator oscillator = new Oscillator(WaveGenerator.Waveform.SINE, 1370.6, FRAME_RATE);
+        int offset = 0;
+        for (int length = 1; offset < pieces.length; length = length * 3 + 1) {
+            int frames = Math.min(length, pieces.length - offset);
+            oscillator.fill(pieces, offset, frames, 0.5);
+            offset += frames;
+        }
+        for (int i = 0; i < whole.length; i++) {
+            assertEquals(whole[i], pieces[i], 0.0F);
+        }
+    }
+
+    @Test
+    public void framesForPeriods() {
+        assertEquals(8952, Oscillator.getFramesForPeriods(985.2, FRAME_RATE, 200));
+        assertEquals(20045, Oscillator.getFramesForPeriods(440, FRAME_RATE, 200));
+    }
+
+    /**
+     * Compare the time per sample of the oscillator against the loop it replaces
+     */
+    @Test
+    public void benchmark() {
+        float[] buffer = new float[(int) FRAME_RATE];
+        long legacyNanos = Long.MAX_VALUE;
+        long oscillatorNanos = Long.MAX_VALUE;
+        Oscillator oscillator = new Oscillator(WaveGenerator.Waveform.SINE, 985.2, FRAME_RATE);
+        for (int run = 0; run < 20; run++) {
+            long start = System.nanoTime();
+            legacyFill(WaveGenerator.Waveform.SINE, 985.2, buffer);
+            legacyNanos = Math.min(legacyNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            oscillator.fill(buffer, 0, buffer.length, 0.5);
+            oscillatorNanos = Math.min(oscillatorNanos, System.nanoTime() - start);
+        }
+        System.out.format("%-12s %8.2f ns/sample\n", "legacy", (double) legacyNanos / buffer.length);
+        System.out.format("%-12s %8.2f ns/sample\n", "oscillator", (double) oscillatorNanos / buffer.length);
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import org.junit.Test;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author jo
+ */
+public class PcmEncoderTest {
+
+    private static final float[] SAMPLES = {0.0F, 1.0F, -1.0F, 0.3F, -0.3F, 2.0F, -2.0F};
+
+    /**
+     * How frames were written before the encoder, a synchronized call per byte
+     */
+    private static void legacyWriteFrame(float amplitude, ByteArrayOutputStream audioStream) {
+        int adjustedValue = Math.round(amplitude * 32767);
+        audioStream.write(adjustedValue & 0xFF);
+        audioStream.write((adjustedValue >>> 8) & 0xFF);
+        audioStream.write(adjustedValue & 0xFF);
+        audioStream.write((adjustedValue >>> 8) & 0xFF);
+    }
+
+    @Test
+    public void littleEndianStereo() {
+        PcmEncoder encoder = new PcmEncoder(AudioEncoder.DEFAULT_AUDIO_FORMAT);
+        byte[] bytes = new byte[SAMPLES.length * 4];
+        assertEquals(bytes.length, encoder.encode(SAMPLES, 0, SAMPLES.length, bytes, 0));
+
+        // full scale is clipped rather than wrapping round
+        assertEquals((byte) 0xFF, bytes[4]);
+        assertEquals((byte) 0x7F, bytes[5]);
+        assertEquals((byte) 0x01, bytes[8]);
+        assertEquals((byte) 0x80, bytes[9]);
+
+        ByteArrayOutputStream legacy = new ByteArrayOutputStream();
+        for (float sample : new float[]{0.0F, 1.0F, -1.0F, 0.3F, -0.3F, 1.0F, -1.0F}) {
+            legacyWriteFrame(sample, legacy);
+        }
+        assertArrayEquals(legacy.toByteArray(), bytes);
+    }
+
+    @Test
+    public void allDestinationsAgree() {
+        PcmEncoder encoder = new PcmEncoder(AudioEncoder.DEFAULT_AUDIO_FORMAT);
+        byte[] bytes = new byte[SAMPLES.length * 4];
+        encoder.encode(SAMPLES, 0, SAMPLES.length, bytes, 0);
+
+        short[] shorts = new short[SAMPLES.length * 2];
+        assertEquals(shorts.length, encoder.encode(SAMPLES, 0, SAMPLES.length, shorts, 0));
+        for (int i = 0; i < shorts.length; i++) {
+            assertEquals(shorts[i], (short) ((bytes[2 * i] & 0xFF) | (bytes[2 * i + 1] << 8)));
+        }
+
+        for (ByteBuffer buffer : new ByteBuffer[]{ByteBuffer.allocate(bytes.length + 3), ByteBuffer.allocateDirect(bytes.length + 3)}) {
+            buffer.position(3);
+            encoder.encode(SAMPLES, 0, SAMPLES.length, buffer);
+            assertEquals(buffer.limit(), buffer.position());
+            byte[] copy = new byte[bytes.length];
+            buffer.position(3);
+            buffer.get(copy);
+            assertArrayEquals(bytes, copy);
+        }
+    }
+
+    @Test
+    public void fromSource() {
+        // longer than a block, and ending before the buffer is full
+        int length = AudioEncoder.BLOCK_SIZE_IN_FRAMES * 2 + 7;
+        float[] samples = new float[length];
+        for (int i = 0; i < length; i++) {
+            samples[i] = SAMPLES[i % SAMPLES.length];
+        }
+        PcmEncoder encoder = new PcmEncoder(AudioEncoder.TELEPHONY_AUDIO_FORMAT);
+        byte[] bytes = new byte[length * 2];
+        encoder.encode(samples, 0, length, bytes, 0);
+
+        for (ByteBuffer buffer : new ByteBuffer[]{ByteBuffer.allocate(bytes.length + 10), ByteBuffer.allocateDirect(bytes.length + 10)}) {
+            int[] position = {0};
+            SampleSource source = (into, offset, frames) -> {
+                int count = Math.min(frames, length - position[0]);
+                System.arraycopy(samples, position[0], into, offset, count);
+                position[0] += count;
+                return count;
+            };
+            buffer.position(3);
+            assertEquals(length, encoder.encode(source, buffer));
+            assertEquals(3 + bytes.length, buffer.position());
+            byte[] copy = new byte[bytes.length];
+            buffer.position(3);
+            buffer.get(copy);
+            assertArrayEquals(bytes, copy);
+
+            // only whole frames up to the limit
+            position[0] = 0;
+            buffer.clear().limit(5);
+            assertEquals(2, encoder.encode(source, buffer));
+            assertEquals(4, buffer.position());
+            assertEquals(2, position[0]);
+        }
+    }
+
+    @Test
+    public void formats() {
+        float[] samples = {1.0F, -0.5F};
+
+        byte[] bytes = new byte[2];
+        new PcmEncoder(AudioEncoder.makeFormat(8000, 8, 1, false)).encode(samples, 0, 2, bytes, 0);
+        assertArrayEquals(new byte[]{127, -64}, bytes);
+
+        AudioFormat unsigned = new AudioFormat(AudioFormat.Encoding.PCM_UNSIGNED, 8000, 8, 1, 1, 8000, false);
+        new PcmEncoder(unsigned).encode(samples, 0, 2, bytes, 0);
+        assertArrayEquals(new byte[]{(byte) 255, 64}, bytes);
+
+        bytes = new byte[4];
+        new PcmEncoder(AudioEncoder.TELEPHONY_AUDIO_FORMAT).encode(samples, 0, 2, bytes, 0);
+        assertArrayEquals(new byte[]{(byte) 0xFF, 0x7F, 0x00, (byte) 0xC0}, bytes);
+
+        bytes = new byte[12];
+        new PcmEncoder(AudioEncoder.makeFormat(16000, 24, 2, true)).encode(samples, 0, 2, bytes, 0);
+        assertArrayEquals(new byte[]{0x7F, (byte) 0xFF, (byte) 0xFF, 0x7F, (byte) 0xFF, (byte) 0xFF,
+                (byte) 0xC0, 0x00, 0x00, (byte) 0xC0, 0x00, 0x00}, bytes);
+
+        bytes = new byte[8];
+        new PcmEncoder(AudioEncoder.makeFloatFormat(48000, 1, false)).encode(samples, 0, 2, bytes, 0);
+        ByteBuffer floats = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(1.0F, floats.getFloat(), 0.0F);
+        assertEquals(-0.5F, floats.getFloat(), 0.0F);
+    }
+
+    @Test
+    public void g711() {
+        assertEquals((byte) 0xFF, G711.encodeULaw(0));
+        assertEquals((byte) 0xD5, G711.encodeALaw(0));
+        assertEquals((byte) 0x80, G711.encodeULaw(32767));
+        assertEquals((byte) 0xAA, G711.encodeALaw(32767));
+
+        // decoding gets back to within the size of the companding step
+        for (int sample = -32768; sample < 32768; sample += 7) {
+            int step = Math.max(16, Math.abs(sample) / 16);
+            assertEquals(sample, G711.decodeULaw(G711.encodeULaw(sample)), step);
+            assertEquals(sample, G711.decodeALaw(G711.encodeALaw(sample)), step);
+        }
+
+        float[] samples = {0.0F, 0.5F, -0.5F};
+        byte[] bytes = new byte[3];
+        new PcmEncoder(AudioEncoder.ULAW_AUDIO_FORMAT).encode(samples, 0, 3, bytes, 0);
+        assertArrayEquals(new byte[]{G711.encodeULaw(0), G711.encodeULaw(16384), G711.encodeULaw(-16384)}, bytes);
+        new PcmEncoder(AudioEncoder.ALAW_AUDIO_FORMAT).encode(samples, 0, 3, bytes, 0);
+        assertArrayEquals(new byte[]{G711.encodeALaw(0), G711.encodeALaw(16384), G711.encodeALaw(-16384)}, bytes);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupported() {
+        new PcmEncoder(AudioEncoder.makeFormat(8000, 32, 1, false));
+    }
+
+    /**
+     * Compare encoding a second of audio against the byte at a time stream it replaces
+     */
+    @Test
+    public void benchmark() {
+        float[] samples = new float[44100];
+        new Oscillator(WaveGenerator.Waveform.SINE, 440, 44100).fill(samples, 0, samples.length, 0.5);
+        PcmEncoder encoder = new PcmEncoder(AudioEncoder.DEFAULT_AUDIO_FORMAT);
+        long legacyNanos = Long.MAX_VALUE;
+        long encoderNanos = Long.MAX_VALUE;
+        long directNanos = Long.MAX_VALUE;
+        ByteBuffer direct = ByteBuffer.allocateDirect(samples.length * 4);
+        for (int run = 0; run < 20; run++) {
+            long start = System.nanoTime();
+            ByteArrayOutputStream stream = new ByteArrayOutputStream(samples.length * 4);
+            for (float sample : samples) {
+                legacyWriteFrame(sample, stream);
+            }
+            byte[] legacy = stream.toByteArray();
+            legacyNanos = Math.min(legacyNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            byte[] bytes = new byte[samples.length * 4];
+            encoder.encode(samples, 0, samples.length, bytes, 0);
+            encoderNanos = Math.min(encoderNanos, System.nanoTime() - start);
+            assertEquals(legacy.length, bytes.length);
+
+            start = System.nanoTime();
+            direct.clear();
+            encoder.encode(samples, 0, samples.length, direct);
+            directNanos = Math.min(directNanos, System.nanoTime() - start);
+        }
+        System.out.format("%-12s %8.2f ns/frame\n", "legacy", (double) legacyNanos / samples.length);
+        System.out.format("%-12s %8.2f ns/frame\n", "encoder", (double) encoderNanos / samples.length);
+        System.out.format("%-12s %8.2f ns/frame\n", "direct", (double) directNanos / samples.length);
+    }
+}
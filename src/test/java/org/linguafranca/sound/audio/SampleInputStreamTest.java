@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import org.junit.Test;
+
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author jo
+ */
+public class SampleInputStreamTest {
+
+    private static byte[] readAll(AudioInputStream stream, int chunk) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[chunk];
+        int read;
+        while ((read = stream.read(buffer, 0, buffer.length)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void sameAsSample() throws IOException {
+        AudioInputStream sample = AudioEncoder.createSample(WaveGenerator.Waveform.SINE, 440, 0.25, 200);
+        AudioInputStream stream = AudioEncoder.createStream(WaveGenerator.Waveform.SINE, 440, 0.25, sample.getFrameLength());
+        // an odd read size, that is not a whole number of frames or blocks
+        assertArrayEquals(readAll(sample, 4096), readAll(stream, 4099));
+    }
+
+    @Test
+    public void unbounded() throws IOException {
+        AudioInputStream stream = AudioEncoder.createStream(WaveGenerator.Waveform.SINE, 350, 0.25);
+        assertEquals(AudioSystem.NOT_SPECIFIED, stream.getFrameLength());
+        byte[] buffer = new byte[65536];
+        // ten minutes of audio, generated in a fixed amount of memory
+        long total = 0;
+        while (total < 600L * 44100 * 4) {
+            int read = stream.read(buffer, 0, buffer.length);
+            assertEquals(buffer.length, read);
+            total += read;
+        }
+    }
+
+    @Test
+    public void sourceEnds() throws IOException {
+        final int[] remaining = {1000};
+        SampleSource source = (buffer, offset, frames) -> {
+            int count = Math.min(frames, remaining[0]);
+            remaining[0] -= count;
+            return count;
+        };
+        AudioInputStream stream = new SampleInputStream(source, AudioEncoder.DEFAULT_AUDIO_FORMAT, AudioSystem.NOT_SPECIFIED);
+        assertEquals(4000, readAll(stream, 333 * 4).length);
+    }
+}
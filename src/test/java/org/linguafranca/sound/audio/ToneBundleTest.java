@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import org.junit.Test;
+import org.linguafranca.sound.cadence.Cadences;
+import org.linguafranca.sound.cadence.DTMF;
+import org.linguafranca.sound.cadence.ToneScriptParser;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author jo
+ */
+public class ToneBundleTest {
+
+    private static final AudioFormat FORMAT = AudioEncoder.TELEPHONY_AUDIO_FORMAT;
+    private static final Envelope ENVELOPE = Envelope.getDefault(FORMAT.getFrameRate());
+
+    private static ToneKey getKey(String script) {
+        return ToneKey.forSegment(ToneScriptParser.parseToneScript(script).getCadences().get(0).get(0),
+                FORMAT, LoopPlanner.DEFAULT);
+    }
+
+    private static ToneBundle makeBundle(Set<ToneKey> keys) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ToneBundle.write(out, keys, FORMAT, ENVELOPE, LoopPlanner.DEFAULT);
+        return ToneBundle.read(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    @Test
+    public void standardKeys() {
+        Set<ToneKey> keys = ToneBundle.getStandardKeys(FORMAT, LoopPlanner.DEFAULT);
+        assertTrue(keys.contains(getKey(Cadences.CALL_PROGRESS.get("us_dial"))));
+        assertTrue(getKey(Cadences.CALL_PROGRESS.get("us_dial")).isLooped());
+        assertTrue(keys.contains(getKey(Cadences.CALL_PROGRESS.get("us_busy"))));
+        assertTrue(keys.contains(ToneKey.forSegment(DTMF.Digit._5.getCadences().get(0), FORMAT, LoopPlanner.DEFAULT)));
+        // the same order every time
+        assertEquals(keys.toString(), ToneBundle.getStandardKeys(FORMAT, LoopPlanner.DEFAULT).toString());
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        Set<ToneKey> keys = ToneBundle.getStandardKeys(FORMAT, LoopPlanner.DEFAULT);
+        ToneBundle bundle = makeBundle(keys);
+        assertEquals(keys.size(), bundle.size());
+        byte[] shared = null;
+        for (ToneKey key : keys) {
+            RenderedTone found = bundle.find(key, FORMAT, ENVELOPE, LoopPlanner.DEFAULT);
+            assertNotNull(found);
+            RenderedTone rendered = RenderedTone.render(key, FORMAT, ENVELOPE, LoopPlanner.DEFAULT);
+            assertEquals(rendered.getLoopStart(), found.getLoopStart());
+            assertArrayEquals(rendered.getData(),
+                    Arrays.copyOfRange(found.getData(), found.getOffset(), found.getOffset() + found.getLength()));
+            // all in one array
+            if (shared != null) {
+                assertSame(shared, found.getData());
+            }
+            shared = found.getData();
+        }
+    }
+
+    @Test
+    public void mismatch() throws IOException {
+        ToneKey key = getKey(Cadences.CALL_PROGRESS.get("us_busy"));
+        ToneBundle bundle = makeBundle(ToneBundle.getStandardKeys(FORMAT, LoopPlanner.DEFAULT));
+        assertNotNull(bundle.find(key, FORMAT, ENVELOPE, LoopPlanner.DEFAULT));
+        assertNull(bundle.find(key, AudioEncoder.ULAW_AUDIO_FORMAT, ENVELOPE, LoopPlanner.DEFAULT));
+        assertNull(bundle.find(key, FORMAT, Envelope.getNone(FORMAT.getFrameRate()), LoopPlanner.DEFAULT));
+        assertNull(bundle.find(key, FORMAT, ENVELOPE, new LoopPlanner(1 << 16, 0.001, 100)));
+        assertNull(bundle.find(getKey("480@-20;10(.5/.5/1)"), FORMAT, ENVELOPE, LoopPlanner.DEFAULT));
+    }
+
+    @Test(expected = IOException.class)
+    public void notABundle() throws IOException {
+        ToneBundle.read(new ByteArrayInputStream(new byte[64]));
+    }
+
+    @Test
+    public void defaultBundle() {
+        // made by the build, if it is there it is for the default way of playing
+        ToneBundle bundle = ToneBundle.getDefault();
+        if (bundle.size() > 0) {
+            AudioFormat format = AudioEncoder.DEFAULT_AUDIO_FORMAT;
+            ToneKey key = ToneKey.forSegment(DTMF.Digit._HASH.getCadences().get(0), format, LoopPlanner.DEFAULT);
+            assertNotNull(bundle.find(key, format, Envelope.getDefault(format.getFrameRate()), LoopPlanner.DEFAULT));
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.linguafranca.sound.tone.Tone;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author jo
+ */
+public class ToneDiskCacheTest {
+
+    private static final AudioFormat FORMAT = AudioEncoder.TELEPHONY_AUDIO_FORMAT;
+    private static final Envelope ENVELOPE = Envelope.getDefault(FORMAT.getFrameRate());
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("tones");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (Path file : getFiles()) {
+            Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+
+    private List<Path> getFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            stream.forEach(files::add);
+        }
+        return files;
+    }
+
+    private static ToneKey getKey(double frequency, int millis) {
+        Tone.List tones = new Tone.List();
+        tones.add(Tone.makeToneFD(frequency, -13));
+        return new ToneKey(tones, millis);
+    }
+
+    private static byte[] getBytes(RenderedTone tone) {
+        return Arrays.copyOfRange(tone.getData(), tone.getOffset(), tone.getOffset() + tone.getLength());
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        ToneKey key = getKey(350, 500);
+        RenderedTone rendered = new ToneDiskCache(directory, 1 << 20).getOrRender(key, FORMAT, ENVELOPE, LoopPlanner.DEFAULT);
+        assertEquals(1, getFiles().size());
+
+        // as if the next time the program runs
+        ToneDiskCache cache = new ToneDiskCache(directory, 1 << 20);
+        assertEquals(Files.size(getFiles().get(0)), cache.getTotalBytes());
+        RenderedTone loaded = cache.get(key, FORMAT, ENVELOPE, LoopPlanner.DEFAULT);
+        assertNotNull(loaded);
+        assertEquals(key, loaded.getKey());
+        assertEquals(-1, loaded.getLoopStart());
+        assertArrayEquals(getBytes(rendered), getBytes(loaded));
+
+        ToneKey looped = getKey(350, ToneKey.LOOPED);
+        cache.getOrRender(looped, FORMAT, ENVELOPE, LoopPlanner.DEFAULT);
+        assertEquals(ENVELOPE.getAttackFrames(), cache.get(looped, FORMAT, ENVELOPE, LoopPlanner.DEFAULT).getLoopStart());
+    }
+
+    @Test
+    public void keys() throws IOException {
+        ToneDiskCache cache = new ToneDiskCache(directory, 1 << 20);
+        ToneKey key = getKey(350, 500);
+        cache.getOrRender(key, FORMAT, ENVELOPE, LoopPlanner.DEFAULT);
+        assertNull(cache.get(getKey(350, 501), FORMAT, ENVELOPE, LoopPlanner.DEFAULT));
+        assertNull(cache.get(getKey(350.001, 500), FORMAT, ENVELOPE, LoopPlanner.DEFAULT));
+        assertNull(cache.get(key, AudioEncoder.ULAW_AUDIO_FORMAT, ENVELOPE, LoopPlanner.DEFAULT));
+        assertNull(cache.get(key, FORMAT, Envelope.getNone(FORMAT.getFrameRate()), LoopPlanner.DEFAULT));
+        assertNull(cache.get(key, FORMAT, ENVELOPE, new LoopPlanner(1 << 16, 0.001, 100)));
+        assertNotNull(cache.get(key, FORMAT, ENVELOPE, LoopPlanner.DEFAULT));
+        assertTrue(ToneDiskCache.describe(key, FORMAT, ENVELOPE, LoopPlanner.DEFAULT)
+                .startsWith("renderer " + AudioEncoder.RENDERER_VERSION + "|"));
+    }
+
+    @Test
+    public void corrupt() throws IOException {
+        ToneDiskCache cache = new ToneDiskCache(directory, 1 << 20);
+        ToneKey key = getKey(350, 500);
+        cache.getOrRender(key, FORMAT, ENVELOPE, LoopPlanner.DEFAULT);
+        Path file = getFiles().get(0);
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 100] ^= 1;
+        Files.write(file, bytes);
+        assertNull(cache.get(key, FORMAT, ENVELOPE, LoopPlanner.DEFAULT));
+        assertFalse(Files.exists(file));
+
+        cache.getOrRender(key, FORMAT, ENVELOPE, LoopPlanner.DEFAULT);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 100));
+        assertNull(cache.get(key, FORMAT, ENVELOPE, LoopPlanner.DEFAULT));
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    public void evict() throws IOException {
+        // 500ms at 8kHz 16 bit is 8000 bytes, room for two
+        ToneDiskCache cache = new ToneDiskCache(directory, 20000);
+        ToneKey a = getKey(350, 500);
+        ToneKey b = getKey(440, 500);
+        ToneKey c = getKey(480, 500);
+        cache.getOrRender(a, FORMAT, ENVELOPE, LoopPlanner.DEFAULT);
+        cache.getOrRender(b, FORMAT, ENVELOPE, LoopPlanner.DEFAULT);
+        assertEquals(2, getFiles().size());
+        // make b the older, then use a, leaving b least recently used
+        for (Path file : getFiles()) {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - 60000));
+        }
+        assertNotNull(cache.get(a, FORMAT, ENVELOPE, LoopPlanner.DEFAULT));
+
+        cache.getOrRender(c, FORMAT, ENVELOPE, LoopPlanner.DEFAULT);
+        assertEquals(2, getFiles().size());
+        assertTrue(cache.getTotalBytes() <= 20000);
+        assertNotNull(cache.get(a, FORMAT, ENVELOPE, LoopPlanner.DEFAULT));
+        assertNull(cache.get(b, FORMAT, ENVELOPE, LoopPlanner.DEFAULT));
+        assertNotNull(cache.get(c, FORMAT, ENVELOPE, LoopPlanner.DEFAULT));
+    }
+}
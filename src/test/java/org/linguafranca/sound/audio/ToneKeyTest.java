@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import org.junit.Test;
+import org.linguafranca.sound.cadence.CadenceSection;
+import org.linguafranca.sound.cadence.ToneScriptParser;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author jo
+ */
+public class ToneKeyTest {
+
+    // 8kHz 16 bit little endian
+    private static final AudioFormat FORMAT = AudioEncoder.TELEPHONY_AUDIO_FORMAT;
+    private static final Envelope ENVELOPE = Envelope.getDefault(FORMAT.getFrameRate());
+
+    /**
+     * The keys of the sounds of a section, for as long as each is played
+     */
+    private static List<ToneKey> getKeys(String script) {
+        CadenceSection section = ToneScriptParser.parseToneScript(script).getCadences().get(0);
+        List<ToneKey> keys = new ArrayList<>();
+        CadenceRenderer.layOut(section, 0, section.getDuration(), (segment, start, end) ->
+                keys.add(ToneKey.forSound(segment.getTones(), (int) (end - start), FORMAT, LoopPlanner.DEFAULT)));
+        return keys;
+    }
+
+    /**
+     * The largest absolute sample value between two frames
+     */
+    private static int peak(RenderedTone tone, int from, int to) {
+        byte[] data = tone.getData();
+        int peak = 0;
+        for (int i = tone.getOffset() + 2 * from; i < tone.getOffset() + 2 * to; i += 2) {
+            peak = Math.max(peak, Math.abs((short) ((data[i] & 0xFF) | (data[i + 1] << 8))));
+        }
+        return peak;
+    }
+
+    /**
+     * Check a sound is not looped and fades out at its end
+     */
+    private static void assertReleased(ToneKey key, int durationMillis) {
+        assertFalse(key.isLooped());
+        assertEquals(durationMillis, key.getDurationMillis());
+        RenderedTone tone = RenderedTone.render(key, FORMAT, ENVELOPE, LoopPlanner.DEFAULT);
+        int frames = tone.getFrameLength();
+        assertEquals(durationMillis * 8, frames);
+        int full = peak(tone, frames / 2 - 100, frames / 2 + 100);
+        assertTrue(full > 1000);
+        assertTrue(peak(tone, frames - 4, frames) < full / 10);
+    }
+
+    @Test
+    public void truncated() {
+        // the second pass is cut short after 300ms of its 500ms tone
+        List<ToneKey> keys = getKeys("480@-24;1.3(.5/.5/1)");
+        assertEquals(2, keys.size());
+        assertReleased(keys.get(0), 500);
+        assertReleased(keys.get(1), 300);
+    }
+
+    @Test
+    public void indefinite() {
+        // sounds for the whole section, which is short enough not to loop
+        String script = "350@-19,440@-19;2(*/0/1+2)";
+        List<ToneKey> keys = getKeys(script);
+        assertEquals(1, keys.size());
+        assertReleased(keys.get(0), 2000);
+        // rather than looped, as it would be on its own
+        CadenceSection section = ToneScriptParser.parseToneScript(script).getCadences().get(0);
+        assertTrue(ToneKey.forSegment(section.get(0), FORMAT, LoopPlanner.DEFAULT).isLooped());
+    }
+
+    @Test
+    public void overBudget() {
+        // too long to hold, so looped, and cut off when stopped
+        LoopPlanner planner = new LoopPlanner(16 * 1024, 0.001, 100);
+        CadenceSection section = ToneScriptParser.parseToneScript("350@-19;2(*/0/1)").getCadences().get(0);
+        assertTrue(ToneKey.forSound(section.get(0).getTones(), 2000, FORMAT, planner).isLooped());
+        assertFalse(ToneKey.forSound(section.get(0).getTones(), 1000, FORMAT, planner).isLooped());
+    }
+}
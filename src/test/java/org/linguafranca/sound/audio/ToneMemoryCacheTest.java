@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import org.junit.Test;
+import org.linguafranca.sound.tone.Tone;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author jo
+ */
+public class ToneMemoryCacheTest {
+
+    private static final AudioFormat FORMAT = AudioEncoder.TELEPHONY_AUDIO_FORMAT;
+    private static final Envelope ENVELOPE = Envelope.getDefault(FORMAT.getFrameRate());
+    // the size of each tone here
+    private static final int BYTES = 1000;
+
+    private static ToneKey makeKey(double frequency) {
+        return new ToneKey(Collections.singletonList(Tone.makeToneFD(frequency, -20)), 100);
+    }
+
+    private static RenderedTone get(ToneMemoryCache cache, ToneKey key) {
+        return cache.getOrRender(key, FORMAT, ENVELOPE, LoopPlanner.DEFAULT,
+                () -> new RenderedTone(key, FORMAT, new byte[BYTES], 0, BYTES, -1));
+    }
+
+    private static boolean contains(ToneMemoryCache cache, ToneKey key) {
+        long renders = cache.getStats().getRenders();
+        get(cache, key);
+        return cache.getStats().getRenders() == renders;
+    }
+
+    @Test
+    public void singleFlight() throws Exception {
+        ToneMemoryCache cache = new ToneMemoryCache(1 << 20);
+        ToneKey key = makeKey(440);
+        AtomicInteger renders = new AtomicInteger();
+        int threads = 8;
+        CountDownLatch ready = new CountDownLatch(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<RenderedTone>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> {
+                    ready.countDown();
+                    ready.await();
+                    return cache.getOrRender(key, FORMAT, ENVELOPE, LoopPlanner.DEFAULT, () -> {
+                        renders.incrementAndGet();
+                        try {
+                            Thread.sleep(200);
+                        } catch (InterruptedException e) {
+                            throw new IllegalStateException(e);
+                        }
+                        return new RenderedTone(key, FORMAT, new byte[BYTES], 0, BYTES, -1);
+                    });
+                }));
+            }
+            RenderedTone first = results.get(0).get();
+            for (Future<RenderedTone> result : results) {
+                assertSame(first, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, renders.get());
+        ToneMemoryCache.Stats stats = cache.getStats();
+        assertEquals(threads, stats.getMisses());
+        assertEquals(1, stats.getRenders());
+        assertEquals(1, stats.getSize());
+        assertEquals(BYTES, stats.getBytes());
+    }
+
+    @Test
+    public void failureIsNotCached() {
+        ToneMemoryCache cache = new ToneMemoryCache(1 << 20);
+        ToneKey key = makeKey(440);
+        try {
+            cache.getOrRender(key, FORMAT, ENVELOPE, LoopPlanner.DEFAULT, () -> {
+                throw new IllegalStateException("no");
+            });
+            fail("expected an exception");
+        } catch (IllegalStateException e) {
+            assertEquals("no", e.getMessage());
+        }
+        assertFalse(contains(cache, key));
+        assertTrue(contains(cache, key));
+    }
+
+    @Test
+    public void keyedOnEverything() {
+        ToneMemoryCache cache = new ToneMemoryCache(1 << 20);
+        ToneKey key = makeKey(440);
+        RenderedTone tone = get(cache, key);
+        assertSame(tone, get(cache, makeKey(440)));
+        RenderedTone other = cache.getOrRender(key, FORMAT, Envelope.getDefault(FORMAT.getFrameRate()),
+                new LoopPlanner(1 << 16, LoopPlanner.DEFAULT.getTolerance(), LoopPlanner.DEFAULT.getMinMillis()),
+                () -> new RenderedTone(key, FORMAT, new byte[BYTES], 0, BYTES, -1));
+        assertNotSame(tone, other);
+        assertEquals(2, cache.getStats().getSize());
+    }
+
+    @Test
+    public void lruBound() {
+        ToneMemoryCache cache = new ToneMemoryCache(3 * BYTES, EvictionPolicy.lru());
+        for (int i = 0; i < 4; i++) {
+            get(cache, makeKey(400 + i));
+        }
+        ToneMemoryCache.Stats stats = cache.getStats();
+        assertEquals(3, stats.getSize());
+        assertEquals(3 * BYTES, stats.getBytes());
+        assertEquals(1, stats.getEvictions());
+        assertFalse(contains(cache, makeKey(400)));
+        assertTrue(contains(cache, makeKey(403)));
+    }
+
+    @Test
+    public void tinyLfuResistsScans() {
+        ToneMemoryCache lru = new ToneMemoryCache(10 * BYTES, EvictionPolicy.lru());
+        ToneMemoryCache tinyLfu = new ToneMemoryCache(10 * BYTES, EvictionPolicy.windowTinyLfu());
+        ToneKey popular = makeKey(350);
+        for (ToneMemoryCache cache : new ToneMemoryCache[]{lru, tinyLfu}) {
+            for (int i = 0; i < 20; i++) {
+                get(cache, popular);
+            }
+            // a burst of tones each wanted once
+            for (int i = 0; i < 50; i++) {
+                get(cache, makeKey(1000 + i));
+            }
+            assertTrue(cache.getStats().getBytes() <= 10 * BYTES);
+        }
+        assertFalse(contains(lru, popular));
+        assertTrue(contains(tinyLfu, popular));
+    }
+
+    @Test
+    public void clear() {
+        ToneMemoryCache cache = new ToneMemoryCache(1 << 20);
+        get(cache, makeKey(440));
+        cache.clear();
+        assertEquals(0, cache.getStats().getSize());
+        assertEquals(0, cache.getStats().getBytes());
+        assertFalse(contains(cache, makeKey(440)));
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import org.junit.Test;
+import org.linguafranca.sound.cadence.Cadences;
+import org.linguafranca.sound.tone.Tone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author jo
+ */
+public class ToneMixerTest {
+
+    private static final float FRAME_RATE = 44100.0F;
+
+    @Test
+    public void sumOfOscillators() {
+        Tone.List tones = new Tone.List();
+        tones.add(Tone.makeToneFD(350, -21));
+        tones.add(Tone.makeToneFD(440, -19));
+
+        float[] mix = new float[10000];
+        new ToneMixer(WaveGenerator.Waveform.SINE, tones, FRAME_RATE).read(mix, 0, mix.length);
+
+        float[] sum = new float[mix.length];
+        new Oscillator(WaveGenerator.Waveform.SINE, 350, FRAME_RATE).fill(sum, 0, sum.length, tones.get(0).getAmplitude());
+        new Oscillator(WaveGenerator.Waveform.SINE, 440, FRAME_RATE).add(sum, 0, sum.length, tones.get(1).getAmplitude());
+
+        for (int i = 0; i < mix.length; i++) {
+            assertEquals(sum[i], mix[i], 0.0F);
+        }
+    }
+
+    @Test
+    public void headroom() {
+        Tone.List tones = new Tone.List();
+        tones.addAll(Cadences.REGULAR_PHONE_RING);
+        tones.add(Tone.makeToneFA(500, 0.8));
+        assertTrue(ToneMixer.getTotalAmplitude(tones) > 1.0);
+
+        float[] mix = new float[(int) FRAME_RATE];
+        new ToneMixer(WaveGenerator.Waveform.SQUARE, tones, FRAME_RATE).read(mix, 0, mix.length);
+        float peak = 0;
+        for (float sample : mix) {
+            peak = Math.max(peak, Math.abs(sample));
+        }
+        assertTrue(peak <= 1.0F);
+        // square waves all start high together
+        assertEquals(1.0F, mix[0], 1e-6F);
+    }
+}
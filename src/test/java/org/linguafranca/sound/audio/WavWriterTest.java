@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import org.junit.Test;
+import org.linguafranca.sound.cadence.CadenceScript;
+import org.linguafranca.sound.cadence.Cadences;
+import org.linguafranca.sound.cadence.ToneScriptParser;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author jo
+ */
+public class WavWriterTest {
+
+    private static final CadenceScript BUSY = ToneScriptParser.parseToneScript(Cadences.CALL_PROGRESS.get("us_busy"));
+
+    private static byte[] readData(Path path, AudioFormat expected) throws Exception {
+        try (AudioInputStream stream = AudioSystem.getAudioInputStream(path.toFile())) {
+            AudioFormat format = stream.getFormat();
+            assertEquals(expected.getEncoding(), format.getEncoding());
+            assertEquals(expected.getSampleRate(), format.getSampleRate(), 0.0);
+            assertEquals(expected.getSampleSizeInBits(), format.getSampleSizeInBits());
+            assertEquals(expected.getChannels(), format.getChannels());
+            byte[] data = new byte[(int) (stream.getFrameLength() * format.getFrameSize())];
+            int read = 0;
+            while (read < data.length) {
+                read += stream.read(data, read, data.length - read);
+            }
+            return data;
+        }
+    }
+
+    private static void check(AudioFormat format) throws Exception {
+        Path path = Files.createTempFile("busy", ".wav");
+        try {
+            CadenceRenderer renderer = new CadenceRenderer(format);
+            assertEquals(80000, renderer.write(BUSY, path));
+            assertArrayEquals(renderer.render(BUSY), readData(path, format));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void pcm() throws Exception {
+        check(AudioEncoder.TELEPHONY_AUDIO_FORMAT);
+        check(AudioEncoder.makeFormat(8000.0F, 24, 2, false));
+    }
+
+    @Test
+    public void float32() throws Exception {
+        check(AudioEncoder.makeFloatFormat(8000.0F, 1, false));
+    }
+
+    @Test
+    public void g711() throws Exception {
+        check(AudioEncoder.ULAW_AUDIO_FORMAT);
+        check(AudioEncoder.ALAW_AUDIO_FORMAT);
+    }
+
+    @Test
+    public void nearestFormat() throws Exception {
+        // big endian 16 bit and signed 8 bit are written as little endian and unsigned
+        AudioFormat bigEndian = AudioEncoder.makeFormat(8000.0F, 16, 1, true);
+        assertEquals(AudioEncoder.TELEPHONY_AUDIO_FORMAT.toString(), WavWriter.toWavFormat(bigEndian).toString());
+        AudioFormat signed8 = AudioEncoder.makeFormat(8000.0F, 8, 1, false);
+        assertEquals(AudioFormat.Encoding.PCM_UNSIGNED, WavWriter.toWavFormat(signed8).getEncoding());
+
+        Path path = Files.createTempFile("busy", ".wav");
+        try {
+            new CadenceRenderer(bigEndian).write(BUSY, path);
+            byte[] expected = new CadenceRenderer(AudioEncoder.TELEPHONY_AUDIO_FORMAT).render(BUSY);
+            assertArrayEquals(expected, readData(path, AudioEncoder.TELEPHONY_AUDIO_FORMAT));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void windows() throws Exception {
+        // an odd number of one byte frames over several small windows
+        AudioFormat format = AudioEncoder.makeFormat(8000.0F, 8, 1, false);
+        float[] samples = new float[1001];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (float) Math.sin(i * 0.1) * 0.5F;
+        }
+        Path path = Files.createTempFile("windows", ".wav");
+        try {
+            try (WavWriter writer = new WavWriter(path, format, 64)) {
+                writer.write(samples, 0, 500);
+                // whole windows only, never longer than what has been written, so nothing to cut back on closing
+                assertEquals(44 + 7 * 64, Files.size(path));
+                assertEquals(7, writer.getMappingCount());
+                writer.write(samples, 500, 501);
+                assertEquals(1001, writer.getFrameCount());
+            }
+            byte[] file = Files.readAllBytes(path);
+            // padded to an even length
+            assertEquals(44 + 1001 + 1, file.length);
+            ByteBuffer header = ByteBuffer.wrap(file).order(ByteOrder.LITTLE_ENDIAN);
+            assertEquals(file.length - 8, header.getInt(4));
+            assertEquals(1001, header.getInt(40));
+
+            byte[] expected = new byte[1001];
+            new PcmEncoder(WavWriter.toWavFormat(format)).encode(samples, 0, 1001, expected, 0);
+            assertArrayEquals(expected, readData(path, WavWriter.toWavFormat(format)));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void smallWrites() throws Exception {
+        AudioFormat format = AudioEncoder.makeFormat(8000.0F, 8, 1, false);
+        float[] samples = new float[1001];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (float) Math.sin(i * 0.1) * 0.5F;
+        }
+        Path path = Files.createTempFile("small", ".wav");
+        try {
+            try (WavWriter writer = new WavWriter(path, format, 64)) {
+                for (int i = 0; i < samples.length; i++) {
+                    writer.write(samples, i, 1);
+                }
+                // a mapping for each whole window, not for each write
+                assertEquals(1001 / 64, writer.getMappingCount());
+            }
+            assertEquals(44 + 1001 + 1, Files.size(path));
+            byte[] expected = new byte[1001];
+            new PcmEncoder(WavWriter.toWavFormat(format)).encode(samples, 0, 1001, expected, 0);
+            assertArrayEquals(expected, readData(path, WavWriter.toWavFormat(format)));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closed() throws IOException {
+        Path path = Files.createTempFile("closed", ".wav");
+        try {
+            WavWriter writer = new WavWriter(path, AudioEncoder.TELEPHONY_AUDIO_FORMAT);
+            writer.close();
+            writer.write(new float[1], 0, 1);
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void benchmark() throws IOException {
+        // 10 minutes of busy tone
+        CadenceScript script = ToneScriptParser.parseToneScript("480@-24,620@-24;600(.5/.5/1+2)");
+        CadenceRenderer renderer = new CadenceRenderer(AudioEncoder.DEFAULT_AUDIO_FORMAT);
+        Path path = Files.createTempFile("benchmark", ".wav");
+        try {
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < 3; i++) {
+                long start = System.nanoTime();
+                renderer.write(script, path);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            System.out.format("Wrote %.1f MB in %.1f ms%n", Files.size(path) / 1e6, best / 1e6);
+        } finally {
+            Files.delete(path);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author jo
+ */
+public class WaveGeneratorTest {
+
+    private static final float FRAME_RATE = 8000.0F;
+    // a whole number of cycles in one second, so the harmonics fall exactly on DFT bins of 1Hz
+    private static final double FREQUENCY = 700.0;
+    private static final int FRAMES = (int) FRAME_RATE;
+
+    /**
+     * Power in the bins that are not harmonics, i.e. that only aliases can reach, relative to that in
+     * the harmonics
+     */
+    private static double getAliasingDb(WaveGenerator.WaveGen waveGen) {
+        float[] buffer = new float[FRAMES];
+        new Oscillator(waveGen, FREQUENCY, FRAME_RATE).fill(buffer, 0, FRAMES, 1.0);
+        double[] cos = new double[FRAMES];
+        double[] sin = new double[FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            cos[i] = Math.cos(2 * Math.PI * i / FRAMES);
+            sin[i] = Math.sin(2 * Math.PI * i / FRAMES);
+        }
+        double harmonics = 0;
+        double aliases = 0;
+        for (int bin = 1; bin < FRAMES / 2; bin++) {
+            double re = 0;
+            double im = 0;
+            for (int i = 0, angle = 0; i < FRAMES; i++, angle = (angle + bin) % FRAMES) {
+                re += buffer[i] * cos[angle];
+                im += buffer[i] * sin[angle];
+            }
+            double power = re * re + im * im;
+            if (bin % (int) FREQUENCY == 0) {
+                harmonics += power;
+            } else {
+                aliases += power;
+            }
+        }
+        return 10 * Math.log10(aliases / harmonics);
+    }
+
+    @Test
+    public void samePhase() {
+        // with no increment the band-limited waveforms are the naive ones
+        for (double position = 0.0; position < 1.0; position += 0.01) {
+            assertEquals(WaveGenerator.Waveform.SQUARE.getValue(position), WaveGenerator.BandLimited.SQUARE.getValue(position), 0.0);
+            assertEquals(WaveGenerator.Waveform.TRIANGLE.getValue(position), WaveGenerator.BandLimited.TRIANGLE.getValue(position), 0.0);
+            assertEquals(WaveGenerator.Waveform.SAWTOOTH.getValue(position), WaveGenerator.BandLimited.SAWTOOTH.getValue(position), 0.0);
+        }
+    }
+
+    /**
+     * The band-limited waveforms alias much less than the naive ones
+     */
+    @Test
+    public void aliasing() {
+        System.out.format("%-10s %12s %12s\n", "waveform", "naive dB", "blep dB");
+        for (WaveGenerator.BandLimited bandLimited : WaveGenerator.BandLimited.values()) {
+            WaveGenerator.Waveform naive = WaveGenerator.Waveform.valueOf(bandLimited.name());
+            double naiveDb = getAliasingDb(naive);
+            double bandLimitedDb = getAliasingDb(bandLimited);
+            System.out.format("%-10s %12.1f %12.1f\n", bandLimited, naiveDb, bandLimitedDb);
+            assertTrue(bandLimitedDb < naiveDb - 10);
+        }
+    }
+
+    /**
+     * Compare the time per sample of the naive and band-limited waveforms
+     */
+    @Test
+    public void benchmark() {
+        float[] buffer = new float[(int) FRAME_RATE * 5];
+        System.out.format("%-10s %12s %12s\n", "waveform", "naive", "band-limited");
+        for (WaveGenerator.BandLimited bandLimited : WaveGenerator.BandLimited.values()) {
+            Oscillator naive = new Oscillator(WaveGenerator.Waveform.valueOf(bandLimited.name()), FREQUENCY, FRAME_RATE);
+            Oscillator blep = new Oscillator(bandLimited, FREQUENCY, FRAME_RATE);
+            long naiveNanos = Long.MAX_VALUE;
+            long blepNanos = Long.MAX_VALUE;
+            for (int run = 0; run < 20; run++) {
+                long start = System.nanoTime();
+                naive.fill(buffer, 0, buffer.length, 0.5);
+                naiveNanos = Math.min(naiveNanos, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                blep.fill(buffer, 0, buffer.length, 0.5);
+                blepNanos = Math.min(blepNanos, System.nanoTime() - start);
+            }
+            System.out.format("%-10s %9.2f ns %9.2f ns\n", bandLimited,
+                    (double) naiveNanos / buffer.length, (double) blepNanos / buffer.length);
+        }
+    }
+}
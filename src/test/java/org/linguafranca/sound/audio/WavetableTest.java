@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author jo
+ */
+public class WavetableTest {
+
+    private static final float FRAME_RATE = 44100.0F;
+
+    // one bit of 16 bit audio
+    private static final double LSB_16 = 1.0 / 32768;
+
+    @Test
+    public void accuracy() {
+        Wavetable linear = WaveGenerator.Waveform.SINE.toWavetable(4096, Wavetable.Interpolation.LINEAR);
+        assertTrue(linear.getMaxError(WaveGenerator.Waveform.SINE, 100000) < LSB_16);
+        Wavetable cubic = WaveGenerator.Waveform.SINE.toWavetable(1024, Wavetable.Interpolation.CUBIC);
+        assertTrue(cubic.getMaxError(WaveGenerator.Waveform.SINE, 100000) < LSB_16);
+    }
+
+    @Test
+    public void wraps() {
+        for (Wavetable.Interpolation interpolation : Wavetable.Interpolation.values()) {
+            Wavetable wavetable = WaveGenerator.Waveform.SINE.toWavetable(256, interpolation);
+            assertEquals(0.0, wavetable.getValue(0.0), 1e-6);
+            assertEquals(0.0, wavetable.getValue(1.0), 1e-6);
+        }
+    }
+
+    private static double nanosPerSample(WaveGenerator.WaveGen waveGen) {
+        float[] buffer = new float[(int) FRAME_RATE];
+        Oscillator oscillator = new Oscillator(waveGen, 985.2, FRAME_RATE);
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < 20; run++) {
+            long start = System.nanoTime();
+            oscillator.fill(buffer, 0, buffer.length, 0.5);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return (double) best / buffer.length;
+    }
+
+    /**
+     * Print the error and cost of each table size and interpolation, to choose between them
+     */
+    @Test
+    public void report() {
+        System.out.format("%-24s %12s %10s %12s\n", "waveGen", "max error", "dB", "ns/sample");
+        System.out.format("%-24s %12s %10s %12.2f\n", "Math.sin", "-", "-", nanosPerSample(WaveGenerator.Waveform.SINE));
+        for (int size = 256; size <= 16384; size *= 4) {
+            for (Wavetable.Interpolation interpolation : Wavetable.Interpolation.values()) {
+                Wavetable wavetable = WaveGenerator.Waveform.SINE.toWavetable(size, interpolation);
+                double error = wavetable.getMaxError(WaveGenerator.Waveform.SINE, 100000);
+                System.out.format("%-24s %12.3e %10.1f %12.2f\n", wavetable, error, 20 * Math.log10(error), nanosPerSample(wavetable));
+            }
+        }
+    }
+}
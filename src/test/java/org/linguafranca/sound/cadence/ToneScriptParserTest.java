@@ -381,6 +381,27 @@ public class ToneScriptParserTest {
         }
     }
 
+    @Test
+    public void parseFreqScript6() {
+        Tone.List list = ToneScriptParser.parseFreqScript("400*25@-19,450@-19");
+        assertEquals(2, list.size());
+        assertEquals(400, list.get(0).getFrequency(), 0.0001);
+        assertEquals(25, list.get(0).getModulationFrequency(), 0.0001);
+        assertTrue(list.get(0).isModulated());
+        assertEquals(-19, Tone.getDbFromAmplitude(list.get(0).getAmplitude()), 0.01);
+        assertFalse(list.get(1).isModulated());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseFreqScript7() {
+        try {
+            ToneScriptParser.parseFreqScript("400*25*2@-19");
+        } catch (Exception e) {
+            System.out.println(e.getMessage());
+            throw e;
+        }
+    }
+
     @Test
     public void parseCadenceSection() {
         CadenceSection section = ToneScriptParser.parseCadenceSection("60(2/4)", new Tone.List());
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.player;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author jo
+ */
+public class QueueItemTest {
+
+    @Test
+    public void firstSoundLatency() throws Exception {
+        QueueItem<String> item = new QueueItem<>("item");
+        assertEquals(-1, item.getFirstSoundLatencyNanos());
+        item.setFirstSound();
+        // not queued
+        assertEquals(-1, item.getFirstSoundLatencyNanos());
+
+        item = new QueueItem<>("item");
+        item.setEnqueued();
+        assertEquals(-1, item.getFirstSoundLatencyNanos());
+        Thread.sleep(20);
+        item.setFirstSound();
+        long latency = item.getFirstSoundLatencyNanos();
+        assertTrue(latency >= 20000000);
+
+        // only the first sound counts
+        Thread.sleep(20);
+        item.setFirstSound();
+        assertEquals(latency, item.getFirstSoundLatencyNanos());
+    }
+}
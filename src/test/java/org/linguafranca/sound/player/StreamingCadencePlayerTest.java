@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2011 - 2021 Jo Rabin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.linguafranca.sound.player;
+
+import org.junit.Test;
+import org.linguafranca.sound.cadence.CadenceScript;
+import org.linguafranca.sound.cadence.CadenceSection;
+import org.linguafranca.sound.cadence.Cadences;
+import org.linguafranca.sound.cadence.ToneScriptParser;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author jo
+ */
+public class StreamingCadencePlayerTest {
+
+    @Test
+    public void playSync() throws Exception {
+        StreamingCadencePlayer player = new StreamingCadencePlayer();
+
+        player.openSound();
+        try {
+            CadenceScript cs = ToneScriptParser.parseToneScript("Stutter Tone", "350@-19,440@-19;2(.1/.1/1+2);10(*/0/1+2)");
+            for (CadenceSection cadence : cs.getCadences()) {
+                QueueItem<CadenceSection> item = player.queue(cadence, true);
+                assertTrue(item.isFinished());
+            }
+        } finally {
+            player.closeSound(100);
+        }
+    }
+
+    @Test
+    public void playAsync() throws Exception {
+        StreamingCadencePlayer player = new StreamingCadencePlayer();
+
+        player.openSound();
+        try {
+            QueueItem<CadenceSection> last = null;
+            for (CadenceSection section : ToneScriptParser.parseToneScript("uk-SIT", Cadences.CALL_PROGRESS.get("uk_SIT")).getCadences()) {
+                last = player.queue(section, false);
+            }
+            player.dial("123");
+            //noinspection SynchronizationOnLocalVariableOrMethodParameter
+            synchronized (last) {
+                while (!last.isFinished() && !last.isAbandoned()) {
+                    last.wait(10000);
+                }
+            }
+            assertTrue(last.isFinished());
+        } finally {
+            player.closeSound(100);
+        }
+    }
+}
@@ -19,6 +19,8 @@ package org.linguafranca.sound.player;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.linguafranca.sound.audio.AudioEncoder;
+import org.linguafranca.sound.audio.CadenceSectionPlayback;
 import org.linguafranca.sound.cadence.CadenceScript;
 import org.linguafranca.sound.cadence.CadenceSection;
 import org.linguafranca.sound.cadence.Cadences;
@@ -26,6 +28,11 @@ import org.linguafranca.sound.cadence.ToneScriptParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+
 /**
  * @author jo
  */
@@ -100,6 +107,42 @@ public class WaveCadencePlayerTest {
     }
 
 
+    @Test
+    public void lookaheadLatency() throws Exception {
+        // short sections of tones not heard before, so the ones queued behind have to be got ready
+        for (boolean lookahead : new boolean[]{false, true}) {
+            WaveCadencePlayer player = new WaveCadencePlayer(AudioEncoder.DEFAULT_AUDIO_FORMAT,
+                    CadenceSectionPlayback.Scheduling.DEADLINE, lookahead);
+            player.openSound();
+            try {
+                List<QueueItem<CadenceSection>> items = new ArrayList<>();
+                for (int i = 0; i < 8; i++) {
+                    double frequency = lookahead ? 500 + 7 * i : 800 + 7 * i;
+                    CadenceScript script = ToneScriptParser.parseToneScript(frequency + "@-25;0.3(.3/0/1)");
+                    items.add(player.queue(script.getCadences().get(0), false));
+                }
+                QueueItem<CadenceSection> last = items.get(items.size() - 1);
+                //noinspection SynchronizationOnLocalVariableOrMethodParameter
+                synchronized (last) {
+                    while (!last.isFinished() && !last.isAbandoned()) {
+                        last.wait(10000);
+                    }
+                }
+                long total = 0;
+                // the first item has nothing ahead of it to hide behind
+                for (QueueItem<CadenceSection> item : items.subList(1, items.size())) {
+                    assertTrue(item.isFinished());
+                    // what it waited beyond the items ahead of it
+                    total += item.getFirstSoundLatencyNanos() - items.indexOf(item) * 300000000L;
+                }
+                System.out.format("lookahead %-5s %.3f ms average delay to first sound%n", lookahead,
+                        total / (items.size() - 1) / 1e6);
+            } finally {
+                player.closeSound(1000);
+            }
+        }
+    }
+
     @Test
     public void playAsync() throws Exception {
         play( "test", "350@-21,440@-19;10(*/0/1+2)");